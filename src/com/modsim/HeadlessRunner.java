@@ -0,0 +1,321 @@
+package com.modsim;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.NRAM;
+import com.modsim.modules.Register;
+import com.modsim.modules.SwitchInput;
+import com.modsim.simulator.LaneSim;
+import com.modsim.simulator.Sim;
+import com.modsim.util.HexReader;
+import com.modsim.util.HexWriter;
+import com.modsim.util.XMLReader;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a design without the user interface: loads it, runs it for a number of
+ * clock cycles and prints the final state of its registers and memories.
+ *
+ * With -sweep, the design is instead run once for each input vector in a
+ * file, sixteen vectors at a time in the lanes of a LaneSim, and the final
+ * state of its registers is printed for each. A vector is a line of switch
+ * settings, each &lt;module&gt;=&lt;value&gt; with the switch named by its
+ * label or as #ID; switches not set keep their setting in the design, and
+ * anything after a # that doesn't name a module is a comment.
+ */
+public class HeadlessRunner {
+
+    private static final String USAGE =
+            "Usage: HeadlessRunner <design.modsim> [-hex <file.hex>]... [-cycles <n>] [-engine <name>] [-sweep <vectors>]\n"
+            + "  -hex     Loads a hex file into the next NRAM module, in design order\n"
+            + "  -cycles  Number of clock cycles to run (default 100)\n"
+            + "  -engine  Propagation engine: QUEUE, COMPILED, LEVELIZED or PARALLEL (default QUEUE)\n"
+            + "  -sweep   Runs once per line of switch settings in a file, 16 at a time, printing registers";
+
+    /**
+     * Program starting point
+     * @param args Design file followed by options
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String design = null;
+        List<String> hexFiles = new ArrayList<>();
+        int cycles = 100;
+        Sim.Engine engine = Sim.Engine.QUEUE;
+        String vectors = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-hex":
+                        hexFiles.add(args[++i]);
+                        break;
+                    case "-cycles":
+                        cycles = Integer.parseInt(args[++i]);
+                        break;
+                    case "-engine":
+                        engine = Sim.Engine.valueOf(args[++i].toUpperCase());
+                        break;
+                    case "-sweep":
+                        vectors = args[++i];
+                        break;
+                    default:
+                        if (design != null || args[i].startsWith("-")) throw new IllegalArgumentException(args[i]);
+                        design = args[i];
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            design = null;
+        }
+
+        if (design == null || cycles < 0) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        if (vectors != null) {
+            System.exit(sweep(new File(design), hexFiles, new File(vectors), cycles));
+        }
+        System.exit(run(new File(design), hexFiles, cycles, engine));
+    }
+
+    /**
+     * Loads and runs a design, printing its final state
+     * @param design Design file
+     * @param hexFiles Hex files to load into the design's NRAM modules, in order
+     * @param cycles Number of clock cycles to run
+     * @param engine Propagation engine to run with
+     * @return Exit status - 0 on success, 1 if the design couldn't be loaded or stopped with an error
+     */
+    public static int run(File design, List<String> hexFiles, int cycles, Sim.Engine engine) {
+        Sim sim = load(design, hexFiles);
+        if (sim == null) {
+            return 1;
+        }
+        List<BaseModule> modules = modules(sim);
+
+        sim.setEngine(engine);
+        long done = runCycles(sim, cycles);
+        boolean halted = done < 4L * cycles;
+
+        System.out.println("Ran " + (done / 4) + " of " + cycles + " cycles (" + done + " steps)");
+
+        for (BaseModule m : modules) {
+            if (m instanceof Register) {
+                System.out.println("Register " + describe(m) + ": " + ((Register) m).getStoredVal());
+            }
+        }
+        for (BaseModule m : modules) {
+            if (m instanceof NRAM) {
+                System.out.println("NRAM " + describe(m) + ":");
+                System.out.println(HexWriter.hexString((NRAM) m, true));
+            }
+        }
+
+        if (halted) {
+            for (BaseModule m : modules) {
+                if (m.error) System.err.println("Halted at " + m.getModType() + " " + describe(m));
+            }
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Loads a design and runs it once for each input vector, sixteen at a time
+     * in the lanes of a LaneSim, printing the final state of its registers for
+     * each vector
+     * @param design Design file
+     * @param hexFiles Hex files to load into the design's NRAM modules, in order
+     * @param vectorFile File of input vectors, one per line
+     * @param cycles Number of clock cycles to run each vector for
+     * @return Exit status - 0 on success, 1 if the design or vectors couldn't
+     * be loaded or the design looped
+     */
+    public static int sweep(File design, List<String> hexFiles, File vectorFile, int cycles) {
+        Sim sim = load(design, hexFiles);
+        if (sim == null) {
+            return 1;
+        }
+        List<BaseModule> modules = modules(sim);
+
+        // Each vector's settings, and the line it came from
+        List<Map<SwitchInput, Integer>> vectors = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(vectorFile))) {
+            String line;
+            int lineNum = 0;
+            while ((line = in.readLine()) != null) {
+                lineNum++;
+                Map<SwitchInput, Integer> vector = new LinkedHashMap<>();
+                for (String word : line.trim().split("\\s+")) {
+                    if (word.isEmpty()) continue;
+                    int eq = word.indexOf('=');
+                    if (eq < 0) {
+                        if (word.startsWith("#")) break;
+                        System.err.println(vectorFile + ":" + lineNum + ": expected <switch>=<value>, found '" + word + "'");
+                        return 1;
+                    }
+                    BaseModule m = find(modules, word.substring(0, eq));
+                    if (!(m instanceof SwitchInput)) {
+                        System.err.println(vectorFile + ":" + lineNum + ": no switch " + word.substring(0, eq));
+                        return 1;
+                    }
+                    try {
+                        vector.put((SwitchInput) m, Integer.decode(word.substring(eq + 1)));
+                    }
+                    catch (NumberFormatException e) {
+                        System.err.println(vectorFile + ":" + lineNum + ": '" + word.substring(eq + 1) + "' is not a number");
+                        return 1;
+                    }
+                }
+                if (vector.isEmpty()) continue;
+                vectors.add(vector);
+                lines.add(line.trim());
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Unable to read vectors: " + e.getMessage());
+            return 1;
+        }
+
+        long start = System.nanoTime();
+        for (int first = 0; first < vectors.size(); first += LaneSim.LANES) {
+            int count = Math.min(LaneSim.LANES, vectors.size() - first);
+
+            // Every batch starts from the design as loaded
+            LaneSim lanes;
+            sim.lock.writeLock().lock();
+            try {
+                lanes = new LaneSim(sim.getNetlist());
+            }
+            finally {
+                sim.lock.writeLock().unlock();
+            }
+            for (int l = 0; l < count; l++) {
+                for (Map.Entry<SwitchInput, Integer> e : vectors.get(first + l).entrySet()) {
+                    lanes.setSwitch(l, e.getKey(), e.getValue());
+                }
+            }
+
+            try {
+                lanes.settle();
+                for (long step = 0; step < 4L * cycles; step++) {
+                    lanes.step();
+                }
+            }
+            catch (IllegalStateException e) {
+                System.err.println("Halted in vectors " + (first + 1) + " to " + (first + count) + ": " + e.getMessage());
+                return 1;
+            }
+
+            for (int l = 0; l < count; l++) {
+                System.out.println("Vector " + (first + l + 1) + ": " + lines.get(first + l));
+                for (BaseModule m : modules) {
+                    if (m instanceof Register) {
+                        System.out.println("Register " + describe(m) + ": " + lanes.getRegister(l, (Register) m));
+                    }
+                }
+            }
+        }
+
+        double ms = (System.nanoTime() - start) / 1e6;
+        System.out.println(String.format("Ran %d vectors for %d cycles each in %.1f ms",
+                vectors.size(), cycles, ms));
+        return 0;
+    }
+
+    /**
+     * Loads a design into a new simulator, with memory images for its NRAM
+     * modules. Problems are reported on stderr.
+     * @param design Design file
+     * @param hexFiles Hex files to load into the design's NRAM modules, in order
+     * @return The simulator, or null if the design couldn't be loaded
+     */
+    static Sim load(File design, List<String> hexFiles) {
+        Sim sim = new Sim();
+
+        // The file path is only set once the design has loaded
+        XMLReader.readFile(design, sim);
+        if (sim.filePath.isEmpty()) {
+            return null;
+        }
+
+        // Memory images go to the NRAM modules in the order they appear
+        List<NRAM> memories = new ArrayList<>();
+        for (BaseModule m : modules(sim)) {
+            if (m instanceof NRAM) memories.add((NRAM) m);
+        }
+        if (hexFiles.size() > memories.size()) {
+            System.err.println(design + ": design has " + memories.size() + " NRAM module(s) but " + hexFiles.size() + " hex file(s) were given");
+            return null;
+        }
+        for (int i = 0; i < hexFiles.size(); i++) {
+            File hex = new File(hexFiles.get(i));
+            if (!hex.canRead()) {
+                System.err.println(design + ": unable to read hex file " + hex);
+                return null;
+            }
+            HexReader.readFile(hex, memories.get(i));
+        }
+        return sim;
+    }
+
+    /**
+     * Runs a loaded design for a number of clock cycles, or until it stops
+     * with an error
+     * @return The number of steps run - four a cycle
+     */
+    static long runCycles(Sim sim, int cycles) {
+        sim.running = true;
+        long steps = 4L * cycles;
+        long done = 0;
+        while (done < steps && sim.running) {
+            sim.step();
+            done++;
+        }
+        sim.running = false;
+        return done;
+    }
+
+    /**
+     * @return A snapshot of the design's modules
+     */
+    static List<BaseModule> modules(Sim sim) {
+        sim.lock.readLock().lock();
+        try {
+            return new ArrayList<>(sim.getModules());
+        }
+        finally {
+            sim.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds a module by its label, or by ID given as #ID
+     * @return The module, or null if there's none
+     */
+    static BaseModule find(List<BaseModule> modules, String name) {
+        for (BaseModule m : modules) {
+            if (name.startsWith("#") ? name.equals("#" + m.ID) : name.equals(m.label)) return m;
+        }
+        return null;
+    }
+
+    /**
+     * Identifies a module by its ID and label
+     */
+    static String describe(BaseModule m) {
+        return m.label.isEmpty() ? "#" + m.ID : "#" + m.ID + " '" + m.label + "'";
+    }
+
+}
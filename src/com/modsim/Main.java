@@ -7,6 +7,8 @@ import com.modsim.util.ModuleClipboard;
 import com.modsim.util.Selection;
 
 import javax.swing.*;
+import java.awt.GraphicsEnvironment;
+import java.util.Arrays;
 
 /**
  * Just does initialisation for the program
@@ -18,10 +20,44 @@ public class Main {
 	public static GUI ui = null;
 	public static Sim sim = null;
 
+	// Undo stack of the design on screen - Main.sim's
 	public static OperationStack opStack = null;
 	public static ModuleClipboard clipboard = null;
 	public static Selection selection = null;
 
+	/**
+	 * Shows a message to the user - in a dialog when there's a user interface,
+	 * otherwise on the error stream. Dialogs requested off the event thread are
+	 * shown later, so the caller doesn't block while holding the sim lock.
+	 * @param message Message to show
+	 * @param title Dialog title
+	 * @param messageType JOptionPane message type
+	 */
+	public static void showMessage(final Object message, final String title, final int messageType) {
+		if (ui == null || GraphicsEnvironment.isHeadless()) {
+			String text = message instanceof Object[] ? Arrays.toString((Object[]) message) : String.valueOf(message);
+			System.err.println(title + ": " + text);
+		}
+		else if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					JOptionPane.showMessageDialog(ui.frame, message, title, messageType);
+				}
+			});
+		}
+		else {
+			JOptionPane.showMessageDialog(ui.frame, message, title, messageType);
+		}
+	}
+
+	/**
+	 * Shows an informational message to the user
+	 * @param message Message to show
+	 */
+	public static void showMessage(Object message) {
+		showMessage(message, "Message", JOptionPane.INFORMATION_MESSAGE);
+	}
+
 	/**
 	 * Program starting point
 	 * @param args System argument
@@ -41,13 +77,11 @@ public class Main {
 			}
 		});
 
-		// Set up operation stack & clipboard
-		opStack = new OperationStack();
+		// Set up simulator, with its operation stack, & clipboard
+		sim = new Sim();
+		opStack = sim.opStack;
 		clipboard = new ModuleClipboard();
 		selection = new Selection(true);
-
-		// Set up simulator
-		sim = new Sim();
 	}
 
 }
@@ -0,0 +1,356 @@
+package com.modsim;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.NRAM;
+import com.modsim.modules.Register;
+import com.modsim.simulator.Sim;
+import com.modsim.util.BinData;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs every design in a directory without the user interface, in parallel,
+ * and checks each one's registers and memories against the expected outcome -
+ * for grading a batch of submissions of the same exercise.
+ *
+ * The outcome expected of a design is read from a file of the same name with
+ * the extension .expect beside it, or else from the file given with -expect.
+ * Each line of it is one of:
+ *   cycles &lt;n&gt;                     Number of clock cycles to run
+ *   hex &lt;file.hex&gt;                 Loads a hex file into the next NRAM module
+ *   register &lt;module&gt; &lt;value&gt;      Expected value stored by a register
+ *   nram &lt;module&gt; &lt;address&gt; &lt;byte&gt; Expected byte at an NRAM address
+ * where a module is named by its label or as #ID, numbers are decimal or
+ * 0x-prefixed hex, hex files are relative to the .expect file and anything
+ * after a # is a comment. A design passes if it loads, runs its cycles
+ * without stopping with an error and meets every expectation.
+ */
+public class RegressionFarm {
+
+    private static final String USAGE =
+            "Usage: RegressionFarm <directory> [-expect <file.expect>] [-hex <file.hex>]... [-cycles <n>] [-engine <name>] [-threads <n>]\n"
+            + "  -expect   Expected outcome of designs without their own .expect file\n"
+            + "  -hex      Loads a hex file into the next NRAM module, in design order\n"
+            + "  -cycles   Number of clock cycles to run (default 100)\n"
+            + "  -engine   Propagation engine: QUEUE, COMPILED, LEVELIZED or PARALLEL (default QUEUE)\n"
+            + "  -threads  Number of designs run at once (default: one per processor)";
+
+    /**
+     * How a design is run and the outcome expected of it
+     */
+    private static class Expectation {
+        int cycles;
+        final List<String> hexFiles = new ArrayList<>();
+        final List<String[]> checks = new ArrayList<>();
+
+        Expectation(int cycles, List<String> hexFiles) {
+            this.cycles = cycles;
+            this.hexFiles.addAll(hexFiles);
+        }
+
+        /**
+         * Reads an expectation file over the given defaults
+         */
+        Expectation(File file, int cycles, List<String> hexFiles) throws IOException {
+            this(cycles, hexFiles);
+
+            // Hex files named in the file replace the defaults
+            boolean ownHex = false;
+
+            try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+                String line;
+                int lineNum = 0;
+                while ((line = in.readLine()) != null) {
+                    lineNum++;
+                    int comment = line.indexOf('#');
+                    while (comment >= 0 && comment + 1 < line.length() && Character.isDigit(line.charAt(comment + 1))) {
+                        // #ID names a module rather than starting a comment
+                        comment = line.indexOf('#', comment + 1);
+                    }
+                    if (comment >= 0) line = line.substring(0, comment);
+                    String[] words = line.trim().split("\\s+");
+                    if (words[0].isEmpty()) continue;
+
+                    try {
+                        switch (words[0]) {
+                            case "cycles":
+                                expectWords(words, 2);
+                                this.cycles = parseNumber(words[1]);
+                                break;
+                            case "hex":
+                                expectWords(words, 2);
+                                if (!ownHex) this.hexFiles.clear();
+                                ownHex = true;
+                                File hex = new File(words[1]);
+                                if (!hex.isAbsolute()) hex = new File(file.getAbsoluteFile().getParentFile(), words[1]);
+                                this.hexFiles.add(hex.getPath());
+                                break;
+                            case "register":
+                                expectWords(words, 3);
+                                parseNumber(words[2]);
+                                checks.add(words);
+                                break;
+                            case "nram":
+                                expectWords(words, 4);
+                                parseNumber(words[2]);
+                                parseNumber(words[3]);
+                                checks.add(words);
+                                break;
+                            default:
+                                throw new IllegalArgumentException("unknown directive '" + words[0] + "'");
+                        }
+                    }
+                    catch (IllegalArgumentException e) {
+                        throw new IOException(file + ":" + lineNum + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+
+        private static void expectWords(String[] words, int n) {
+            if (words.length != n) {
+                throw new IllegalArgumentException("'" + words[0] + "' takes " + (n - 1) + " argument(s)");
+            }
+        }
+    }
+
+    /**
+     * What became of one design
+     */
+    private static class Result {
+        final String name;
+        boolean passed = false;
+        long steps = 0;
+        long nanos = 0;
+        final List<String> failures = new ArrayList<>();
+
+        Result(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Program starting point
+     * @param args Directory followed by options
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String dir = null;
+        String expectFile = null;
+        List<String> hexFiles = new ArrayList<>();
+        int cycles = 100;
+        Sim.Engine engine = Sim.Engine.QUEUE;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-expect":
+                        expectFile = args[++i];
+                        break;
+                    case "-hex":
+                        hexFiles.add(args[++i]);
+                        break;
+                    case "-cycles":
+                        cycles = Integer.parseInt(args[++i]);
+                        break;
+                    case "-engine":
+                        engine = Sim.Engine.valueOf(args[++i].toUpperCase());
+                        break;
+                    case "-threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        if (dir != null || args[i].startsWith("-")) throw new IllegalArgumentException(args[i]);
+                        dir = args[i];
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            dir = null;
+        }
+
+        if (dir == null || cycles < 0 || threads < 1 || !new File(dir).isDirectory()) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        Expectation defaults;
+        try {
+            defaults = expectFile != null
+                    ? new Expectation(new File(expectFile), cycles, hexFiles)
+                    : new Expectation(cycles, hexFiles);
+        }
+        catch (IOException e) {
+            System.err.println("Unable to read expectations: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        System.exit(run(new File(dir), defaults, engine, threads));
+    }
+
+    /**
+     * Runs every design in a directory and prints whether each passed
+     * @return Exit status - 0 if every design passed, 1 otherwise
+     */
+    private static int run(File dir, Expectation defaults, Sim.Engine engine, int threads) {
+        File[] designs = dir.listFiles((d, name) -> name.endsWith(".modsim") || name.endsWith(".xml"));
+        if (designs == null || designs.length == 0) {
+            System.err.println("No designs in " + dir);
+            return 1;
+        }
+        Arrays.sort(designs);
+
+        // Designs vary a lot in how long they run - idle threads take work
+        // queued for the busy ones
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        List<Future<Result>> results = new ArrayList<>();
+        for (File design : designs) {
+            results.add(pool.submit(() -> runDesign(design, defaults, engine)));
+        }
+
+        // Reported in directory order, as they become available
+        int passed = 0;
+        long steps = 0;
+        for (Future<Result> future : results) {
+            Result r;
+            try {
+                r = future.get();
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+
+            double ms = r.nanos / 1e6;
+            String line = String.format("%s  %s  %d steps  %.1f ms  %.0f steps/s",
+                    r.passed ? "PASS" : "FAIL", r.name, r.steps, ms, ms > 0 ? r.steps * 1000 / ms : 0.0);
+            System.out.println(line);
+            for (String f : r.failures) {
+                System.out.println("      " + f);
+            }
+
+            if (r.passed) passed++;
+            steps += r.steps;
+        }
+        pool.shutdown();
+
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format("%d of %d designs passed in %.2f s on %d thread(s), %.0f steps/s overall",
+                passed, designs.length, secs, threads, secs > 0 ? steps / secs : 0.0));
+
+        return passed == designs.length ? 0 : 1;
+    }
+
+    /**
+     * Loads, runs and checks one design
+     */
+    private static Result runDesign(File design, Expectation defaults, Sim.Engine engine) {
+        Result r = new Result(design.getName());
+        try {
+            Expectation expect = defaults;
+            String name = design.getName();
+            File own = new File(design.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".expect");
+            if (own.isFile()) {
+                expect = new Expectation(own, defaults.cycles, defaults.hexFiles);
+            }
+
+            Sim sim = HeadlessRunner.load(design, expect.hexFiles);
+            if (sim == null) {
+                r.failures.add("Unable to load the design");
+                return r;
+            }
+            sim.setEngine(engine);
+            long start = System.nanoTime();
+            r.steps = HeadlessRunner.runCycles(sim, expect.cycles);
+            r.nanos = System.nanoTime() - start;
+
+            List<BaseModule> modules = HeadlessRunner.modules(sim);
+            if (r.steps < 4L * expect.cycles) {
+                for (BaseModule m : modules) {
+                    if (m.error) r.failures.add("Halted at " + m.getModType() + " " + HeadlessRunner.describe(m));
+                }
+                if (r.failures.isEmpty()) r.failures.add("Halted");
+            }
+            for (String[] check : expect.checks) {
+                String failure = check(modules, check);
+                if (failure != null) r.failures.add(failure);
+            }
+        }
+        catch (Exception e) {
+            r.failures.add(e.toString());
+        }
+        r.passed = r.failures.isEmpty();
+        return r;
+    }
+
+    /**
+     * Checks a design meets an expectation. Stored data only matches when
+     * every bit of it is driven.
+     * @return Why it doesn't, or null if it does
+     */
+    private static String check(List<BaseModule> modules, String[] check) {
+        BaseModule m = HeadlessRunner.find(modules, check[1]);
+        if (check[0].equals("register")) {
+            if (!(m instanceof Register)) return "No register " + check[1];
+            int expected = parseNumber(check[2]);
+            if (expected < 0 || expected > 0xF) return "Value " + check[2] + " is out of range";
+            BinData val = ((Register) m).getStoredVal();
+            if (val.getPacked() != BinData.packUInt(expected)) {
+                return "Register " + HeadlessRunner.describe(m) + " holds " + describe(val) + ", expected "
+                        + describe(new BinData(expected));
+            }
+        }
+        else {
+            if (!(m instanceof NRAM)) return "No NRAM " + check[1];
+            int address = parseNumber(check[2]);
+            int expected = parseNumber(check[3]);
+            if (address < 0 || address > NRAM.MAX_ADDR) return "Address " + check[2] + " is out of range";
+            if (expected < 0 || expected > 0xFF) return "Value " + check[3] + " is out of range";
+            BinData[] bits = ((NRAM) m).read(address);
+            if (bits[0].getPacked() != BinData.packUInt(expected) || bits[1].getPacked() != BinData.packUInt(expected >> 4)) {
+                return String.format("NRAM %s holds %s at %04x, expected %02x", HeadlessRunner.describe(m),
+                        describe(bits[1], bits[0]), address, expected);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Formats stored data, most significant part first: in hex when every bit
+     * is driven, otherwise in binary with the floating bits shown as x
+     */
+    private static String describe(BinData... parts) {
+        boolean floating = false;
+        for (BinData d : parts) {
+            if ((d.getPacked() & 0xF0) != 0xF0) floating = true;
+        }
+
+        StringBuilder s = new StringBuilder();
+        for (BinData d : parts) {
+            s.append(floating ? d.toString() : Integer.toHexString(d.getUInt()));
+        }
+        if (floating) s.append(" (x bits floating)");
+        return s.toString();
+    }
+
+    private static int parseNumber(String s) {
+        try {
+            return Integer.decode(s);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + s + "' is not a number");
+        }
+    }
+
+}
@@ -12,16 +12,19 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseWheelEvent;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.util.prefs.Preferences;
 
 import javax.swing.*;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import com.modsim.Main;
-import com.modsim.util.BinData;
 import com.modsim.util.HexReader;
 import com.modsim.util.HexWriter;
+import com.modsim.util.MemoryImage;
 import com.modsim.modules.NRAM;
+import com.modsim.operations.MemoryOperation;
+import com.modsim.simulator.Sim;
 import com.modsim.util.XMLReader;
 
 public class MemEdit {
@@ -38,6 +41,7 @@ public class MemEdit {
     };
     private final JScrollBar scroll = new JScrollBar(JScrollBar.VERTICAL);
     private final JTextField jumpAdr = new JTextField();
+    private final JMenuItem detachItem = new JMenuItem("Stop Using Backing File");
 
     private final MemView memView;
 
@@ -132,7 +136,9 @@ public class MemEdit {
      * Updates the view of the memory contents
      */
     public void update() {
-        frame.setTitle("NRAM " + nram.label);
+        File backing = nram.getBackingFile();
+        frame.setTitle("NRAM " + nram.label + (backing != null ? " - " + backing.getName() : ""));
+        detachItem.setEnabled(backing != null);
         memView.setUpdated(updAdr);
         memView.repaint();
     }
@@ -143,8 +149,8 @@ public class MemEdit {
      * @return The stored byte
      */
     public int getByte(int adr) {
-        BinData[] bits = nram.read(adr);
-        return (bits[1].getUInt() << 4) | (bits[0].getUInt());
+        int packed = nram.readPacked(adr);
+        return ((packed >> 8) & 0xF) << 4 | (packed & 0xF);
     }
 
     /**
@@ -236,7 +242,18 @@ public class MemEdit {
 
                     prefs.put("hex_fileDir", fd.getDirectory());
                     File file = new File(path);
-                    HexReader.readFile(file, nram);
+                    Sim sim = nram.getSim();
+                    NRAM.Snapshot before, after;
+                    sim.lock.writeLock().lock();
+                    try {
+                        before = nram.snapshot();
+                        HexReader.readFile(file, nram);
+                        after = nram.snapshot();
+                    }
+                    finally {
+                        sim.lock.writeLock().unlock();
+                    }
+                    sim.opStack.pushOp(new MemoryOperation(nram, before, after));
                     updAdr = -1;
                     update();
                 }
@@ -254,6 +271,96 @@ public class MemEdit {
         });
         file.add(menuItem);
 
+        file.addSeparator();
+
+        menuItem = new JMenuItem("Import Binary...");
+        menuItem.setToolTipText("Loads a raw binary image into the module at a base address");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                importImage(false);
+            }
+        });
+        file.add(menuItem);
+
+        menuItem = new JMenuItem("Import Intel HEX...");
+        menuItem.setToolTipText("Loads an Intel HEX image into the module");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                importImage(true);
+            }
+        });
+        file.add(menuItem);
+
+        menuItem = new JMenuItem("Export Binary...");
+        menuItem.setToolTipText("Saves a range of addresses to a raw binary image");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                exportImage(false);
+            }
+        });
+        file.add(menuItem);
+
+        menuItem = new JMenuItem("Export Intel HEX...");
+        menuItem.setToolTipText("Saves a range of addresses to an Intel HEX image");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                exportImage(true);
+            }
+        });
+        file.add(menuItem);
+
+        file.addSeparator();
+
+        menuItem = new JMenuItem("Use Backing File...");
+        menuItem.setToolTipText("Keeps the contents in a binary file as they change - an existing file's contents are loaded");
+        menuItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                File file = chooseImageFile("Use backing file", FileDialog.SAVE, ".bin");
+                if (file == null) return;
+
+                // Not undoable - undoing would write the old contents over
+                // the file's
+                Sim sim = nram.getSim();
+                IOException error = null;
+                sim.lock.writeLock().lock();
+                try {
+                    nram.attachBackingFile(file);
+                }
+                catch (IOException ex) {
+                    error = ex;
+                }
+                finally {
+                    sim.lock.writeLock().unlock();
+                }
+                if (error != null) {
+                    error.printStackTrace();
+                    Main.showMessage("Unable to use backing file " + file.getName() + ": " + error.getMessage());
+                }
+                sim.propagate(nram);
+                updAdr = -1;
+                update();
+            }
+        });
+        file.add(menuItem);
+
+        detachItem.setToolTipText("Stops keeping the contents in the backing file, which is left as it is");
+        detachItem.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                Sim sim = nram.getSim();
+                sim.lock.writeLock().lock();
+                try {
+                    nram.detachBackingFile();
+                }
+                finally {
+                    sim.lock.writeLock().unlock();
+                }
+                update();
+            }
+        });
+        file.add(detachItem);
+
+        file.addSeparator();
+
         menuItem = new JMenuItem("Close without save");
         menuItem.setMnemonic(KeyEvent.VK_X);
         menuItem.setToolTipText("Closes the window without saving NRAM contents");
@@ -277,6 +384,150 @@ public class MemEdit {
         menu.add(file);
     }
 
+    /**
+     * Asks for a memory image file and loads it into the module, undoably
+     * @param intelHex Whether it's Intel HEX rather than raw binary
+     */
+    private void importImage(boolean intelHex) {
+        String kind = intelHex ? "Intel HEX" : "binary";
+        File file = chooseImageFile("Import " + kind + " data", FileDialog.LOAD, intelHex ? ".hex" : ".bin");
+        if (file == null) return;
+
+        int[] range = askRange("Import " + kind, intelHex ? "Address offset" : "Base address", !intelHex);
+        if (range == null) return;
+
+        // The store is changed under the write lock, so it isn't changed
+        // by a step at the same time
+        Sim sim = nram.getSim();
+        NRAM.Snapshot before, after;
+        IOException error = null;
+        sim.lock.writeLock().lock();
+        try {
+            before = nram.snapshot();
+            try {
+                if (intelHex) {
+                    MemoryImage.readIntelHex(file, nram, range[0]);
+                }
+                else {
+                    MemoryImage.readBinary(file, nram, range[0], range[1]);
+                }
+            }
+            catch (IOException e) {
+                error = e;
+            }
+            after = nram.snapshot();
+        }
+        finally {
+            sim.lock.writeLock().unlock();
+        }
+
+        if (error instanceof HexReader.FormatException) {
+            Main.showMessage("Invalid Intel HEX file " + file.getName() + ", " + error.getMessage());
+        }
+        else if (error != null) {
+            error.printStackTrace();
+            Main.showMessage("Unable to import " + file.getName() + ": " + error.getMessage());
+        }
+        sim.opStack.pushOp(new MemoryOperation(nram, before, after));
+        updAdr = -1;
+        update();
+    }
+
+    /**
+     * Asks for a range of addresses and a file, and saves the range to it
+     * @param intelHex Whether to save Intel HEX rather than raw binary
+     */
+    private void exportImage(boolean intelHex) {
+        String kind = intelHex ? "Intel HEX" : "binary";
+        int[] range = askRange("Export " + kind, "Base address", true);
+        if (range == null) return;
+
+        String ext = intelHex ? ".hex" : ".bin";
+        File file = chooseImageFile("Export " + kind + " data", FileDialog.SAVE, ext);
+        if (file == null) return;
+        if (!file.getName().contains(".")) {
+            file = new File(file.getPath() + ext);
+        }
+
+        // Read under the lock, so the image is from between steps
+        Sim sim = nram.getSim();
+        IOException error = null;
+        sim.lock.readLock().lock();
+        try {
+            if (intelHex) {
+                MemoryImage.writeIntelHex(file, nram, range[0], range[1]);
+            }
+            else {
+                MemoryImage.writeBinary(file, nram, range[0], range[1]);
+            }
+        }
+        catch (IOException e) {
+            error = e;
+        }
+        finally {
+            sim.lock.readLock().unlock();
+        }
+        if (error != null) {
+            error.printStackTrace();
+            Main.showMessage("Unable to export " + file.getName() + ": " + error.getMessage());
+        }
+    }
+
+    /**
+     * Shows a file dialog for memory images, remembering the directory
+     * @return The file chosen, or null if cancelled
+     */
+    private File chooseImageFile(String title, int mode, String ext) {
+        Preferences prefs = Preferences.userNodeForPackage(MemEdit.class);
+        FileDialog fd = new FileDialog(frame, title, mode);
+        fd.setFile("*" + ext);
+        fd.setDirectory(prefs.get("image_fileDir", prefs.get("hex_fileDir", "")));
+        fd.setVisible(true);
+
+        if (fd.getFile() == null) return null;
+        prefs.put("image_fileDir", fd.getDirectory());
+        return new File(fd.getDirectory() + fd.getFile());
+    }
+
+    /**
+     * Asks for a base address and, optionally, a length, both in hex
+     * @param baseLabel What the base address is called
+     * @param withLength Whether to ask for a length - left blank, it's
+     * everything (-1)
+     * @return {base, length}, or null if cancelled
+     */
+    private int[] askRange(String title, String baseLabel, boolean withLength) {
+        JTextField base = new JTextField("0000");
+        JTextField length = new JTextField();
+        JPanel panel = new JPanel(new GridLayout(0, 2, 5, 5));
+        panel.add(new JLabel(baseLabel + " (hex):"));
+        panel.add(base);
+        if (withLength) {
+            panel.add(new JLabel("Length (hex, blank for all):"));
+            panel.add(length);
+        }
+
+        while (true) {
+            int res = JOptionPane.showConfirmDialog(frame, panel, title,
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+            if (res != JOptionPane.OK_OPTION) return null;
+
+            try {
+                int b = Integer.parseInt(base.getText().trim(), 16);
+                String l = length.getText().trim();
+                int n = l.isEmpty() ? -1 : Integer.parseInt(l, 16);
+                if (b >= 0 && b <= NRAM.MAX_ADDR && n >= -1) {
+                    return new int[] {b, n};
+                }
+            }
+            catch (NumberFormatException nfe) {
+                // Asked again below
+            }
+            JOptionPane.showMessageDialog(frame, "Addresses and lengths are hex numbers, from 0 to "
+                    + String.format("%X", NRAM.MAX_ADDR) + ".", title, JOptionPane.WARNING_MESSAGE);
+        }
+    }
+
     class ScrollAdjustmentListener implements AdjustmentListener {
         public void adjustmentValueChanged(AdjustmentEvent e) {
             memView.setOffset(e.getValue());
@@ -1,9 +1,15 @@
 package com.modsim.gui;
 
 import java.awt.Dimension;
+import java.awt.FileDialog;
 import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
 import javax.swing.*;
+import com.modsim.Main;
 import com.modsim.operations.Ops;
+import com.modsim.simulator.Breakpoint;
+import com.modsim.simulator.Sim;
 
 /**
  * Manager for the main window app_menu
@@ -13,6 +19,7 @@ import com.modsim.operations.Ops;
 public class Menu {
 
     private final JMenuBar app_menu;
+    private ProfilerWindow profiler = null;
 
     /**
      * Retrieve the jmenu
@@ -77,6 +84,149 @@ public class Menu {
 
         sim.add(Ops.toggleRun);
         sim.add(Ops.step);
+        sim.add(Ops.stepBack);
+        sim.addSeparator();
+
+        // Engine selection
+        JMenu engine = new JMenu("Engine");
+        ButtonGroup engineGroup = new ButtonGroup();
+        for (final Sim.Engine e : Sim.Engine.values()) {
+            JRadioButtonMenuItem item = new JRadioButtonMenuItem(e.toString());
+            item.setSelected(e == Sim.Engine.QUEUE);
+            item.addActionListener(event -> Main.sim.setEngine(e));
+            engineGroup.add(item);
+            engine.add(item);
+        }
+        sim.add(engine);
+        sim.addSeparator();
+
+        // Breakpoints - conditions on modules are set from their context menus
+        JMenuItem breakAt = new JMenuItem("Break at Iteration...");
+        breakAt.addActionListener(event -> {
+            String str = JOptionPane.showInputDialog(Main.ui.frame, "Halt at iteration:", Main.sim.iterations + 1);
+            if (str == null) return;
+            try {
+                Main.sim.addBreakpoint(Breakpoint.atIteration(Integer.parseInt(str.trim())));
+            }
+            catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(Main.ui.frame, "Iteration number required", "Bad Input",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        sim.add(breakAt);
+
+        JMenuItem listBreaks = new JMenuItem("Show Breakpoints");
+        listBreaks.addActionListener(event -> {
+            StringBuilder list = new StringBuilder();
+            for (Breakpoint b : Main.sim.getBreakpoints()) {
+                list.append(b).append('\n');
+            }
+            JOptionPane.showMessageDialog(Main.ui.frame, list.length() == 0 ? "No breakpoints set" : list,
+                    "Breakpoints", JOptionPane.INFORMATION_MESSAGE);
+        });
+        sim.add(listBreaks);
+
+        JMenuItem clearBreaks = new JMenuItem("Clear Breakpoints");
+        clearBreaks.addActionListener(event -> Main.sim.clearBreakpoints());
+        sim.add(clearBreaks);
+        sim.addSeparator();
+
+        // Waveform recording - ports are probed from their context menus
+        final JMenuItem record = new JMenuItem("Record Waveforms...");
+        record.addActionListener(event -> {
+            if (Main.sim.recorder.isRecording()) {
+                Main.sim.recorder.stop();
+                record.setText("Record Waveforms...");
+                return;
+            }
+            if (Main.sim.recorder.getProbeCount() == 0) {
+                JOptionPane.showMessageDialog(Main.ui.frame, "Probe some ports first (right-click a port)",
+                        "Nothing to record", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+
+            FileDialog fd = new FileDialog(Main.ui.frame, "Record Waveforms", FileDialog.SAVE);
+            fd.setFile("*.vcd");
+            fd.setVisible(true);
+            if (fd.getFile() == null) return;
+
+            String path = fd.getDirectory() + fd.getFile();
+            if (!path.endsWith(".vcd")) {
+                path = path + ".vcd";
+            }
+            try {
+                Main.sim.recorder.start(new File(path));
+                record.setText("Stop Recording");
+            }
+            catch (IOException e) {
+                Main.showMessage("Couldn't write " + path + ": " + e.getMessage());
+            }
+        });
+        sim.add(record);
+
+        JMenuItem clearProbes = new JMenuItem("Clear Probes");
+        clearProbes.addActionListener(event -> Main.sim.recorder.clearProbes());
+        sim.add(clearProbes);
+        sim.addSeparator();
+
+        // History of past iterations, for stepping back
+        JMenuItem rewind = new JMenuItem("Rewind to Iteration...");
+        rewind.addActionListener(event -> {
+            int first = Main.sim.history.getFirst();
+            if (first < 0) {
+                String why = Main.sim.history.isEnabled() ? "No iterations in the simulation history"
+                        : "The simulation history is off - turn on Simulation > Keep History to record it";
+                JOptionPane.showMessageDialog(Main.ui.frame, why, "Nothing to rewind to", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            int last = Main.sim.history.getLast();
+
+            String str = JOptionPane.showInputDialog(Main.ui.frame,
+                    "Rewind to iteration (" + first + " to " + last + "):", Math.max(first, Main.sim.iterations - 1));
+            if (str == null) return;
+            try {
+                if (!Main.sim.rewind(Integer.parseInt(str.trim()))) {
+                    JOptionPane.showMessageDialog(Main.ui.frame, "That iteration isn't in the simulation history",
+                            "Bad Input", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+            catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(Main.ui.frame, "Iteration number required", "Bad Input",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        sim.add(rewind);
+
+        final JCheckBoxMenuItem keepHistory = new JCheckBoxMenuItem("Keep History", Main.sim.history.isEnabled());
+        keepHistory.addActionListener(event -> Main.sim.history.setEnabled(keepHistory.isSelected()));
+        sim.add(keepHistory);
+
+        JMenuItem historyLimit = new JMenuItem("History Memory Limit...");
+        historyLimit.addActionListener(event -> {
+            String str = JOptionPane.showInputDialog(Main.ui.frame, "Memory for the simulation history (MB):",
+                    Main.sim.history.getBudget() >> 20);
+            if (str == null) return;
+            try {
+                long mb = Long.parseLong(str.trim());
+                if (mb < 1) throw new NumberFormatException();
+                Main.sim.history.setBudget(mb << 20);
+            }
+            catch (NumberFormatException e) {
+                JOptionPane.showMessageDialog(Main.ui.frame, "Size in MB required", "Bad Input",
+                        JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        sim.add(historyLimit);
+        sim.addSeparator();
+
+        JMenuItem profile = new JMenuItem("Profiler...");
+        profile.addActionListener(event -> {
+            if (profiler == null) {
+                profiler = new ProfilerWindow();
+            }
+            profiler.setVisible(true);
+        });
+        sim.add(profile);
 
         app_menu.add(sim);
     }
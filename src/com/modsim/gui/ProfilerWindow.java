@@ -0,0 +1,195 @@
+package com.modsim.gui;
+
+import java.awt.BorderLayout;
+import java.awt.FileDialog;
+import java.awt.FlowLayout;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+
+import com.modsim.Main;
+import com.modsim.simulator.Profiler;
+import com.modsim.simulator.Profiler.Entry;
+
+/**
+ * Shows the propagation profiler's totals per module and per module type, in
+ * tables that sort by any column
+ */
+public class ProfilerWindow extends JFrame {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ProfileTable modules = new ProfileTable(true);
+    private final ProfileTable types = new ProfileTable(false);
+    private final JLabel status = new JLabel();
+    private final Timer refresh;
+
+    /**
+     * Totals in table form
+     */
+    private static class ProfileTable extends AbstractTableModel {
+        private static final long serialVersionUID = 1L;
+
+        private final boolean perModule;
+        private List<Entry> rows = new ArrayList<>();
+        private long totalNanos = 0;
+
+        private static final String[] COLUMNS =
+                {"Module", "Type", "Calls", "Total (ms)", "Mean (ns)", "% of time", "Mean queue", "Max queue"};
+        private static final Class<?>[] CLASSES =
+                {String.class, String.class, Long.class, Double.class, Double.class, Double.class, Double.class, Integer.class};
+
+        ProfileTable(boolean perModule) {
+            this.perModule = perModule;
+        }
+
+        void setRows(List<Entry> rows) {
+            this.rows = rows;
+            totalNanos = 0;
+            for (Entry e : rows) totalNanos += e.nanos;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return perModule ? COLUMNS.length : COLUMNS.length - 1;
+        }
+
+        @Override
+        public String getColumnName(int col) {
+            return COLUMNS[perModule ? col : col + 1];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int col) {
+            return CLASSES[perModule ? col : col + 1];
+        }
+
+        @Override
+        public Object getValueAt(int row, int col) {
+            Entry e = rows.get(row);
+            switch (perModule ? col : col + 1) {
+                case 0:
+                    return e.module.label.isEmpty() ? "#" + e.module.ID : e.module.label + " (#" + e.module.ID + ")";
+                case 1:
+                    return e.type.toString();
+                case 2:
+                    return e.calls;
+                case 3:
+                    return e.nanos / 1e6;
+                case 4:
+                    return e.meanNanos();
+                case 5:
+                    return totalNanos == 0 ? 0.0 : 100.0 * e.nanos / totalNanos;
+                case 6:
+                    return e.meanDepth();
+                default:
+                    return e.depthMax;
+            }
+        }
+    }
+
+    public ProfilerWindow() {
+        super("Propagation Profiler");
+        setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+
+        final Profiler profiler = Main.sim.profiler;
+
+        // Controls
+        JPanel controls = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        final JCheckBox enabled = new JCheckBox("Profiling on", profiler.isEnabled());
+        enabled.addActionListener(e -> profiler.setEnabled(enabled.isSelected()));
+        controls.add(enabled);
+
+        JButton reset = new JButton("Reset");
+        reset.addActionListener(e -> {
+            profiler.reset();
+            update();
+        });
+        controls.add(reset);
+
+        JButton save = new JButton("Save CSV...");
+        save.addActionListener(e -> saveCSV());
+        controls.add(save);
+        controls.add(status);
+        add(controls, BorderLayout.NORTH);
+
+        // Tables
+        JTabbedPane tabs = new JTabbedPane();
+        tabs.addTab("Modules", table(modules));
+        tabs.addTab("Types", table(types));
+        add(tabs, BorderLayout.CENTER);
+
+        // Refresh while shown
+        refresh = new Timer(1000, e -> update());
+
+        setSize(700, 400);
+        setLocationRelativeTo(Main.ui.frame);
+    }
+
+    private static JScrollPane table(ProfileTable model) {
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.setFillsViewportHeight(true);
+        return new JScrollPane(table);
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        super.setVisible(visible);
+        if (visible) {
+            update();
+            refresh.start();
+        }
+        else {
+            refresh.stop();
+        }
+    }
+
+    @Override
+    public void dispose() {
+        refresh.stop();
+        super.dispose();
+    }
+
+    /**
+     * Reloads the totals
+     */
+    private void update() {
+        Profiler profiler = Main.sim.profiler;
+        modules.setRows(profiler.getModules());
+        types.setRows(profiler.getTypes());
+        status.setText(profiler.getSteps() + " steps profiled");
+    }
+
+    /**
+     * Asks for a file and writes the totals to it
+     */
+    private void saveCSV() {
+        FileDialog fd = new FileDialog(this, "Save Profile", FileDialog.SAVE);
+        fd.setFile("*.csv");
+        fd.setVisible(true);
+        if (fd.getFile() == null) return;
+
+        String path = fd.getDirectory() + fd.getFile();
+        if (!path.endsWith(".csv")) {
+            path = path + ".csv";
+        }
+        try {
+            Main.sim.profiler.writeCSV(new File(path));
+        }
+        catch (IOException e) {
+            Main.showMessage("Couldn't write " + path + ": " + e.getMessage());
+        }
+    }
+
+}
@@ -6,12 +6,13 @@ import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JSlider;
 import javax.swing.JToolBar;
+import javax.swing.event.ChangeEvent;
 
 import com.modsim.operations.Ops;
 
 public class ToolBar {
 	public JToolBar toolbar = null;
-	public JButton btnPause, btnRun, btnStep, btnZoomIn, btnZoomOut;
+	public JButton btnPause, btnRun, btnStep, btnStepBack, btnZoomIn, btnZoomOut;
 	public JSlider slideSpeed;
 
 	/**
@@ -38,9 +39,10 @@ public class ToolBar {
 		// Slider
 		JLabel lbl = new JLabel("Speed: ");
 		toolbar.add(lbl);
-		slideSpeed = new JSlider(JSlider.HORIZONTAL, 0, 60, 10);
+		slideSpeed = new JSlider(JSlider.HORIZONTAL, 0, 60, 20);
 		toolbar.add(slideSpeed);
 		slideSpeed.addChangeListener(Ops.sliderSetSpeed);
+		Ops.sliderSetSpeed.stateChanged(new ChangeEvent(slideSpeed));
 		
 		toolbar.addSeparator(new Dimension(15, 0));
 		addNavButtons();
@@ -58,6 +60,10 @@ public class ToolBar {
 		btnRun.setHideActionText(true);
 		toolbar.add(btnRun);
 
+		btnStepBack = new JButton(Ops.stepBack);
+		btnStepBack.setHideActionText(true);
+		toolbar.add(btnStepBack);
+
 		btnStep = new JButton(Ops.step);
 		btnStep.setHideActionText(true);
 		toolbar.add(btnStep);
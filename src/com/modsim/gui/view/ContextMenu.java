@@ -7,6 +7,7 @@ import java.util.List;
 
 import javax.swing.*;
 
+import com.modsim.operations.MemoryOperation;
 import com.modsim.operations.Ops;
 import com.modsim.gui.MemEdit;
 import com.modsim.modules.BaseModule;
@@ -16,6 +17,7 @@ import com.modsim.modules.NRAM;
 import com.modsim.modules.Register;
 import com.modsim.modules.parts.Port;
 import com.modsim.Main;
+import com.modsim.simulator.Breakpoint;
 import com.modsim.simulator.PickableEntity;
 import com.modsim.util.BinData;
 
@@ -28,7 +30,8 @@ public class ContextMenu  {
 	private Port port;
 
 	private JMenuItem rmLink, rotCW, rotCCW, rot180, copy, paste, delete,
-			ramEdit, ramClear, regEdit, regClear, labelEdit, labelSize, persistanceOn, persistanceOff;
+			ramEdit, ramClear, regEdit, regClear, labelEdit, labelSize, persistanceOn, persistanceOff,
+			portBreak, portProbe, ramBreakRead, ramBreakWrite, regBreak;
 
 	/**
 	 * Instantiates the menu system, generating the menu items
@@ -46,6 +49,36 @@ public class ContextMenu  {
             }
         });
 
+		// Break on the value of a port
+		portBreak = new JMenuItem("Break on Port value");
+		portBreak.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (port == null) return;
+
+				BinData pattern = askPattern("Halt when " + port.text + " becomes:");
+				if (pattern != null) {
+					Main.sim.addBreakpoint(Breakpoint.onPort(port, pattern));
+				}
+			}
+		});
+
+		// Record the port in waveforms
+		portProbe = new JMenuItem("Probe Port");
+		portProbe.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (port == null) return;
+
+				if (Main.sim.recorder.isProbed(port)) {
+					Main.sim.recorder.removeProbe(port);
+				}
+				else {
+					Main.sim.recorder.addProbe(port);
+				}
+			}
+		});
+
 		// Rotation
 		rotCW = new JMenuItem(Ops.rotateCW);
 		rotCCW = new JMenuItem(Ops.rotateCCW);
@@ -89,23 +122,47 @@ public class ContextMenu  {
 		ramClear.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				int res = JOptionPane.showConfirmDialog(Main.ui.frame, "Wiping NRAM data cannot be undone",
+				int res = JOptionPane.showConfirmDialog(Main.ui.frame, "Wipe the NRAM data?",
 						"Are you sure?", JOptionPane.OK_CANCEL_OPTION, JOptionPane.WARNING_MESSAGE);
+				if (res != JOptionPane.OK_OPTION) return;
 
+				Main.opStack.beginCompoundOp();
 				for (PickableEntity entity : entities) {
 					// If it's an NRAM module
 					if (entity.getType() == PickableEntity.MODULE &&
 							((BaseModule)entity).getModType().equals(AvailableModules.RAM)) {
 						NRAM ram = (NRAM) entity;
-						switch (res) {
-							case JOptionPane.OK_OPTION:
-								ram.clear();
-								Main.sim.propagate(ram);
-							default:
-								break;
+						NRAM.Snapshot before, after;
+						Main.sim.lock.writeLock().lock();
+						try {
+							before = ram.snapshot();
+							ram.clear();
+							after = ram.snapshot();
 						}
+						finally {
+							Main.sim.lock.writeLock().unlock();
+						}
+						Main.sim.propagate(ram);
+						Main.opStack.pushOp(new MemoryOperation(ram, before, after));
 					}
 				}
+				Main.opStack.endCompoundOp();
+			}
+		});
+
+		// Break on memory accesses
+		ramBreakRead = new JMenuItem("Break on NRAM read");
+		ramBreakRead.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				addMemoryBreak(false);
+			}
+		});
+		ramBreakWrite = new JMenuItem("Break on NRAM write");
+		ramBreakWrite.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				addMemoryBreak(true);
 			}
 		});
 
@@ -166,6 +223,23 @@ public class ContextMenu  {
 		});
 		
 		
+		// Break on the stored value
+		regBreak = new JMenuItem("Break on Register value");
+		regBreak.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				BinData pattern = askPattern("Halt when the Register stores:");
+				if (pattern == null) return;
+
+				for (PickableEntity entity : entities) {
+					if (entity.getType() == PickableEntity.MODULE &&
+							((BaseModule)entity).getModType().equals(AvailableModules.REGISTER)) {
+						Main.sim.addBreakpoint(Breakpoint.onRegister((Register) entity, pattern));
+					}
+				}
+			}
+		});
+
 		///////////////LED Matrix specific
 		
 		//Toggle Persistance
@@ -176,7 +250,8 @@ public class ContextMenu  {
 					if (entity.getType() == PickableEntity.MODULE &&
 							((BaseModule)entity).getModType().equals(AvailableModules.LEDMatrix)) {
 						LEDMatrix ledmatrix = (LEDMatrix) entity;
-						ledmatrix.turnOffPersist();						
+						ledmatrix.turnOffPersist();
+						Main.sim.propagate(ledmatrix);
 					}
 				}
 			}
@@ -198,6 +273,65 @@ public class ContextMenu  {
 
 	}
 
+	/**
+	 * Asks for a 4-bit breakpoint pattern, most significant bit first, where
+	 * 'x' matches anything
+	 * @param prompt Message to show
+	 * @return The pattern, or null if cancelled or invalid
+	 */
+	private static BinData askPattern(String prompt) {
+		String str = JOptionPane.showInputDialog(Main.ui.frame, prompt + " (e.g. 01x1)", "xxxx");
+		if (str == null) return null;
+
+		str = str.trim().toLowerCase();
+		if (!str.matches("[01x]{4}")) {
+			JOptionPane.showMessageDialog(Main.ui.frame, "4 bits of 0, 1 or x required", "Bad Input",
+					JOptionPane.ERROR_MESSAGE);
+			return null;
+		}
+
+		BinData pattern = new BinData();
+		for (int i = 0; i < 4; i++) {
+			char c = str.charAt(3 - i);
+			pattern.setBit(i, c == 'x' ? BinData.NOCON : c - '0');
+		}
+		return pattern;
+	}
+
+	/**
+	 * Asks for an address range and adds a breakpoint on it to each selected
+	 * NRAM module
+	 * @param write Whether to break on writes rather than reads
+	 */
+	private void addMemoryBreak(boolean write) {
+		String str = JOptionPane.showInputDialog(Main.ui.frame,
+				"Halt on " + (write ? "writes to" : "reads from") + " address (hex, e.g. 1F or 100-1FF):");
+		if (str == null) return;
+
+		int low, high;
+		try {
+			String[] range = str.trim().split("\\s*-\\s*");
+			low = Integer.parseInt(range[0], 16);
+			high = range.length > 1 ? Integer.parseInt(range[1], 16) : low;
+			if (range.length > 2 || low < 0 || high < low || high > NRAM.MAX_ADDR) {
+				throw new NumberFormatException();
+			}
+		}
+		catch (NumberFormatException e) {
+			JOptionPane.showMessageDialog(Main.ui.frame, "Address or range of addresses required, 0-FFFF",
+					"Bad Input", JOptionPane.ERROR_MESSAGE);
+			return;
+		}
+
+		for (PickableEntity entity : entities) {
+			if (entity.getType() == PickableEntity.MODULE &&
+					((BaseModule)entity).getModType().equals(AvailableModules.RAM)) {
+				NRAM ram = (NRAM) entity;
+				Main.sim.addBreakpoint(write ? Breakpoint.onWrite(ram, low, high) : Breakpoint.onRead(ram, low, high));
+			}
+		}
+	}
+
 	/**
 	 * Displays a context-sensitive edit menu
 	 * @param modules The 'selection' to operate on
@@ -217,6 +351,9 @@ public class ContextMenu  {
 
 	    if (port != null) {
 	        menu.add(rmLink);
+	        menu.add(portBreak);
+	        portProbe.setText(Main.sim.recorder.isProbed(port) ? "Remove Probe" : "Probe Port");
+	        menu.add(portProbe);
 	    }
 	    else {
 	        // Standard module options
@@ -236,6 +373,8 @@ public class ContextMenu  {
                     menu.addSeparator();
                     menu.add(ramEdit);
                     menu.add(ramClear);
+                    menu.add(ramBreakRead);
+                    menu.add(ramBreakWrite);
                     break;
                 }
             }
@@ -260,6 +399,7 @@ public class ContextMenu  {
                     menu.addSeparator();
                     menu.add(regEdit);
                     menu.add(regClear);
+                    menu.add(regBreak);
 
                     break;
                 }
@@ -1,6 +1,8 @@
 package com.modsim.gui.view;
 
 import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
 import java.text.DecimalFormat;
@@ -10,7 +12,6 @@ import javax.swing.*;
 
 import com.modsim.modules.BaseModule;
 import com.modsim.modules.Link;
-import com.modsim.modules.parts.VisiblePart;
 import com.modsim.res.Colors;
 import com.modsim.Main;
 import com.modsim.tools.BaseTool;
@@ -49,6 +50,9 @@ public class View extends JPanel {
     private boolean staticIsDirty = true;
     private long lastDynamicPaint = 0;
 
+    // Pulls display snapshots from the simulation at the dynamic refresh rate
+    private final Timer dynamicTimer;
+
     // Zoom caps
     public static final double minZoom = 0.01;
     public static final double maxZoom = 6.0;
@@ -64,6 +68,26 @@ public class View extends JPanel {
         // Fetch the preferred refresh rate
         Preferences prefs = Preferences.userNodeForPackage(View.class);
         dynamicRefreshRate = prefs.getInt("dynamic_refresh_rate", dynamicRefreshRate);
+
+        dynamicTimer = new Timer(1000 / dynamicRefreshRate, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                if (Main.sim != null && Main.sim.display.show()) {
+                    repaint();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        dynamicTimer.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        dynamicTimer.stop();
+        super.removeNotify();
     }
 
     /***
@@ -86,6 +110,7 @@ public class View extends JPanel {
         }
         Preferences prefs = Preferences.userNodeForPackage(View.class);
         dynamicRefreshRate = newRate;
+        dynamicTimer.setDelay(1000 / newRate);
         prefs.putInt("dynamic_refresh_rate", newRate);
     }
 
@@ -174,45 +199,52 @@ public class View extends JPanel {
         // Store the original view transform for restoration to a known state
         AffineTransform old = new AffineTransform(g.getTransform());
 
-        // Static stuff is drawn below all dynamic stuff
-        paintStatic();
-        g.drawImage(staticCanvas, 0, 0, getWidth(), getHeight(), null);
+        // The design can't change while it's being drawn
+        Main.sim.lock.readLock().lock();
+        try {
+            // Static stuff is drawn below all dynamic stuff
+            paintStatic();
+            g.drawImage(staticCanvas, 0, 0, getWidth(), getHeight(), null);
+
+            // Draw modules - dynamic
+            for (BaseModule m : Main.sim.getModules()) {
+                m.updateXForm();
+                g.transform(m.toView);
+                m.paintDynamic(g);
 
-        // Draw modules - dynamic
-        for (BaseModule m : Main.sim.getModules()) {
-            m.updateXForm();
-            g.transform(m.toView);
-            m.paintDynamic(g);
+                if (m.error) {
+                    drawError(g);
+                }
 
-            if (m.error) {
-                drawError(g);
+                g.setTransform(old);
             }
 
-            g.setTransform(old);
-        }
+            // Labels are drawn over all module renderings
+            for (BaseModule m : Main.sim.getModules()) {
+                g.transform(m.toView);
+                m.drawLabel(g);
+                g.setTransform(old);
+            }
 
-        // Labels are drawn over all module renderings
-        for (BaseModule m : Main.sim.getModules()) {
-            g.transform(m.toView);
-            m.drawLabel(g);
-            g.setTransform(old);
-        }
+            // Highlighted bounds are drawn over labels
+            for (BaseModule m : Main.sim.getModules()) {
+                if (m.selected) {
+                    g.transform(m.toView);
+                    m.drawBounds(g);
+                    g.setTransform(old);
+                }
+            }
 
-        // Highlighted bounds are drawn over labels
-        for (BaseModule m : Main.sim.getModules()) {
-            if (m.selected) {
-                g.transform(m.toView);
-                m.drawBounds(g);
+            // Draw the tool
+            if (curTool != null) {
+                g.transform(wToV);
+                curTool.paintWorld(g);
                 g.setTransform(old);
+                curTool.paintScreen(g);
             }
         }
-
-        // Draw the tool
-        if (curTool != null) {
-            g.transform(wToV);
-            curTool.paintWorld(g);
-            g.setTransform(old);
-            curTool.paintScreen(g);
+        finally {
+            Main.sim.lock.readLock().unlock();
         }
 
         g.setTransform(old);
@@ -225,6 +257,16 @@ public class View extends JPanel {
         int pad = 20 - num.length();
         for (int i=0; i < pad; i++) num = " " + num;
         g.drawString(num + " iterations/s", 10, 10);
+
+        // And the clock frequency achieved, against the target
+        double target = Main.sim.getTargetFrequency();
+        String hz = df.format(Main.sim.getFrequency());
+        pad = 20 - hz.length();
+        for (int i=0; i < pad; i++) hz = " " + hz;
+        g.drawString(hz + " Hz" + (target > 0 ? " of " + df.format(target) + " Hz" : ""), 10, 22);
+        if (Main.sim.isIdle()) {
+            g.drawString("       Idle: design is in a steady state", 10, 34);
+        }
     }
 
     /**
@@ -327,21 +369,14 @@ public class View extends JPanel {
     }
 
     /***
-     * "Soft" request for a redraw, used for simulation updates. Capped at 30Hz refresh rate.
+     * "Soft" request for a redraw, capped at the dynamic refresh rate. Simulation
+     * updates arrive separately, as display snapshots pulled by the view's timer.
      */
     public void flagDynamicRedraw() {
         long currentTime = System.currentTimeMillis();
         if (abs(currentTime - lastDynamicPaint) > (1000 / dynamicRefreshRate)) {
             repaint();
         }
-        else {
-            // persistence-of-vision simulation
-            for (BaseModule m : Main.sim.getModules()) {
-                for (VisiblePart p : m.parts) {
-                    p.povTick();
-                }
-            }
-        }
     }
 
 	public void resetView() {
@@ -38,17 +38,24 @@ public class ViewUtil implements MouseListener, MouseMotionListener, MouseWheelL
     public static Link worldSpace_linkAt(Vec2 pt) {
         Link closest = null;
         double dist = 15.0;
-        for (Link link : Main.sim.getLinks()) {
-            Path.PointInfo info = link.path.approxClosestPoint(pt, 6);
 
-            if (info.dist < dist) {
-                if (info.dist < 2.0) {
-                    return link;
+        Main.sim.lock.readLock().lock();
+        try {
+            for (Link link : Main.sim.getLinks()) {
+                Path.PointInfo info = link.path.approxClosestPoint(pt, 6);
+
+                if (info.dist < dist) {
+                    if (info.dist < 2.0) {
+                        return link;
+                    }
+                    closest = link;
+                    dist = info.dist;
                 }
-                closest = link;
-                dist = info.dist;
             }
         }
+        finally {
+            Main.sim.lock.readLock().unlock();
+        }
 
         return closest;
     }
@@ -65,7 +72,8 @@ public class ViewUtil implements MouseListener, MouseMotionListener, MouseWheelL
         //Converting to worldspace enforces snap-to-grid (or not).
         Vec2 worldPos = screenToWorld(new Vec2(x, y), false);
 
-        synchronized (Main.sim) {
+        Main.sim.lock.readLock().lock();
+        try {
             int i = Main.sim.getModules().size() - 1;
             for (; i >= 0; i--) {
                 BaseModule m = Main.sim.getModules().get(i);
@@ -135,6 +143,9 @@ public class ViewUtil implements MouseListener, MouseMotionListener, MouseWheelL
                 }
             }
         }
+        finally {
+            Main.sim.lock.readLock().unlock();
+        }
 
         return null;
     }
@@ -157,11 +168,17 @@ public class ViewUtil implements MouseListener, MouseMotionListener, MouseWheelL
         Vec2 clickPt = new Vec2(pt);
 
         // Loop the entities
-        for (PickableEntity e : Main.sim.getEntities()) {
-            if (e.intersects(clickPt)) {
-                return e;
+        Main.sim.lock.readLock().lock();
+        try {
+            for (PickableEntity e : Main.sim.getEntities()) {
+                if (e.intersects(clickPt)) {
+                    return e;
+                }
             }
         }
+        finally {
+            Main.sim.lock.readLock().unlock();
+        }
 
         return null;
     }
@@ -175,11 +192,17 @@ public class ViewUtil implements MouseListener, MouseMotionListener, MouseWheelL
         List<PickableEntity> result = new ArrayList<PickableEntity>();
 
         // Loop the entities
-        for (PickableEntity e : Main.sim.getEntities()) {
-            if (e.within(x1, y1, x2, y2)) {
-                result.add(e);
+        Main.sim.lock.readLock().lock();
+        try {
+            for (PickableEntity e : Main.sim.getEntities()) {
+                if (e.within(x1, y1, x2, y2)) {
+                    result.add(e);
+                }
             }
         }
+        finally {
+            Main.sim.lock.readLock().unlock();
+        }
 
         return result;
     }
@@ -208,11 +231,17 @@ public class ViewUtil implements MouseListener, MouseMotionListener, MouseWheelL
         y2 = pt[3];
 
         // Loop the entities
-        for (PickableEntity e : Main.sim.getEntities()) {
-            if (e.within(x, y, x2, y2)) {
-                result.add(e);
+        Main.sim.lock.readLock().lock();
+        try {
+            for (PickableEntity e : Main.sim.getEntities()) {
+                if (e.within(x, y, x2, y2)) {
+                    result.add(e);
+                }
             }
         }
+        finally {
+            Main.sim.lock.readLock().unlock();
+        }
 
         return result;
     }
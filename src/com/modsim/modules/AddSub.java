@@ -24,6 +24,51 @@ public class AddSub extends BaseModule {
 
     public static final AvailableModules source = AvailableModules.ADDSUB;
 
+    // Outputs for each control value and pair of inputs, indexed by
+    // control << 8 | A << 4 | B. The whole of the control input counts,
+    // disconnected bits included; only the data inputs' values do. Each
+    // entry holds the result in bits 0-3, the carry out and boolean test
+    // result as flags, and the packed control out from bit 8.
+    public static final int CARRY = 0x10;
+    public static final int BOOL = 0x20;
+    private static final int[] TABLE = new int[1 << 16];
+
+    static {
+        for (int control = 0; control < 256; control++) {
+            BinData c = BinData.fromPacked(control);
+            for (int a = 0; a < 16; a++) {
+                for (int b = 0; b < 16; b++) {
+                    // Carry in - a disconnected carry counts as 2
+                    int sum;
+                    if (c.getBit(0) == 1 && c.getBit(1) == 0) {
+                        sum = a;
+                    }
+                    else {
+                        sum = a + (c.getBit(1) == 1 ? b ^ 0xF : b) + c.getBit(2);
+                    }
+                    int carryOut = (sum >> 4) & 1;
+                    int result = sum & 0xF;
+
+                    BinData cOut = new BinData(c);
+                    cOut.setBit(2, carryOut);
+                    boolean not0 = c.getBooleanBit(3) || result != 0;
+                    cOut.setBooleanBit(3, not0);
+
+                    boolean bool;
+                    if (c.getBit(0) == 1 && c.getBit(1) == 1) {
+                        bool = (result & 8) != 0;
+                    }
+                    else {
+                        bool = result == 0 && !not0;
+                    }
+
+                    TABLE[control << 8 | a << 4 | b] = result | (carryOut == 1 ? CARRY : 0)
+                            | (bool ? BOOL : 0) | cOut.getPacked() << 8;
+                }
+            }
+        }
+    }
+
     private final LEDRow leds;
     private final LED carryLED;
     private final LED boolLED;
@@ -103,8 +148,43 @@ public class AddSub extends BaseModule {
         drawStaticParts(g);
     }
 
+    /**
+     * Table entry for the given packed inputs - for engines evaluating the
+     * module from port values alone
+     */
+    public static int lookup(int control, int a, int b) {
+        return TABLE[(control & 0xFF) << 8 | (a & 0xF) << 4 | (b & 0xF)];
+    }
+
     @Override
     public void propagate() {
+        final int control = cIn.getPacked();
+        final int e = lookup(control, dInA.getPacked(), dInB.getPacked());
+
+        final int func = control & 3;
+        for (int i = 0; i < cLEDs.size(); i++) {
+            cLEDs.get(i).setEnabled(i == func);
+        }
+
+        final int r = BinData.packUInt(e);
+        final boolean bool = (e & BOOL) != 0;
+        boolLED.setEnabled(bool);
+
+        // Display
+        carryLED.setEnabled((e & CARRY) != 0);
+        leds.setPacked(r);
+
+        // Outputs
+        rOut.setPacked(r);
+        bOut.setPacked(BinData.packUInt(bool ? 0xF : 0));
+        cOut.setPacked(e >> 8);
+    }
+
+    /**
+     * Evaluates the module without the lookup table - the reference the
+     * table is tested against
+     */
+    private void propagateDirect() {
         // Inputs as ints
         int a = dInA.getVal().getUInt();
         int b = dInB.getVal().getUInt();
@@ -167,6 +247,41 @@ public class AddSub extends BaseModule {
         cOut.setVal(cOutVal);
     }
 
+    @Override
+    public boolean test() {
+        // Every entry, with the bits the table ignores varied, against the
+        // direct evaluation
+        BinData pullA = dInA.pull, pullB = dInB.pull, pullC = cIn.pull;
+        try {
+            for (int c = 0; c < 256; c++) {
+                for (int a = 0; a < 256; a++) {
+                    for (int b = 0; b < 16; b++) {
+                        dInA.pull = BinData.fromPacked(a);
+                        dInB.pull = BinData.fromPacked(((a ^ c) & 0xF0) | b);
+                        cIn.pull = BinData.fromPacked(c);
+
+                        propagateDirect();
+                        int[] expected = outputValues();
+                        boolean carry = carryLED.getEnabled(), bool = boolLED.getEnabled();
+
+                        propagate();
+                        if (!outputsMatch(expected) || carry != carryLED.getEnabled() || bool != boolLED.getEnabled()) {
+                            System.err.print("Lookup table disagrees for A=" + a + " B=" + b + " control=" + c + " ");
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            dInA.pull = pullA;
+            dInB.pull = pullB;
+            cIn.pull = pullC;
+            propagate();
+        }
+        return true;
+    }
+
     @Override
     public AvailableModules getModType() {
         return AvailableModules.ADDSUB;
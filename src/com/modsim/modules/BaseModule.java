@@ -523,11 +523,15 @@ public abstract class BaseModule extends PickableEntity {
     }
 
     /**
-     * Generates on-grid coords
+     * Generates on-grid coords, on the grid of the simulator the module is in
+     * (left as they are until it's added to one)
      */
     public void snapToGrid() {
-        pos.x = Math.round(pos.x / Main.sim.grid) * Main.sim.grid;
-        pos.y = Math.round(pos.y / Main.sim.grid) * Main.sim.grid;
+        Sim sim = getSim();
+        if (sim == null) return;
+
+        pos.x = Math.round(pos.x / sim.grid) * sim.grid;
+        pos.y = Math.round(pos.y / sim.grid) * sim.grid;
     }
 
     /**
@@ -549,9 +553,10 @@ public abstract class BaseModule extends PickableEntity {
      */
     @Override
     public void delete() {
-        Main.sim.removeEntity(this);
-        Main.selection.remove(this);
-        Main.opStack.pushOp(new DeleteOperation(this));
+        Sim sim = getSim();
+        sim.removeEntity(this);
+        if (sim.isShown()) Main.selection.remove(this);
+        sim.opStack.pushOp(new DeleteOperation(this));
     }
 
     /**
@@ -657,6 +662,31 @@ public abstract class BaseModule extends PickableEntity {
      */
     public abstract void propagate();
 
+    /**
+     * Hash of the state the module holds between steps, used to spot a design
+     * that has settled into a fixed point or cycle. Modules whose outputs
+     * depend only on their inputs return 0.
+     */
+    public long getStateHash() {
+        return 0;
+    }
+
+    /**
+     * The state the module holds between steps, packed into an int for the
+     * simulation history. Modules whose outputs depend only on their inputs
+     * return 0.
+     */
+    public int getState() {
+        return 0;
+    }
+
+    /**
+     * Restores state given by getState() - the module needs propagating
+     * afterwards
+     */
+    public void setState(int state) {
+    }
+
     /**
      * Propagates a bidirectional port's directionality.<br/>Note: this is recursive through the setMode() calls!
      * @param root Port to base directionality on
@@ -699,6 +729,29 @@ public abstract class BaseModule extends PickableEntity {
      */
     public boolean test() {return true;}
 
+    /**
+     * Packed values of the outputs - for tests comparing two ways of
+     * evaluating the module
+     */
+    protected int[] outputValues() {
+        int[] values = new int[outputs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = outputs.get(i).getPacked();
+        }
+        return values;
+    }
+
+    /**
+     * @return Whether the outputs hold the given packed values, as
+     * BinData.packedEquals
+     */
+    protected boolean outputsMatch(int[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (!BinData.packedEquals(values[i], outputs.get(i).getPacked())) return false;
+        }
+        return true;
+    }
+
     /**
      * Initialize state with a loaded hash map structure (module-specific implementation)
      * Called by XMLReader and copy routines. Default behaviour is no-op.
@@ -7,7 +7,6 @@ import java.util.HashMap;
 
 import com.modsim.res.Colors;
 import com.modsim.res.Fonts;
-import com.modsim.util.BinData;
 import com.modsim.modules.parts.LED;
 import com.modsim.res.Colors.LEDColour;
 import com.modsim.modules.parts.Port;
@@ -66,6 +65,22 @@ public class Clock extends BaseModule {
         g.drawString("CLK", -18, 8);
     }
 
+    @Override
+    public long getStateHash() {
+        return step | (resetBtn.getEnabled() ? 4 : 0);
+    }
+
+    @Override
+    public int getState() {
+        return step | (resetBtn.getEnabled() ? 4 : 0);
+    }
+
+    @Override
+    public void setState(int state) {
+        step = state & 3;
+        resetBtn.setEnabled((state & 4) != 0);
+    }
+
     /**
      * <p>"Ticks" the clock to its next step.
      * The change needs to be explicitly propagated afterwards.</p>
@@ -81,6 +96,13 @@ public class Clock extends BaseModule {
         if (step > 3) step = 0;
     }
 
+    /**
+     * @return Current phase step, 0 to 3 (phase 1 is high on 1, phase 2 on 3)
+     */
+    public int getStep() {
+        return step;
+    }
+
     @Override
     public void propagate() {
         // Reset mechanism
@@ -93,27 +115,20 @@ public class Clock extends BaseModule {
             sendReset = false;
         }
 
+        // Bit 0 clock, bit 1 reset, bit 2 enable - bit 3 unconnected
+        final int control = 0x74 | (sendReset ? 2 : 0);
+
         // Phase 1
-        BinData p1 = new BinData();
-        p1.setBooleanBit(0, step == 1);
+        final int p1 = control | (step == 1 ? 1 : 0);
         phase1.setEnabled(step == 1);
 
         // Phase 2
-        BinData p2 = new BinData();
-        p2.setBooleanBit(0, step == 3);
+        final int p2 = control | (step == 3 ? 1 : 0);
         phase2.setEnabled(step == 3);
 
-        // Reset signal
-        p2.setBooleanBit(1, sendReset);
-        p1.setBooleanBit(1, sendReset);
-
-        // Enable signal
-        p2.setBooleanBit(2, true);
-        p1.setBooleanBit(2, true);
-
         // Set the outputs
-        outputs.get(0).setVal(p1);
-        outputs.get(1).setVal(p2);
+        outputs.get(0).setPacked(p1);
+        outputs.get(1).setPacked(p2);
     }
 
     @Override
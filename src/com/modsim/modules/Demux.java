@@ -88,21 +88,23 @@ public class Demux extends BaseModule {
 
     @Override
     public void propagate() {
-        final int outSel = controlIn.getVal().getUInt() & 3;
+        final int control = controlIn.getPacked();
+        final int outSel = control & 3;
+        final int data = dataIn.getPacked();
 
         for (int i = 0; i < dataOutputs.size(); i++) {
             if (i == outSel) {
-                dataOutputs.get(i).setVal(dataIn.getVal());
+                dataOutputs.get(i).setPacked(data);
                 controlLEDs.get(i).setEnabled(true);
             } else {
-                dataOutputs.get(i).setVal(new BinData(0));
+                dataOutputs.get(i).setPacked(BinData.packUInt(0));
                 controlLEDs.get(i).setEnabled(false);
             }
         }
 
-        controlOut.setVal(controlIn.getVal());
+        controlOut.setPacked(control);
 
-        dataLEDs.setVal(dataIn.getVal());
+        dataLEDs.setPacked(data);
     }
 
     @Override
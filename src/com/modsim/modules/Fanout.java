@@ -78,10 +78,11 @@ public class Fanout extends BaseModule {
 
     @Override
     public void propagate() {
-        dLEDs.setVal(inputs.get(0).getVal());
+        final int in = inputs.get(0).getPacked();
+        dLEDs.setPacked(in);
 
         for (Output o : outputs) {
-            o.setVal(inputs.get(0).getVal());
+            o.setPacked(in);
         }
     }
 
@@ -89,14 +89,14 @@ public class LEDMatrix extends BaseModule {
 		if(!persist){
 			List<LEDRow> prevleds = matrix.get(previousRow);
 			for(int i=0; i<4; i++){
-				prevleds.get(i).setVal(new BinData(0));
+				prevleds.get(i).setPacked(BinData.packUInt(0));
 			}
 		}
-		final int sel = contIn.getVal().getUInt() & 15;
+		final int sel = contIn.getPacked() & 15;
 		previousRow = sel;
 		List<LEDRow> leds = matrix.get(sel);
 		for(int i=0; i<4; i++){
-			leds.get(i).setVal(dIn.get(i).getVal());
+			leds.get(i).setPacked(dIn.get(i).getPacked());
 		}
 	}
 	
@@ -10,6 +10,8 @@ import com.modsim.modules.parts.Port;
 import com.modsim.Main;
 import com.modsim.res.Colors;
 import com.modsim.operations.DeleteOperation;
+import com.modsim.operations.OperationStack;
+import com.modsim.simulator.Sim;
 import com.modsim.util.Path;
 import com.modsim.util.BezierPath;
 import com.modsim.util.StraightPath;
@@ -36,12 +38,19 @@ public class Link {
      */
     public int getLinkID() {
         if (linkInd < 0) {
-            linkInd = Main.sim.assignLinkID();
+            linkInd = getSim().assignLinkID();
         }
 
         return linkInd;
     }
 
+    /**
+     * @return The simulator the linked modules belong to
+     */
+    public Sim getSim() {
+        return targ.owner.getSim();
+    }
+
     /**
      * Creates a new link between two ports, which may be reversed depending on type of source and target.
      * @param source The first clicked port
@@ -61,15 +70,13 @@ public class Link {
 
         // No self-links
     	else if (source == target) {
-    	    JOptionPane.showMessageDialog(Main.ui.frame,
-                    "Cannot link port to itself",
+    	    Main.showMessage("Cannot link port to itself",
                     "Invalid Link",
                     JOptionPane.WARNING_MESSAGE);
     	    return null;
     	}
         else if (source.owner == target.owner) {
-            JOptionPane.showMessageDialog(Main.ui.frame,
-                    "Cannot link module to itself",
+            Main.showMessage("Cannot link module to itself",
                     "Invalid Link",
                     JOptionPane.WARNING_MESSAGE);
             return null;
@@ -77,15 +84,15 @@ public class Link {
 
         // If two directional ports are either both outputs or both inputs, they cannot be linked
         else if (source.canOutput() == target.canOutput() && source.hasDirection() && target.hasDirection()) {
-            JOptionPane.showMessageDialog(Main.ui.frame,
-                    "Cannot link same port types together",
+            Main.showMessage("Cannot link same port types together",
                     "Invalid Link",
                     JOptionPane.WARNING_MESSAGE);
             return null;
         }
         else {
             // Start a compound operation (likely nested) so we can abort cleanly
-            Main.opStack.beginCompoundOp();
+            OperationStack opStack = source.owner.getSim().opStack;
+            opStack.beginCompoundOp();
 
             // Cleanup old links
             if (source.link != null) {
@@ -139,19 +146,17 @@ public class Link {
                 }
             }
             else {
-                JOptionPane.showMessageDialog(Main.ui.frame,
-                        (new Throwable()).getStackTrace(),
+                Main.showMessage((new Throwable()).getStackTrace(),
                         "Unknown error during link creation",
                         JOptionPane.ERROR_MESSAGE);
-                Main.opStack.cancelCompoundOp();
+                opStack.cancelCompoundOp();
                 return null;
             }
 
             // Check loops
             List<BaseModule> modules = new ArrayList<>();
             if (newLink.checkLoops(newLink, modules)) {
-                JOptionPane.showMessageDialog(Main.ui.frame,
-                        "Link would create a loop. Have you forgotten a register?",
+                Main.showMessage("Link would create a loop. Have you forgotten a register?",
                         "Invalid link",
                         JOptionPane.WARNING_MESSAGE);
                 System.err.println("No connect: Loop detected");
@@ -162,12 +167,12 @@ public class Link {
                     m.error = true;
                 }
 
-                Main.opStack.cancelCompoundOp();
+                opStack.cancelCompoundOp();
                 return null;
             }
 
             // Changes are done
-            Main.opStack.endCompoundOp();
+            opStack.endCompoundOp();
 
             newLink.targ.setVal(newLink.src.getVal());
 
@@ -236,22 +241,23 @@ public class Link {
      * This method creates a new deletion operation.
      */
     public void delete() {
+        Sim sim = getSim();
         src.link = null;
         targ.link = null;
 
         // Propagate change
         targ.setVal(new BinData());
-        Main.sim.propagate(targ.owner);
+        sim.propagate(targ.owner);
 
         // Propagate (non-)directionality if applicable
         src.setMode(Port.Mode.MODE_BIDIR);
         targ.setMode(Port.Mode.MODE_BIDIR);
 
         // Remove from listings
-        Main.sim.removeLink(this);
+        sim.removeLink(this);
 
         // Store operation
-        Main.opStack.pushOp(new DeleteOperation(this));
+        sim.opStack.pushOp(new DeleteOperation(this));
     }
 
 }
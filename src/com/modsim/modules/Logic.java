@@ -19,6 +19,36 @@ import com.modsim.util.BinData;
  */
 public class Logic extends BaseModule {
 
+    // Result for each function and pair of inputs, packed, indexed by
+    // function << 8 | A << 4 | B. Only the inputs' values count - their
+    // masks are ignored, as they always have been.
+    private static final int[] TABLE = new int[1 << 10];
+
+    static {
+        for (int func = 0; func < 4; func++) {
+            for (int a = 0; a < 16; a++) {
+                for (int b = 0; b < 16; b++) {
+                    int result;
+                    switch (func) {
+                        case 0:
+                            result = ~a;
+                            break;
+                        case 1:
+                            result = a & b;
+                            break;
+                        case 2:
+                            result = a | b;
+                            break;
+                        default:
+                            result = a ^ b;
+                            break;
+                    }
+                    TABLE[func << 8 | a << 4 | b] = BinData.packUInt(result);
+                }
+            }
+        }
+    }
+
     private final LEDRow leds;
     private final List<LED> cLEDs;
 
@@ -86,8 +116,37 @@ public class Logic extends BaseModule {
         drawStaticParts(g);
     }
 
+    /**
+     * Result for the given packed inputs, as propagate() gives it - for
+     * engines evaluating the module from port values alone
+     */
+    public static int lookup(int control, int a, int b) {
+        return TABLE[(control & 3) << 8 | (a & 0xF) << 4 | (b & 0xF)];
+    }
+
     @Override
     public void propagate() {
+        final int control = cIn.getPacked();
+        final int func = control & 3;
+        final int r = lookup(control, dInA.getPacked(), dInB.getPacked());
+
+        for (int i = 0; i < cLEDs.size(); i++) {
+            cLEDs.get(i).setEnabled(i == func);
+        }
+
+        // Set display
+        leds.setPacked(r);
+
+        // Set outputs
+        rOut.setPacked(r);
+        cOut.setPacked(control);
+    }
+
+    /**
+     * Evaluates the module without the lookup table - the reference the
+     * table is tested against
+     */
+    private void propagateDirect() {
         // Get the inputs
         int aVal = dInA.getVal().getUInt();
         int bVal = dInB.getVal().getUInt();
@@ -134,6 +193,41 @@ public class Logic extends BaseModule {
         return outList;
     }
 
+    @Override
+    public boolean test() {
+        // Every entry, with the bits the table ignores varied, against the
+        // direct evaluation
+        BinData pullA = dInA.pull, pullB = dInB.pull, pullC = cIn.pull;
+        try {
+            for (int c = 0; c < 256; c++) {
+                for (int a = 0; a < 256; a++) {
+                    for (int b = 0; b < 16; b++) {
+                        dInA.pull = BinData.fromPacked(a);
+                        dInB.pull = BinData.fromPacked(((a ^ c) & 0xF0) | b);
+                        cIn.pull = BinData.fromPacked(c);
+
+                        propagateDirect();
+                        int[] expected = outputValues();
+                        int display = leds.getVal().getPacked();
+
+                        propagate();
+                        if (!outputsMatch(expected) || !BinData.packedEquals(display, leds.getVal().getPacked())) {
+                            System.err.print("Lookup table disagrees for A=" + a + " B=" + b + " control=" + c + " ");
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            dInA.pull = pullA;
+            dInB.pull = pullB;
+            cIn.pull = pullC;
+            propagate();
+        }
+        return true;
+    }
+
     @Override
     public AvailableModules getModType() {
         return AvailableModules.LOGIC;
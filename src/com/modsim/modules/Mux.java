@@ -84,16 +84,18 @@ public class Mux extends BaseModule {
 
     @Override
     public void propagate() {
-        final int sel = contIn.getVal().getUInt() & 3;
+        final int control = contIn.getPacked();
+        final int sel = control & 3;
 
-        dOut.setVal(dIn.get(sel).getVal());
-        dLEDs.setVal(dIn.get(sel).getVal());
+        final int data = dIn.get(sel).getPacked();
+        dOut.setPacked(data);
+        dLEDs.setPacked(data);
 
         for (int i = 0; i < 4; i++) {
             cLEDs.get(i).setEnabled(i == sel);
         }
 
-        contOut.setVal(contIn.getVal());
+        contOut.setPacked(control);
     }
 
     @Override
@@ -4,7 +4,14 @@ import com.modsim.gui.MemEdit;
 
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Random;
@@ -17,6 +24,7 @@ import com.modsim.modules.ports.Input;
 import com.modsim.modules.ports.Output;
 import com.modsim.res.Colors;
 import com.modsim.res.Colors.LEDColour;
+import com.modsim.simulator.Breakpoint;
 import com.modsim.util.BinData;
 import com.modsim.util.HexReader;
 import com.modsim.util.HexWriter;
@@ -36,12 +44,82 @@ public class NRAM extends BaseModule {
      */
     public static final int MAX_ADDR = 0xFFFF;
 
-    // The number of BinData locations in the store
+    // The number of 4-bit locations in the store, two to an address
     private static final int LOCATIONS = 0x20000;
     private static final int CLOCK_PIN = 0;
     private static final int WRITE_PIN = 2;
 
-    private final BinData[] store = new BinData[LOCATIONS];
+    // Locations in a page of the store
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int PAGES = LOCATIONS / PAGE_SIZE;
+
+    // Packed contents of a location in a blank page - 0000
+    private static final int BLANK = 0xF0;
+
+    // Hash of each page while blank, and of the whole store
+    private static final long[] BLANK_PAGE_HASH = new long[PAGES];
+    private static final long BLANK_HASH;
+
+    static {
+        long all = 0;
+        for (int p = 0; p < PAGES; p++) {
+            long h = 0;
+            for (int i = p << PAGE_BITS; i < (p + 1) << PAGE_BITS; i++) {
+                h ^= locationHash(i, BLANK);
+            }
+            BLANK_PAGE_HASH[p] = h;
+            all ^= h;
+        }
+        BLANK_HASH = all;
+    }
+
+    // The store, one location packed per byte as BinData.getPacked(), in
+    // pages allocated when first written to. A null page is blank. Pages
+    // marked shared are also held by snapshots, and are copied before
+    // they're written to.
+    private final byte[][] pages = new byte[PAGES][];
+    private final boolean[] shared = new boolean[PAGES];
+
+    /**
+     * The contents of an NRAM module at some point, sharing its pages with
+     * the module and any other snapshots until they're written to
+     */
+    public static final class Snapshot {
+        private final byte[][] pages;
+        private final long hash;
+
+        private Snapshot(byte[][] pages, long hash) {
+            this.pages = pages;
+            this.hash = hash;
+        }
+
+        /**
+         * @return The memory held by pages of this snapshot that aren't also
+         * in another, in bytes
+         * @param other Snapshot to compare with, or null
+         */
+        public long bytesNotIn(Snapshot other) {
+            long bytes = 0;
+            for (int p = 0; p < PAGES; p++) {
+                if (pages[p] != null && (other == null || other.pages[p] != pages[p])) {
+                    bytes += PAGE_SIZE;
+                }
+            }
+            return bytes;
+        }
+    }
+
+    // File the store is written through to, if any, mapped as a raw binary
+    // image of one byte per address. The store itself stays in the pages so
+    // snapshots and the history work as before.
+    private File backingFile = null;
+    private MappedByteBuffer backing = null;
+
+    // Hash of the store, kept up to date by write() - the XOR of the hashes
+    // of every location
+    private long storeHash = 0;
     private final boolean clearOnReset;
 
     // Port definitions
@@ -62,6 +140,19 @@ public class NRAM extends BaseModule {
 
     private final Switch writeJumper;
 
+    // Breakpoints on accesses to this module, and the addresses they span
+    private Breakpoint[] watches = null;
+    private int watchLow = 0, watchHigh = -1;
+
+    // Addresses written since the simulation history last took them, while
+    // it's tracking them
+    private int[] written = null;
+    private int writtenCount = 0;
+
+    // Whether the whole store has been replaced since the writes were last
+    // taken, while they're tracked - it isn't recorded as writes
+    private boolean rewritten = false;
+
     NRAM(boolean cleared) {
         w = 150;
         h = 200;
@@ -135,11 +226,12 @@ public class NRAM extends BaseModule {
 
     @Override
     public void propagate() {
-        int address = combineAddress(addrA.getVal(), addrB.getVal(), addrC.getVal(), addrD.getVal());
-        controlOut.setVal(controlIn.getVal()); // pass-through
+        int address = combineAddress(addrA.getPacked(), addrB.getPacked(), addrC.getPacked(), addrD.getPacked());
+        final int control = controlIn.getPacked();
+        controlOut.setPacked(control); // pass-through
         writeLED.setEnabled(false);
 
-        if (controlIn.getVal().getBit(WRITE_PIN) == BinData.HIGH) {
+        if (BinData.packedBit(control, WRITE_PIN) == BinData.HIGH) {
             // Write high, disable output
             dataOutA.setVal(new BinData());
             dataOutB.setVal(new BinData());
@@ -147,28 +239,60 @@ public class NRAM extends BaseModule {
             dataLEDsB.setVal(dataOutB.getVal());
 
             // Clock high AND jumper on, write to memory.
-            if (controlIn.getVal().getBit(CLOCK_PIN) == BinData.HIGH && writeJumper.getEnabled()) {
-                write(address, dataInA.getVal(), dataInB.getVal());
+            if (BinData.packedBit(control, CLOCK_PIN) == BinData.HIGH && writeJumper.getEnabled()) {
+                writePacked(address, dataInA.getPacked(), dataInB.getPacked());
                 writeLED.setEnabled(true);
+                if (address >= watchLow && address <= watchHigh) checkWatches(address, true);
             }
         } else {
             // Write low, enable output
-            BinData[] read = read(address);
-            dataOutA.setVal(read[0]);
-            dataOutB.setVal(read[1]);
-            dataLEDsA.setVal(read[0]);
-            dataLEDsB.setVal(read[1]);
+            int read = readPacked(address);
+            if (address >= watchLow && address <= watchHigh) checkWatches(address, false);
+            dataOutA.setPacked(read & 0xFF);
+            dataOutB.setPacked(read >> 8);
+            dataLEDsA.setPacked(read & 0xFF);
+            dataLEDsB.setPacked(read >> 8);
         }
     }
 
-    public void clear() {
-        final BinData blank = new BinData(BinData.LOW, BinData.LOW, BinData.LOW, BinData.LOW);
+    /**
+     * Sets the breakpoints on accesses to this module (called by the simulator)
+     * @param bps Memory breakpoints on this module, or null for none
+     */
+    public void setWatches(Breakpoint[] bps) {
+        watches = bps;
+        watchLow = 0;
+        watchHigh = -1;
+
+        if (bps != null && bps.length > 0) {
+            watchLow = Integer.MAX_VALUE;
+            watchHigh = Integer.MIN_VALUE;
+            for (Breakpoint b : bps) {
+                watchLow = Math.min(watchLow, b.getLow());
+                watchHigh = Math.max(watchHigh, b.getHigh());
+            }
+        }
+    }
 
-        for (int i = 0; i < LOCATIONS; i++) {
-            // Perhaps we should lazily initialize the data - complicates memory editor.
-            // Alternatively, make BinData immutable?
-            store[i] = new BinData(blank);
+    /**
+     * Reports an access within the watched span to the simulator if it meets
+     * any of the breakpoints
+     */
+    private void checkWatches(int address, boolean write) {
+        for (Breakpoint b : watches) {
+            if (b.matches(address, write)) {
+                getSim().memoryBreak(b);
+                return;
+            }
         }
+    }
+
+    public void clear() {
+        Arrays.fill(pages, null);
+        Arrays.fill(shared, false);
+        storeHash = BLANK_HASH;
+        syncBacking();
+        if (written != null) rewritten = true;
 
         updateEditor(0);
     }
@@ -193,11 +317,19 @@ public class NRAM extends BaseModule {
 
     @Override
     public HashMap<String, String> dataOut() {
-        String storeStr = HexWriter.hexString(this, false);
-        if (storeStr.isEmpty()) return super.dataOut();
+        return dataOut(true);
+    }
+
+    /**
+     * As dataOut(), optionally leaving out the contents - for copies that
+     * carry them some other way
+     */
+    public HashMap<String, String> dataOut(boolean withStore) {
+        String storeStr = withStore ? HexWriter.hexString(this, false) : null;
+        if ("".equals(storeStr)) return super.dataOut();
 
         HashMap<String, String> data = super.dataOut();
-        data.put("memory_store", storeStr);
+        if (storeStr != null) data.put("memory_store", storeStr);
         data.put("write_jumper", (writeJumper.getEnabled()) ? "1" : "0");
 
         return data;
@@ -211,15 +343,273 @@ public class NRAM extends BaseModule {
         } else {
             Random rng = new Random();
 
-            for (int i = 0; i < LOCATIONS; i++) {
-                store[i] = new BinData();
-                store[i].setUInt(rng.nextInt());
+            for (int p = 0; p < PAGES; p++) {
+                byte[] page = new byte[PAGE_SIZE];
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    page[i] = (byte) BinData.packUInt(rng.nextInt());
+                }
+                pages[p] = page;
+                shared[p] = false;
+            }
+            rehash();
+        }
+    }
+
+    /**
+     * Hash of one location's contents
+     * @param loc Location index
+     * @param packed Data stored there, packed
+     */
+    private static long locationHash(int loc, int packed) {
+        long h = ((long) loc << 8 | packed) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xD6E8FEB86659FD93L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Recomputes the hash of the whole store
+     */
+    private void rehash() {
+        long h = 0;
+        for (int p = 0; p < PAGES; p++) {
+            byte[] page = pages[p];
+            if (page == null) {
+                h ^= BLANK_PAGE_HASH[p];
+                continue;
             }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                h ^= locationHash(p << PAGE_BITS | i, page[i] & 0xFF);
+            }
+        }
+        storeHash = h;
+    }
+
+    /**
+     * @return A location's contents, packed
+     */
+    private int get(int loc) {
+        byte[] page = pages[loc >> PAGE_BITS];
+        return page == null ? BLANK : page[loc & PAGE_MASK] & 0xFF;
+    }
+
+    /**
+     * Sets a location's contents, allocating its page if need be, and updates
+     * the hash
+     */
+    private void set(int loc, int packed) {
+        byte[] page = pages[loc >> PAGE_BITS];
+        if (page == null) {
+            if (packed == BLANK) return;
+            page = new byte[PAGE_SIZE];
+            Arrays.fill(page, (byte) BLANK);
+            pages[loc >> PAGE_BITS] = page;
+            shared[loc >> PAGE_BITS] = false;
+        }
+        else if (shared[loc >> PAGE_BITS]) {
+            if ((page[loc & PAGE_MASK] & 0xFF) == packed) return;
+            page = page.clone();
+            pages[loc >> PAGE_BITS] = page;
+            shared[loc >> PAGE_BITS] = false;
+        }
+        storeHash ^= locationHash(loc, page[loc & PAGE_MASK] & 0xFF) ^ locationHash(loc, packed);
+        page[loc & PAGE_MASK] = (byte) packed;
+
+        if (backing != null) {
+            // Floating bits are lost - the file holds values only
+            int b = backing.get(loc >> 1);
+            b = (loc & 1) == 0 ? (b & 0xF0) | (packed & 0xF) : (b & 0x0F) | (packed & 0xF) << 4;
+            backing.put(loc >> 1, (byte) b);
         }
     }
 
-    private static int combineAddress(BinData a0, BinData a1, BinData a2, BinData a3) {
-        return a0.getUInt() | (a1.getUInt() << 4) | (a2.getUInt() << 8) | (a3.getUInt() << 12);
+    /**
+     * Writes the whole store to the backing file, if any, after a change
+     * that doesn't go through set()
+     */
+    private void syncBacking() {
+        if (backing != null) {
+            readBytes(0, backing.duplicate());
+        }
+    }
+
+    /**
+     * Backs the store with a file, mapped into memory: every write to the
+     * store is also made to the file, where it's kept without saving and can
+     * be seen by other programs as the simulation runs. The file is a raw
+     * binary image, one byte per address. An existing file's contents are
+     * loaded into the store first; a new or empty one is given the store's.
+     * Changes other programs make to the file aren't seen.
+     * @throws IOException If the file couldn't be opened or mapped
+     */
+    public void attachBackingFile(File file) throws IOException {
+        detachBackingFile();
+
+        MappedByteBuffer map;
+        boolean existing;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            existing = ch.size() > 0;
+            // The mapping stays valid once the channel is closed, and grows
+            // a short file to the full size
+            map = ch.map(FileChannel.MapMode.READ_WRITE, 0, MAX_ADDR + 1);
+        }
+
+        if (existing) {
+            clear();
+            writeBytes(0, map.duplicate());
+        }
+        backing = map;
+        backingFile = file;
+        if (!existing) syncBacking();
+    }
+
+    /**
+     * Stops writing the store through to its backing file, which keeps the
+     * contents it had
+     */
+    public void detachBackingFile() {
+        if (backing != null) {
+            backing.force();
+            backing = null;
+            backingFile = null;
+        }
+    }
+
+    /**
+     * @return The file backing the store, or null if none
+     */
+    public File getBackingFile() {
+        return backingFile;
+    }
+
+    @Override
+    public long getStateHash() {
+        return storeHash ^ (writeJumper.getEnabled() ? 1 : 0);
+    }
+
+    @Override
+    public int getState() {
+        return writeJumper.getEnabled() ? 1 : 0;
+    }
+
+    @Override
+    public void setState(int state) {
+        writeJumper.setEnabled(state != 0);
+    }
+
+    /**
+     * Copies the whole store, one packed location per byte
+     */
+    public byte[] saveStore() {
+        byte[] image = new byte[LOCATIONS];
+        for (int p = 0; p < PAGES; p++) {
+            if (pages[p] == null) {
+                Arrays.fill(image, p << PAGE_BITS, (p + 1) << PAGE_BITS, (byte) BLANK);
+            }
+            else {
+                System.arraycopy(pages[p], 0, image, p << PAGE_BITS, PAGE_SIZE);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Replaces the whole store with a copy from saveStore(). Not recorded as
+     * writes.
+     */
+    public void loadStore(byte[] image) {
+        for (int p = 0; p < PAGES; p++) {
+            int start = p << PAGE_BITS;
+            boolean blank = true;
+            for (int i = start; i < start + PAGE_SIZE && blank; i++) {
+                blank = image[i] == (byte) BLANK;
+            }
+            pages[p] = blank ? null : Arrays.copyOfRange(image, start, start + PAGE_SIZE);
+            shared[p] = false;
+        }
+        rehash();
+        syncBacking();
+        if (written != null) rewritten = true;
+
+        updateEditor(0);
+    }
+
+    /**
+     * Takes a snapshot of the store. Its pages are shared until the module
+     * next writes to them, so this costs nothing like a full copy.
+     */
+    public Snapshot snapshot() {
+        for (int p = 0; p < PAGES; p++) {
+            if (pages[p] != null) shared[p] = true;
+        }
+        return new Snapshot(pages.clone(), storeHash);
+    }
+
+    /**
+     * Returns the store to a snapshot, which may be of another module, sharing
+     * its pages. Not recorded as writes.
+     */
+    public void restore(Snapshot snapshot) {
+        System.arraycopy(snapshot.pages, 0, pages, 0, PAGES);
+        for (int p = 0; p < PAGES; p++) {
+            shared[p] = pages[p] != null;
+        }
+        storeHash = snapshot.hash;
+        syncBacking();
+        if (written != null) rewritten = true;
+
+        updateEditor(0);
+    }
+
+    /**
+     * Reads an address without allocating
+     * @return The two locations packed, the first in the low byte
+     */
+    public int readPacked(int address) {
+        address = address << 1;
+        return get(address) | (get(address | 1) << 8);
+    }
+
+    /**
+     * Starts or stops keeping a list of the addresses written
+     */
+    public void trackWrites(boolean on) {
+        written = on ? new int[16] : null;
+        writtenCount = 0;
+        rewritten = false;
+    }
+
+    /**
+     * @return Whether the whole store has been replaced, by clear(),
+     * loadStore() or restore(), since the writes were last taken
+     */
+    public boolean wasRewritten() {
+        return rewritten;
+    }
+
+    /**
+     * Takes the addresses written, and clears the rewritten flag
+     * @return The addresses written since the last call, in order and possibly
+     * repeated, or null if there were none
+     */
+    public int[] takeWrites() {
+        rewritten = false;
+        if (writtenCount == 0) return null;
+        int[] list = Arrays.copyOf(written, writtenCount);
+        writtenCount = 0;
+        return list;
+    }
+
+    /**
+     * @return Whether the write jumper is on (writes are enabled)
+     */
+    public boolean isWriteEnabled() {
+        return writeJumper.getEnabled();
+    }
+
+    private static int combineAddress(int a0, int a1, int a2, int a3) {
+        return (a0 & 0xF) | (a1 & 0xF) << 4 | (a2 & 0xF) << 8 | (a3 & 0xF) << 12;
     }
 
     private void updateEditor(int address) {
@@ -235,11 +625,21 @@ public class NRAM extends BaseModule {
     }
 
     public void write(int address, BinData d0, BinData d1) {
+        writePacked(address, d0.getPacked(), d1.getPacked());
+    }
+
+    /**
+     * Writes an address, as write()
+     * @param p0 First location's contents, packed
+     * @param p1 Second location's contents, packed
+     */
+    public void writePacked(int address, int p0, int p1) {
         if (address <= MAX_ADDR) {
             address = address << 1;
 
-            store[address] = d0;
-            store[address | 1] = d1;
+            set(address, p0 & 0xFF);
+            set(address | 1, p1 & 0xFF);
+            track(address >> 1);
 
             updateEditor(address);
         } else {
@@ -247,11 +647,89 @@ public class NRAM extends BaseModule {
         }
     }
 
+    /**
+     * Writes bytes to consecutive addresses, as write() - the low nibble of
+     * each byte to the first location. Anything past the last address is
+     * dropped.
+     */
+    public void writeBytes(int address, byte[] bytes, int offset, int length) {
+        if (length <= 0) return;
+        writeBytes(address, ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Writes the remaining bytes of a buffer to consecutive addresses, as
+     * writeBytes(). The buffer's position is left after the last byte written.
+     */
+    public void writeBytes(int address, ByteBuffer src) {
+        if (!src.hasRemaining()) return;
+        int end = clampEnd(address, src.remaining());
+        for (int a = address; a < end; a++) {
+            int b = src.get();
+            set(a << 1, BinData.packUInt(b));
+            set(a << 1 | 1, BinData.packUInt(b >> 4));
+            track(a);
+        }
+        updateEditor(address << 1);
+    }
+
+    /**
+     * Reads consecutive addresses into a buffer as bytes, the first location
+     * in the low nibble, until the buffer is full or the last address is read
+     * @return Number of bytes read
+     */
+    public int readBytes(int address, ByteBuffer dst) {
+        int end = (int) Math.min((long) address + dst.remaining(), MAX_ADDR + 1);
+        for (int a = address; a < end; a++) {
+            dst.put((byte) ((get(a << 1) & 0xF) | (get(a << 1 | 1) & 0xF) << 4));
+        }
+        return Math.max(end - address, 0);
+    }
+
+    /**
+     * Writes a byte to a run of consecutive addresses, as writeBytes()
+     */
+    public void fill(int address, int count, int value) {
+        if (count <= 0) return;
+        int end = clampEnd(address, count);
+        int p0 = BinData.packUInt(value), p1 = BinData.packUInt(value >> 4);
+        for (int a = address; a < end; a++) {
+            set(a << 1, p0);
+            set(a << 1 | 1, p1);
+            track(a);
+        }
+        updateEditor(address << 1);
+    }
+
+    /**
+     * @return The end of a run of addresses, cut short at the last address
+     */
+    private static int clampEnd(int address, int count) {
+        long end = (long) address + count;
+        if (end > MAX_ADDR + 1) {
+            Logger.getLogger(NRAM.class.getName()).warning("NRAM tile index out of bounds.");
+            return MAX_ADDR + 1;
+        }
+        return (int) end;
+    }
+
+    /**
+     * Adds an address to the list of those written, while it's kept
+     */
+    private void track(int address) {
+        if (written != null) {
+            if (writtenCount == written.length) {
+                written = Arrays.copyOf(written, writtenCount * 2);
+            }
+            written[writtenCount++] = address;
+        }
+    }
+
     public BinData[] read(int address) {
         if (address <= MAX_ADDR) {
             address = address << 1;
 
-            return new BinData[]{store[address], store[address | 1]};
+            return new BinData[]{BinData.fromPacked(get(address)), BinData.fromPacked(get(address | 1))};
         } else {
             Logger.getLogger(NRAM.class.getName()).warning("NRAM tile index out of bounds.");
             return new BinData[]{new BinData(), new BinData()};
@@ -75,26 +75,26 @@ public class Or extends BaseModule {
 
     @Override
     public void propagate() {
-        BinData res = new BinData();
-        res.setBit(0, BinData.LOW);
+        // Result is bit 0 only: low unless any input's bit 0 is high
+        int res = 0x10;
         rLED.setEnabled(false);
 
         for (int i = 0; i < passOut.size(); i++) {
-            passOut.get(i).setVal(dIn.get(i).getVal());
+            final int v = dIn.get(i).getPacked();
+            passOut.get(i).setPacked(v);
 
-            byte v = passOut.get(i).getVal().getBit(0);
-            if (v == BinData.HIGH) {
-                res.setBit(0, BinData.HIGH);
+            if (BinData.packedBit(v, 0) == BinData.HIGH) {
+                res = 0x11;
                 rLED.setEnabled(true);
             }
         }
 
-        if (chIn.getVal().getBit(0) == BinData.HIGH) {
-            res.setBit(0, BinData.HIGH);
+        if (BinData.packedBit(chIn.getPacked(), 0) == BinData.HIGH) {
+            res = 0x11;
             rLED.setEnabled(true);
         }
 
-        rOut.setVal(res);
+        rOut.setPacked(res);
     }
 
     @Override
@@ -13,7 +13,7 @@ import com.modsim.util.BinData;
 import com.modsim.modules.parts.LEDRow;
 import com.modsim.modules.parts.Port;
 
-import javax.swing.*;
+import com.modsim.Main;
 
 /**
  * Register module
@@ -73,26 +73,26 @@ public class Register extends BaseModule {
     @Override
     public void propagate() {
         // Get control input
-        BinData controlVal = controlIn.getVal();
+        final int controlVal = controlIn.getPacked();
 
-        boolean clk = controlVal.getBooleanBit(0);
-        boolean rst = controlVal.getBooleanBit(1);
-        boolean en  = controlVal.getBooleanBit(2);
+        boolean clk = BinData.packedBit(controlVal, 0) == BinData.HIGH;
+        boolean rst = BinData.packedBit(controlVal, 1) == BinData.HIGH;
+        boolean en  = BinData.packedBit(controlVal, 2) == BinData.HIGH;
 
         // Store / reset the data
         if (rst) {
             myData.setInt(0);
         }
         else if (clk && en) {
-            myData = dataIn.getVal();
+            myData.setPacked(dataIn.getPacked());
         }
 
         // Show it
         ledRow.setVal(myData);
 
         // Set the outputs
-        dataOut.setVal(myData);
-        controlOut.setVal(controlVal);
+        dataOut.setPacked(myData.getPacked());
+        controlOut.setPacked(controlVal);
     }
 
     public void setStoredVal(BinData val) {
@@ -103,6 +103,28 @@ public class Register extends BaseModule {
         return new BinData(myData);
     }
 
+    @Override
+    public long getStateHash() {
+        return myData.getPacked();
+    }
+
+    @Override
+    public int getState() {
+        return myData.getPacked();
+    }
+
+    @Override
+    public void setState(int state) {
+        myData.setPacked(state);
+    }
+
+    /**
+     * Stored value, packed - for hot code that can't allocate
+     */
+    public int getStoredPacked() {
+        return myData.getPacked();
+    }
+
     public void clear() {
         myData = new BinData(0);
     }
@@ -132,7 +154,7 @@ public class Register extends BaseModule {
                 myData = new BinData(b0, b1, b2, b3); // note the order!
             }
             catch (Exception e) {
-                JOptionPane.showMessageDialog(null, "Corrupt/unrecognized SwitchInput data: " + e.getMessage());
+                Main.showMessage("Corrupt/unrecognized SwitchInput data: " + e.getMessage());
             }
         }
     }
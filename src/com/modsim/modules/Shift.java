@@ -17,6 +17,16 @@ public class Shift extends BaseModule {
     // Pull control to XX01
     private static final BinData contPull = new BinData((byte)1, (byte)3);
 
+    // Outputs for each shift, data input and chain input, indexed by
+    // mode << 11 | data << 3 | chain - see mode(). All of the data input
+    // counts, as it's passed through whole when not shifting, but only the
+    // low three bits of the chain input, with disconnected bits as 0. Each
+    // entry holds the packed result in its low byte and the packed chain out
+    // in the next.
+    private static final int[] LEFT_TABLE = buildTable(true);
+    private static final int[] RIGHT_TABLE = buildTable(false);
+
+    private final int[] table;
     private final boolean isLeftShift;
 
     private final Output dataOut;
@@ -33,6 +43,7 @@ public class Shift extends BaseModule {
         w = 150;
         h = 50;
         isLeftShift = left;
+        table = left ? LEFT_TABLE : RIGHT_TABLE;
 
         dataOut = addOutput("Result", 0, Port.DATA);
         chainOut = addOutput("Chain out", left ? -50 : 50, Port.DATA);
@@ -84,6 +95,26 @@ public class Shift extends BaseModule {
 
     @Override
     public void propagate() {
+        final int control = controlIn.getPacked();
+        final int data = dataIn.getPacked();
+        final int chain = chainIn.getPacked();
+        final int e = lookup(table, control, data, chain);
+
+        dataOut.setPacked(e & 0xFF);
+
+        shiftLEDs[0].setEnabled(BinData.packedBit(control, 0) == BinData.HIGH);
+        shiftLEDs[1].setEnabled(BinData.packedBit(control, 1) == BinData.HIGH);
+        dataLEDs.setPacked(dataOut.getPacked());
+
+        this.chainOut.setPacked(e >> 8);
+        controlOut.setPacked(control);
+    }
+
+    /**
+     * Evaluates the module without the lookup table - the reference the
+     * table is tested against
+     */
+    private void propagateDirect() {
         // Get the input values
         byte[] chainOut = new byte[4];
         chainOut[3] = BinData.NOCON;
@@ -178,6 +209,119 @@ public class Shift extends BaseModule {
         return new BinData(ret);
     }
 
+    /**
+     * Table entry for the given packed inputs - for engines evaluating the
+     * module from port values alone
+     * @param left Whether the module shifts left
+     */
+    public static int lookup(boolean left, int control, int data, int chain) {
+        return lookup(left ? LEFT_TABLE : RIGHT_TABLE, control, data, chain);
+    }
+
+    private static int lookup(int[] table, int control, int data, int chain) {
+        return table[mode(control) << 11 | (data & 0xFF) << 3 | (chain & (chain >> 4) & 7)];
+    }
+
+    /**
+     * Table index bits for the control input: bit 0 set if control bit 0 is
+     * low, bit 1 set if control bit 1 is high
+     */
+    private static int mode(int control) {
+        return ((control >> 4) & ~control & 1) | ((control >> 5) & (control >> 1) & 1) << 1;
+    }
+
+    private static int[] buildTable(boolean left) {
+        int[] table = new int[1 << 13];
+        for (int mode = 0; mode < 4; mode++) {
+            for (int data = 0; data < 256; data++) {
+                // Disconnected bits shift in as 0
+                int bits = data & (data >> 4) & 0xF;
+                for (int chain = 0; chain < 8; chain++) {
+                    int dist = (mode & 1) != 0 ? ((mode & 2) != 0 ? 2 : 0) : ((mode & 2) != 0 ? 3 : 1);
+
+                    int out;
+                    if (dist == 0) {
+                        out = data;
+                    }
+                    else {
+                        // Bits shifted in from the chain, placed as for a
+                        // right shift then mirrored for a left one
+                        int fill;
+                        switch (dist) {
+                            case 1:
+                                fill = (chain & 1) << 3;
+                                break;
+                            case 2:
+                                fill = (chain & 6) << 1;
+                                break;
+                            default:
+                                fill = (chain & 7) << 1;
+                                break;
+                        }
+                        if (left) {
+                            out = BinData.packUInt(bits << dist | Integer.reverse(fill) >>> 28);
+                        }
+                        else {
+                            out = BinData.packUInt(bits >> dist | fill);
+                        }
+                    }
+
+                    // Chain out is the bits shifted out, or would be by one
+                    // place when not shifting, nearest the edge first
+                    int c0 = bit(bits, left, 0);
+                    int c1 = (mode & 1) != 0 ? c0 : bit(bits, left, 1);
+                    int c2 = (mode & 1) != 0 ? bit(bits, left, 1) : bit(bits, left, 2);
+                    int chainOut = BinData.packUInt(c0 | c1 << 1 | c2 << 2);
+
+                    table[mode << 11 | data << 3 | chain] = out | chainOut << 8;
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return A bit of the data, counted in from the edge bits shift out of
+     */
+    private static int bit(int bits, boolean left, int which) {
+        return (bits >> (left ? 3 - which : which)) & 1;
+    }
+
+    @Override
+    public boolean test() {
+        // Every entry, with the bits the table ignores varied, against the
+        // direct evaluation
+        BinData pullC = controlIn.pull, pullD = dataIn.pull, pullCh = chainIn.pull;
+        try {
+            for (int c = 0; c < 256; c++) {
+                for (int d = 0; d < 256; d++) {
+                    for (int ch = 0; ch < 16; ch++) {
+                        controlIn.pull = BinData.fromPacked(c);
+                        dataIn.pull = BinData.fromPacked(d);
+                        chainIn.pull = BinData.fromPacked(((c ^ d) & 0xF0) | ch);
+
+                        propagateDirect();
+                        int[] expected = outputValues();
+                        boolean led0 = shiftLEDs[0].getEnabled(), led1 = shiftLEDs[1].getEnabled();
+
+                        propagate();
+                        if (!outputsMatch(expected) || led0 != shiftLEDs[0].getEnabled() || led1 != shiftLEDs[1].getEnabled()) {
+                            System.err.print("Lookup table disagrees for data=" + d + " chain=" + ch + " control=" + c + " ");
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            controlIn.pull = pullC;
+            dataIn.pull = pullD;
+            chainIn.pull = pullCh;
+            propagate();
+        }
+        return true;
+    }
+
     @Override
     public List<Port> getAffected(Port in) {
         // Control-out is only affected by control-in, other than that everything's variable
@@ -8,11 +8,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
-import javax.swing.JOptionPane;
 
 import com.modsim.modules.parts.VisiblePart;
 import com.modsim.modules.ports.BidirPort;
-import com.modsim.Main;
 import com.modsim.modules.parts.Port;
 import com.modsim.modules.parts.SSText;
 import com.modsim.res.Colors;
@@ -207,12 +205,9 @@ public class SplitMerge extends BaseModule {
         if (portA0.wasUpdated() || portA1.wasUpdated()) {
         	if(portA0.isConnected() && portA1.isConnected())
         	{
-        		JOptionPane.showMessageDialog(Main.ui.pane, "Error: There must only be one connection to that side of a split/merge.");
+        		getSim().message("Error: There must only be one connection to that side of a split/merge.");
         		Port port = portA0.wasUpdated()?portA0:portA1;
-        		synchronized (Main.sim)
-				{
-	        		Main.sim.removeLink(port.link);	        		
-        		}
+        		getSim().removeLink(port.link);
         		return;
         	}
             b0_val.setBit(0, a0_val.getBit(0)); // A0-a0
@@ -10,7 +10,7 @@ import com.modsim.util.BinData;
 import com.modsim.modules.ports.Output;
 import com.modsim.modules.parts.Switch;
 
-import javax.swing.*;
+import com.modsim.Main;
 
 /**
  * Multi-switch input module
@@ -85,15 +85,28 @@ public class SwitchInput extends BaseModule {
 	@Override
     public void propagate() {
 		// Generate output value
-		BinData out = new BinData(0);
+		int out = 0;
 
-		if (s1.getEnabled()) out.setBit(3, 1);
-		if (s2.getEnabled()) out.setBit(2, 1);
-		if (s3.getEnabled()) out.setBit(1, 1);
-		if (s4.getEnabled()) out.setBit(0, 1);
+		if (s1.getEnabled()) out |= 8;
+		if (s2.getEnabled()) out |= 4;
+		if (s3.getEnabled()) out |= 2;
+		if (s4.getEnabled()) out |= 1;
 
 		// Output
-		data.setVal(out);
+		data.setPacked(BinData.packUInt(out));
+	}
+
+	@Override
+	public int getState() {
+		return (s1.getEnabled() ? 8 : 0) | (s2.getEnabled() ? 4 : 0) | (s3.getEnabled() ? 2 : 0) | (s4.getEnabled() ? 1 : 0);
+	}
+
+	@Override
+	public void setState(int state) {
+		s1.setEnabled((state & 8) != 0);
+		s2.setEnabled((state & 4) != 0);
+		s3.setEnabled((state & 2) != 0);
+		s4.setEnabled((state & 1) != 0);
 	}
 
 	@Override
@@ -116,7 +129,7 @@ public class SwitchInput extends BaseModule {
 				s4.setEnabled(Integer.parseInt(b3) == 1);
 			}
 			catch (Exception e) {
-				JOptionPane.showMessageDialog(null, "Corrupt/unrecognized SwitchInput data: "+e.getMessage());
+				Main.showMessage("Corrupt/unrecognized SwitchInput data: "+e.getMessage());
 			}
 		}
 	}
@@ -11,8 +11,11 @@ public class LED extends TogglePart {
 	private Color color;
 	private Color hColor;
 
-	private int povTicks = 0;
-	private int povHits = 0;
+	// Lit at any point since the last capture (simulation side)
+	private boolean lit = false;
+
+	// Captured state being displayed (view side)
+	private boolean shown = false;
 
     // Convenience method, single LEDs are most commonly control.
     public LED(int x, int y) {
@@ -33,7 +36,7 @@ public class LED extends TogglePart {
 		g.setColor(Colors.ledBack);
 		g.fillRect(x-4, y-4, 8, 8);
 
-		if (getEnabled() || povHits > 0) {
+		if (shown) {
 			g.setColor(color);
             g.fillRect(x-4, y-4, 8, 8);
 			g.setColor(hColor);
@@ -43,16 +46,33 @@ public class LED extends TogglePart {
 			g.setColor(Colors.ledOff);
 			g.fillRect(x-2, y-2, 4, 4);
 		}
+	}
 
-		povTicks = 0;
-        povHits = 0;
+	@Override
+	public void setEnabled(boolean en) {
+		super.setEnabled(en);
+		lit |= en;
 	}
 
 	@Override
-	public void povTick() {
-		povTicks++;
-		if (getEnabled()) {
-			povHits++;
-		}
+	public boolean hasDisplayState() {
+		return true;
+	}
+
+	@Override
+	public int captureState() {
+		int state = (lit || getEnabled()) ? 1 : 0;
+		lit = false;
+		return state;
+	}
+
+	@Override
+	public void addState(int state) {
+		lit |= state != 0;
+	}
+
+	@Override
+	public void showState(int state) {
+		shown = state != 0;
 	}
 }
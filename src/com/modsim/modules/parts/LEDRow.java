@@ -19,10 +19,13 @@ public class LEDRow extends VisiblePart {
 	private Color color = Color.BLUE;
 	private Color hColor = Color.BLUE;
 
-	private volatile BinData curVal = new BinData(0);
+	private final BinData curVal = new BinData(0);
 
-	private int povTicks = 0;
-	private int povHits[] = new int[NLEDS];
+	// LEDs lit at any point since the last capture (simulation side)
+	private int lit = 0;
+
+	// Captured state being displayed (view side)
+	private int shown = 0;
 
     // Convenience method, LEDRow is usually data.
     public LEDRow(int x, int y) {
@@ -43,6 +46,16 @@ public class LEDRow extends VisiblePart {
 	 */
 	public void setVal(BinData v) {
 		curVal.set(v);
+		lit |= litBits();
+	}
+
+	/**
+	 * Set next value to display from packed data
+	 * @param v Data packed as (mask << 4) | val
+	 */
+	public void setPacked(int v) {
+		curVal.setPacked(v);
+		lit |= litBits();
 	}
 
 	/**
@@ -59,11 +72,10 @@ public class LEDRow extends VisiblePart {
 		g.setColor(Colors.ledBack);
 		g.fillRect(x-15, y-3, 30, 6);
 
-		BinData v = getVal();
 		for (int i = 0; i < NLEDS; i++) {
 			int offs = x+(1-i)*8;
 
-			if (v.getBit(i) == 1 || povHits[i] > 0) {
+			if ((shown & (1 << i)) != 0) {
 				g.setColor(color);
 				g.fillRect(offs+1, y-3, 6, 6);
 				g.setColor(hColor);
@@ -74,26 +86,36 @@ public class LEDRow extends VisiblePart {
 				g.fillRect(offs+2, y-2, 4, 4);
 			}
 		}
+	}
 
-		resetPov();
+	/**
+	 * LEDs lit by the current value - bits that are both high and connected
+	 */
+	private int litBits() {
+		int v = curVal.getPacked();
+		return v & (v >> 4) & 0xF;
 	}
 
 	@Override
-	public void povTick() {
-		povTicks++;
-		BinData v = getVal();
-		for (int i = 0; i < NLEDS; i++) {
-			if (v.getBit(i) == 1) {
-				povHits[i]++;
-			}
-		}
+	public boolean hasDisplayState() {
+		return true;
 	}
 
-	private void resetPov() {
-		povTicks = 0;
-		for (int i = 0; i < NLEDS; i++) {
-			povHits[i] = 0;
-		}
+	@Override
+	public int captureState() {
+		int state = lit | litBits();
+		lit = 0;
+		return state;
+	}
+
+	@Override
+	public void addState(int state) {
+		lit |= state;
+	}
+
+	@Override
+	public void showState(int state) {
+		shown = state;
 	}
 
     @Override
@@ -37,7 +37,8 @@ public abstract class Port {
 	public String text;
 	public int pos = 0;
 
-	protected BinData value = new BinData();
+	// Packed as (mask << 4) | val - see BinData.getPacked()
+	protected int value = 0;
 
     public boolean updated = false;
 
@@ -56,8 +57,17 @@ public abstract class Port {
      * it was different to the last stored value)
      */
     public boolean setVal(BinData val) {
-        if (!val.equals(value)) {
-            value = new BinData(val);
+        return setPacked(val.getPacked());
+    }
+
+    /**
+     * Value set from packed data, as setVal
+     * @param val Data packed as (mask << 4) | val
+     * @return True if the value was changed
+     */
+    public boolean setPacked(int val) {
+        if (!BinData.packedEquals(val, value)) {
+            value = val;
             updated = true;
             return true;
         }
@@ -78,7 +88,15 @@ public abstract class Port {
 	 * Value retrieval
 	 */
 	public BinData getVal() {
-		return new BinData(value);
+		return BinData.fromPacked(getPacked());
+	}
+
+	/**
+	 * Value retrieval without allocation
+	 * @return Data packed as (mask << 4) | val
+	 */
+	public int getPacked() {
+		return value;
 	}
 
 	/**
@@ -6,7 +6,6 @@ import com.modsim.res.Colors;
 import com.modsim.res.Colors.LEDColour;
 import java.awt.Graphics2D;
 
-import com.modsim.Main;
 
 /**
  * Visible, clickable push switch
@@ -47,7 +46,7 @@ public class PushBtn extends TogglePart {
 			// Clicked
 			setEnabled(true);
 			clicking = true;
-			Main.sim.propagate(owner);
+			owner.getSim().propagate(owner);
 			return true;
 		}
 
@@ -59,7 +58,7 @@ public class PushBtn extends TogglePart {
 	    if (clicking) {
 	        clicking = false;
 	        setEnabled(false);
-	        Main.sim.propagate(owner);
+	        owner.getSim().propagate(owner);
             return true;
 	    }
 
@@ -87,9 +86,4 @@ public class PushBtn extends TogglePart {
             g.fillRect(x-w/2 + 1, y-h/2+1, w - 2, h-3);
 		}
 	}
-
-	@Override
-	public void povTick() {
-		// Don't care
-	}
 }
@@ -6,7 +6,6 @@ import com.modsim.res.Colors;
 import com.modsim.res.Colors.LEDColour;
 import java.awt.Graphics2D;
 
-import com.modsim.Main;
 
 /**
  * Visible, clickable toggle switch
@@ -40,7 +39,7 @@ public class Switch extends TogglePart {
 		if (xPt > x-w/2 && xPt < x+w/2 && yPt > y-h/2 && yPt < y+h/2) {
 			// Clicked
 			toggleEnabled();
-			Main.sim.propagate(owner);
+			owner.getSim().propagate(owner);
 			return true;
 		}
 
@@ -67,9 +66,4 @@ public class Switch extends TogglePart {
             g.fillRect(x-w/2 + 1, y-1, w - 2, 12);
 		}
 	}
-
-	@Override
-	public void povTick() {
-		// Don't care
-	}
 }
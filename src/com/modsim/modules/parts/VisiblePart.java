@@ -28,7 +28,28 @@ public abstract class VisiblePart {
 	public abstract RefreshMode getRefreshMode();
 
 	/***
-	 * Use to update the part's persistence-of-vision data
+	 * Whether the part's display is driven by the simulation, and so shown
+	 * through display snapshots rather than painted live
 	 */
-	public abstract void povTick();
+	public boolean hasDisplayState() {return false;}
+
+	/***
+	 * Captures the part's display state on the simulation thread, resetting its
+	 * persistence-of-vision data
+	 * @return State to pass to showState
+	 */
+	public int captureState() {return 0;}
+
+	/***
+	 * Adds to the persistence-of-vision data, as if the part had shown the
+	 * given state since the last capture (simulation side)
+	 * @param state State as captureState gives it
+	 */
+	public void addState(int state) {}
+
+	/***
+	 * Sets the display state to paint, on the view thread
+	 * @param state State captured by captureState
+	 */
+	public void showState(int state) {}
 }
@@ -53,12 +53,12 @@ public class BidirPort extends Port {
     }
 
     @Override
-    public boolean setVal(BinData val) {
+    public boolean setPacked(int val) {
         boolean retVal = false;
         switch (mode) {
             case MODE_INPUT:
             case MODE_OUTPUT:
-                retVal = super.setVal(val);
+                retVal = super.setPacked(val);
                 break;
         }
 
@@ -66,12 +66,12 @@ public class BidirPort extends Port {
     }
 
     @Override
-    public BinData getVal() {
-        BinData retVal = new BinData();
+    public int getPacked() {
+        int retVal = 0;
         switch (mode) {
             case MODE_INPUT:
             case MODE_OUTPUT:
-                retVal.set(super.getVal());
+                retVal = super.getPacked();
                 break;
         }
 
@@ -19,15 +19,23 @@ public class Input extends Port {
     @Override
     public BinData getVal() {
         if (link != null) {
-            BinData v = super.getVal();
-            v.resolvePull(pull);
-            return v;
+            return BinData.fromPacked(getPacked());
         }
         else {
             return pull;
         }
     }
 
+    @Override
+    public int getPacked() {
+        if (link != null) {
+            return BinData.packedResolvePull(value, pull.getPacked());
+        }
+        else {
+            return pull.getPacked();
+        }
+    }
+
     @Override
     public boolean canInput() {
         return true;
@@ -2,7 +2,6 @@ package com.modsim.operations;
 
 import com.modsim.modules.Link;
 import com.modsim.modules.parts.Port;
-import com.modsim.Main;
 import com.modsim.simulator.PickableEntity;
 import com.modsim.util.CtrlPt;
 
@@ -36,18 +35,18 @@ public class DeleteOperation extends BaseOperation {
                 c.parent.addPt(ctrlPtIndex, c);
                 c.parent.calcCurves();
             }
-            Main.sim.addEntity(entity);
+            entity.getSim().addEntity(entity);
         }
         if (link != null) {
             link.src.link = link;
             link.targ.link = link;
-            Main.sim.addLink(link);
+            link.getSim().addLink(link);
 
             // Propagate change
             link.src.setMode(Port.Mode.MODE_OUTPUT);
             link.targ.setMode(Port.Mode.MODE_INPUT);
             link.targ.setVal(link.src.getVal());
-            Main.sim.propagate(link.targ.owner);
+            link.getSim().propagate(link.targ.owner);
         }
     }
 
@@ -59,7 +58,7 @@ public class DeleteOperation extends BaseOperation {
                 c.parent.removePt(c);
                 c.parent.calcCurves();
             }
-            Main.sim.removeEntity(entity);
+            entity.getSim().removeEntity(entity);
         }
         if (link != null) {
             link.delete();
@@ -0,0 +1,44 @@
+package com.modsim.operations;
+
+import com.modsim.modules.NRAM;
+import com.modsim.simulator.Sim;
+
+/**
+ * Undo/redo for changes to an NRAM module's contents, such as clearing it or
+ * loading a hex file. The contents before and after are held as snapshots,
+ * which share their unchanged pages with the module.
+ */
+public class MemoryOperation extends BaseOperation {
+
+    private final NRAM ram;
+    private final NRAM.Snapshot before, after;
+
+    public MemoryOperation(NRAM ram, NRAM.Snapshot before, NRAM.Snapshot after) {
+        this.ram = ram;
+        this.before = before;
+        this.after = after;
+    }
+
+    @Override
+    public void undo() {
+        apply(before);
+    }
+
+    @Override
+    public void redo() {
+        apply(after);
+    }
+
+    private void apply(NRAM.Snapshot snapshot) {
+        Sim sim = ram.getSim();
+        sim.lock.writeLock().lock();
+        try {
+            ram.restore(snapshot);
+        }
+        finally {
+            sim.lock.writeLock().unlock();
+        }
+        sim.propagate(ram);
+    }
+
+}
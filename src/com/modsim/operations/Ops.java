@@ -16,6 +16,7 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.io.File;
 import java.io.FilenameFilter;
+import java.text.DecimalFormat;
 import java.util.prefs.Preferences;
 
 /**
@@ -141,7 +142,7 @@ public class Ops {
             rotateCW, rotateCCW, rotate180,
             toggleSnap,
             labelEdit, labelBig, labelSmall,
-            pause, run, step, toggleRun, zoomIn, zoomOut, resetView, toggleAA, open, save, saveAs, fileNew, quit;
+            pause, run, step, stepBack, toggleRun, zoomIn, zoomOut, resetView, toggleAA, open, save, saveAs, fileNew, quit;
 
     static {
         // Keyboard shortcuts
@@ -158,6 +159,7 @@ public class Ops {
 
         KeyStroke space = KeyStroke.getKeyStroke(KeyEvent.VK_SPACE, 0);
         KeyStroke period = KeyStroke.getKeyStroke(KeyEvent.VK_PERIOD, 0);
+        KeyStroke comma = KeyStroke.getKeyStroke(KeyEvent.VK_COMMA, 0);
         KeyStroke del = KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0);
         KeyStroke lBracket = KeyStroke.getKeyStroke('[');
         KeyStroke rBracket = KeyStroke.getKeyStroke(']');
@@ -276,6 +278,12 @@ public class Ops {
             Main.sim.stop();
             Main.sim.step();
         }, "Step Simulation", "Steps the simulation forward by one iteration", period);
+        stepBack = new DesignAction(event -> {
+            if (!Main.sim.rewind(Main.sim.iterations - 1)) {
+                Main.showMessage(Main.sim.history.isEnabled() ? "No earlier iteration in the simulation history"
+                        : "The simulation history is off - turn on Simulation > Keep History to step back");
+            }
+        }, "Step Back", "Returns the simulation to the previous iteration", comma);
         
         //Zoom controls
         zoomIn = new DesignAction(event -> Main.ui.zoomInToView(), "Zoom In");
@@ -325,11 +333,13 @@ public class Ops {
     public static final ChangeListener sliderSetSpeed = new ChangeListener() {
         @Override
         public void stateChanged(ChangeEvent e) {
-            // Adjust sim speed
+            // Adjust sim speed - a decade of clock frequency every 10 steps from
+            // 0.1Hz, or flat out at the top of the scale
             JSlider src = (JSlider) e.getSource();
             int val = src.getValue();
-            long delay = (long) Math.pow(1.35, 60 - val);
-            com.modsim.simulator.Sim.delay = delay -1;
+            double hz = val == src.getMaximum() ? 0 : Math.pow(10, val / 10.0 - 1);
+            Main.sim.setFrequency(hz);
+            src.setToolTipText(hz == 0 ? "Unlimited" : new DecimalFormat("#.##").format(hz) + " Hz");
         }
     };
 
@@ -0,0 +1,181 @@
+package com.modsim.simulator;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.NRAM;
+import com.modsim.modules.Register;
+import com.modsim.modules.parts.Port;
+import com.modsim.util.BinData;
+
+/**
+ * A condition that halts the simulation. Value conditions compare packed data
+ * against a pattern in which disconnected ('x') bits are don't-cares, and
+ * trigger when the value comes to match - not on every step it keeps matching.
+ * Memory conditions trigger on each access to an address range of one NRAM.
+ */
+public class Breakpoint {
+
+    /**
+     * Available breakpoint conditions
+     */
+    public enum Kind {
+        REGISTER("Register value"),
+        PORT("Port value"),
+        MEMORY_READ("NRAM read"),
+        MEMORY_WRITE("NRAM write"),
+        ITERATION("Iteration");
+
+        private final String name;
+
+        Kind(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    public final Kind kind;
+
+    // What's watched - only the one matching the kind is set
+    final Register register;
+    final Port port;
+    final NRAM memory;
+
+    // Value conditions: the packed value must equal match under care
+    final int care;
+    final int match;
+
+    // Memory conditions: inclusive address range
+    final int low, high;
+
+    // Iteration conditions
+    final int iteration;
+
+    private Breakpoint(Kind kind, Register register, Port port, NRAM memory, BinData pattern,
+                       int low, int high, int iteration) {
+        this.kind = kind;
+        this.register = register;
+        this.port = port;
+        this.memory = memory;
+        this.low = low;
+        this.high = high;
+        this.iteration = iteration;
+
+        // Connected pattern bits must be connected and equal in the value
+        int m = pattern == null ? 0 : pattern.mask & 0xF;
+        care = (m << 4) | m;
+        match = pattern == null ? 0 : (m << 4) | (pattern.val & m);
+    }
+
+    /**
+     * Halts when a register comes to store a value
+     * @param r Register to watch
+     * @param pattern Value to match - disconnected bits match anything
+     */
+    public static Breakpoint onRegister(Register r, BinData pattern) {
+        return new Breakpoint(Kind.REGISTER, r, null, null, pattern, 0, -1, 0);
+    }
+
+    /**
+     * Halts when a port comes to carry a value
+     * @param p Port to watch
+     * @param pattern Value to match - disconnected bits match anything
+     */
+    public static Breakpoint onPort(Port p, BinData pattern) {
+        return new Breakpoint(Kind.PORT, null, p, null, pattern, 0, -1, 0);
+    }
+
+    /**
+     * Halts when an NRAM module outputs data from an address range
+     * @param ram Memory to watch
+     * @param low First address
+     * @param high Last address
+     */
+    public static Breakpoint onRead(NRAM ram, int low, int high) {
+        return new Breakpoint(Kind.MEMORY_READ, null, null, ram, null, low, high, 0);
+    }
+
+    /**
+     * Halts when an NRAM module stores data to an address range
+     * @param ram Memory to watch
+     * @param low First address
+     * @param high Last address
+     */
+    public static Breakpoint onWrite(NRAM ram, int low, int high) {
+        return new Breakpoint(Kind.MEMORY_WRITE, null, null, ram, null, low, high, 0);
+    }
+
+    /**
+     * Halts once the simulation has run a number of iterations
+     * @param n Iteration count (Sim.iterations) to stop at
+     */
+    public static Breakpoint atIteration(int n) {
+        return new Breakpoint(Kind.ITERATION, null, null, null, null, 0, -1, n);
+    }
+
+    /**
+     * Whether a packed value meets a value condition
+     */
+    final boolean matches(int packed) {
+        return (packed & care) == match;
+    }
+
+    /**
+     * Whether an access meets a memory condition
+     * @param address Address accessed
+     * @param write Whether it was a write
+     */
+    public final boolean matches(int address, boolean write) {
+        return address >= low && address <= high && write == (kind == Kind.MEMORY_WRITE);
+    }
+
+    /**
+     * First address of a memory condition
+     */
+    public int getLow() {
+        return low;
+    }
+
+    /**
+     * Last address of a memory condition
+     */
+    public int getHigh() {
+        return high;
+    }
+
+    /**
+     * Module the condition is on, if any
+     */
+    public BaseModule getModule() {
+        if (register != null) return register;
+        if (memory != null) return memory;
+        if (port != null) return port.owner;
+        return null;
+    }
+
+    /**
+     * Pattern of a value condition, as entered
+     */
+    private String pattern() {
+        return new BinData((byte) (match & 0xF), (byte) (care & 0xF)).toString();
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case REGISTER:
+                return kind + " = " + pattern() + " (register #" + register.ID + ")";
+            case PORT:
+                return kind + " = " + pattern() + " (" + port.text + ", module #" + port.owner.ID + ")";
+            case MEMORY_READ:
+            case MEMORY_WRITE:
+                return kind + " at " + String.format("%04X", low)
+                        + (high != low ? "-" + String.format("%04X", high) : "") + " (NRAM #" + memory.ID + ")";
+            default:
+                return kind + " " + iteration;
+        }
+    }
+
+}
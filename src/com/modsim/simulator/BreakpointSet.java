@@ -0,0 +1,140 @@
+package com.modsim.simulator;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.modsim.modules.NRAM;
+import com.modsim.modules.Register;
+import com.modsim.modules.parts.Port;
+
+/**
+ * Breakpoints compiled for checking after every step: value conditions are
+ * flattened into arrays of sources and packed masks, iteration conditions into
+ * a sorted list, and memory conditions are handed to the NRAM modules they
+ * watch, which report accesses as they happen.
+ */
+final class BreakpointSet {
+
+    // Value conditions - registers first, then ports
+    private final Breakpoint[] values;
+    private final Register[] registers;
+    private final Port[] ports;
+    private final int[] care;
+    private final int[] match;
+    private final boolean[] met;
+
+    // Iteration conditions, soonest first
+    private final Breakpoint[] iterations;
+    private int nextIteration = 0;
+
+    // First memory access to meet a condition this step (NRAM may be
+    // evaluated on worker threads)
+    private final AtomicReference<Breakpoint> memoryHit = new AtomicReference<>();
+
+    /**
+     * Compiles a set of breakpoints and arms the memory conditions (MUST be
+     * called while holding the write lock)
+     * @param bps Breakpoints to check
+     * @param rams Every NRAM module in the design - watches are set on all of
+     *             them, so removed conditions are disarmed
+     */
+    BreakpointSet(List<Breakpoint> bps, List<NRAM> rams) {
+        List<Breakpoint> vals = new ArrayList<>();
+        List<Breakpoint> itrs = new ArrayList<>();
+        Map<NRAM, List<Breakpoint>> watches = new HashMap<>();
+
+        for (Breakpoint b : bps) {
+            switch (b.kind) {
+                case REGISTER:
+                    vals.add(b);
+                    break;
+                case PORT:
+                    break;
+                case ITERATION:
+                    itrs.add(b);
+                    break;
+                default:
+                    watches.computeIfAbsent(b.memory, r -> new ArrayList<>()).add(b);
+            }
+        }
+        int numRegisters = vals.size();
+        for (Breakpoint b : bps) {
+            if (b.kind == Breakpoint.Kind.PORT) vals.add(b);
+        }
+
+        int n = vals.size();
+        values = vals.toArray(new Breakpoint[n]);
+        registers = new Register[numRegisters];
+        ports = new Port[n - numRegisters];
+        care = new int[n];
+        match = new int[n];
+        met = new boolean[n];
+
+        for (int i = 0; i < n; i++) {
+            Breakpoint b = values[i];
+            if (i < numRegisters) registers[i] = b.register;
+            else ports[i - numRegisters] = b.port;
+            care[i] = b.care;
+            match[i] = b.match;
+
+            // Only a change to a matching value triggers, so a condition
+            // that's already met when armed doesn't halt straight away
+            met[i] = b.matches(valueOf(i));
+        }
+
+        itrs.sort((a, b) -> Integer.compare(a.iteration, b.iteration));
+        iterations = itrs.toArray(new Breakpoint[itrs.size()]);
+
+        for (NRAM ram : rams) {
+            List<Breakpoint> w = watches.get(ram);
+            ram.setWatches(w == null ? null : w.toArray(new Breakpoint[w.size()]));
+        }
+    }
+
+    /**
+     * Current packed value of a value condition's source
+     */
+    private int valueOf(int i) {
+        return i < registers.length ? registers[i].getStoredPacked() : ports[i - registers.length].getPacked();
+    }
+
+    /**
+     * Records a memory access meeting a condition (from NRAM.propagate)
+     */
+    void memoryHit(Breakpoint b) {
+        memoryHit.compareAndSet(null, b);
+    }
+
+    /**
+     * Discards memory accesses made outside a step, e.g. by edits
+     */
+    void beginStep() {
+        memoryHit.set(null);
+    }
+
+    /**
+     * Checks the conditions at the end of a step
+     * @param iteration Iterations run so far
+     * @return The first condition met, or null
+     */
+    Breakpoint check(int iteration) {
+        Breakpoint hit = memoryHit.getAndSet(null);
+
+        for (int i = 0; i < values.length; i++) {
+            boolean now = (valueOf(i) & care[i]) == match[i];
+            if (now && !met[i] && hit == null) hit = values[i];
+            met[i] = now;
+        }
+
+        while (nextIteration < iterations.length && iterations[nextIteration].iteration <= iteration) {
+            Breakpoint b = iterations[nextIteration++];
+            if (b.iteration == iteration && hit == null) hit = b;
+        }
+
+        return hit;
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.modsim.simulator;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.modsim.modules.parts.VisiblePart;
+
+/**
+ * Hands the display state of the design from the simulation thread to the view
+ * without locking. The simulation fills a spare snapshot and publishes it; the
+ * view takes the latest one at its own refresh rate, applies it to the parts
+ * and hands it back as the next spare. Between captures the parts keep their
+ * own persistence-of-vision data, so nothing runs per part on a step that
+ * doesn't publish.
+ */
+public class DisplayBuffer {
+
+    /**
+     * Display state of every simulation-driven part at one point in time. Not
+     * modified while published.
+     */
+    private static final class Snapshot {
+        VisiblePart[] parts;
+        int[] states = new int[0];
+    }
+
+    private final AtomicReference<Snapshot> ready = new AtomicReference<>();
+    private final AtomicReference<Snapshot> spare = new AtomicReference<>();
+
+    /**
+     * Whether the view has taken the last published snapshot
+     */
+    boolean isTaken() {
+        return ready.get() == null;
+    }
+
+    /**
+     * Captures and publishes the state of the given parts, replacing any
+     * snapshot the view hasn't taken yet (simulation side, while holding the
+     * sim lock)
+     * @param parts Parts with display state
+     */
+    void publish(VisiblePart[] parts) {
+        Snapshot s = spare.getAndSet(null);
+        if (s == null) {
+            s = new Snapshot();
+        }
+
+        if (s.states.length < parts.length) {
+            s.states = new int[parts.length];
+        }
+        for (int i = 0; i < parts.length; i++) {
+            s.states[i] = parts[i].captureState();
+        }
+        s.parts = parts;
+
+        // An untaken snapshot is now stale - recycle it
+        Snapshot old = ready.getAndSet(s);
+        if (old != null) {
+            spare.set(old);
+        }
+    }
+
+    /**
+     * Applies the latest published snapshot, if there's a new one (view side)
+     * @return Whether anything was applied
+     */
+    public boolean show() {
+        Snapshot s = ready.getAndSet(null);
+        if (s == null) {
+            return false;
+        }
+
+        for (int i = 0; i < s.parts.length; i++) {
+            s.parts[i].showState(s.states[i]);
+        }
+
+        spare.set(s);
+        return true;
+    }
+}
@@ -0,0 +1,535 @@
+package com.modsim.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.BaseModule.AvailableModules;
+import com.modsim.modules.NRAM;
+import com.modsim.modules.parts.Port;
+
+/**
+ * Keeps the state of the running design after each step so the simulation
+ * can be stepped backwards, or returned to any step still held.
+ *
+ * The state kept is that of the clocks, registers, switches and NRAM modules,
+ * along with the value on every port. Every so many steps the whole of it is
+ * copied into a checkpoint - NRAM contents as snapshots, which share the pages
+ * not written since the last - and each step in between records just the
+ * changes it made. Only the modules propagated since the last step can have
+ * changed, so only their state and ports are compared. Returning to a step
+ * applies the changes since the checkpoint before it, so the design is put
+ * back exactly as it was without simulating again.
+ * The oldest checkpoints are discarded to keep the history within its memory
+ * budget. Recording costs time on every step, so it is off until turned on.
+ */
+public class History {
+
+    // Memory budget and checkpoint spacing by default
+    public static final long DEFAULT_BUDGET = 64L << 20;
+    public static final int DEFAULT_INTERVAL = 1024;
+
+    // Rough cost of an object and of a reference, for the budget
+    private static final int OBJECT_BYTES = 16;
+    private static final int REF_BYTES = 8;
+
+    private static final int[] NO_CHANGES = new int[0];
+
+    /**
+     * The whole state after a step
+     */
+    private static final class Checkpoint {
+        final int iteration;
+        final int[] values;
+        final NRAM.Snapshot[] stores;
+        long bytes;
+
+        Checkpoint(int iteration, int[] values, NRAM.Snapshot[] stores, Checkpoint previous) {
+            this.iteration = iteration;
+            this.values = values;
+            this.stores = stores;
+            bytes = size(previous);
+        }
+
+        /**
+         * @return Estimated memory used, not counting NRAM pages shared with
+         * the previous checkpoint
+         * @param previous Previous checkpoint, or null
+         */
+        long size(Checkpoint previous) {
+            long b = OBJECT_BYTES * 3 + 4L * values.length;
+            for (int r = 0; r < stores.length; r++) {
+                b += OBJECT_BYTES + stores[r].bytesNotIn(previous == null ? null : previous.stores[r]);
+            }
+            return b;
+        }
+    }
+
+    private final Sim sim;
+
+    private volatile boolean enabled = false;
+    private volatile long budget = DEFAULT_BUDGET;
+    private volatile int interval = DEFAULT_INTERVAL;
+
+    // Modules with state, every port in netlist order, and the modules' states
+    // followed by the ports' values as last recorded. Each netlist module's
+    // index among the modules with state, or -1, and the start of its ports.
+    private BaseModule[] modules = null;
+    private NRAM[] rams;
+    private Port[] ports;
+    private int[] last;
+    private int[] stateIndex;
+    private int[] portStart;
+
+    // Netlist indices of the modules propagated since the last step recorded,
+    // or everything when a step was cut short
+    private int[] touched = new int[64];
+    private int touchedCount = 0;
+    private boolean[] isTouched;
+    private boolean touchedAll = false;
+
+    // Checkpoints, oldest first, and the changes made by each step after the
+    // oldest: changes.get(i) is for step checkpoints.get(0).iteration + 1 + i.
+    // Each change is an index into the last recorded values and its new value,
+    // or a bitwise-inverted NRAM index, an address and its new packed contents.
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private final List<int[]> changes = new ArrayList<>();
+    private long bytes = 0;
+
+    // Changes made by the step being recorded
+    private int[] scratch = new int[64];
+
+    // Step the design is at - earlier than the last step recorded after
+    // going back
+    private int current;
+
+    History(Sim sim) {
+        this.sim = sim;
+    }
+
+    /**
+     * Turns recording on or off. Turning it off discards the history.
+     */
+    public void setEnabled(boolean on) {
+        sim.lock.writeLock().lock();
+        try {
+            enabled = on;
+            clear();
+        }
+        finally {
+            sim.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Whether steps are being recorded
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the memory the history may use - the oldest steps are dropped to
+     * stay within it, though the latest checkpoint is always kept
+     * @param bytes Budget, in bytes
+     */
+    public void setBudget(long bytes) {
+        sim.lock.writeLock().lock();
+        try {
+            budget = bytes;
+            evict();
+        }
+        finally {
+            sim.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The memory budget, in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the number of steps between checkpoints, from the next checkpoint.
+     * Closer checkpoints make going back quicker but use more memory.
+     */
+    public void setInterval(int steps) {
+        interval = Math.max(1, steps);
+    }
+
+    /**
+     * @return The number of steps between checkpoints
+     */
+    public int getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return Estimated memory used, in bytes
+     */
+    public long getBytes() {
+        sim.lock.readLock().lock();
+        try {
+            return bytes;
+        }
+        finally {
+            sim.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The earliest step that can be returned to, or -1 if there are none
+     */
+    public int getFirst() {
+        sim.lock.readLock().lock();
+        try {
+            return checkpoints.isEmpty() ? -1 : checkpoints.get(0).iteration;
+        }
+        finally {
+            sim.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return The latest step that can be returned to, or -1 if there are none
+     */
+    public int getLast() {
+        sim.lock.readLock().lock();
+        try {
+            return checkpoints.isEmpty() ? -1 : checkpoints.get(0).iteration + changes.size();
+        }
+        finally {
+            sim.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Discards the history, as when the design is edited (MUST be called
+     * while holding the write lock)
+     */
+    void clear() {
+        if (rams != null) {
+            for (NRAM ram : rams) ram.trackWrites(false);
+        }
+        modules = null;
+        rams = null;
+        ports = null;
+        last = null;
+        stateIndex = null;
+        portStart = null;
+        isTouched = null;
+        touchedCount = 0;
+        touchedAll = false;
+        checkpoints.clear();
+        changes.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Notes that a module has been propagated, and its state and ports may
+     * have changed (MUST be called while holding the write lock)
+     * @param m Index of the module in the netlist
+     */
+    void touched(int m) {
+        if (isTouched == null || m < 0 || m >= isTouched.length || isTouched[m]) return;
+        isTouched[m] = true;
+        if (touchedCount == touched.length) touched = Arrays.copyOf(touched, touchedCount * 2);
+        touched[touchedCount++] = m;
+    }
+
+    /**
+     * Notes that ports may have changed without their modules being
+     * propagated, as when a runtime loop cuts a step short - the next step
+     * compares everything (MUST be called while holding the write lock)
+     */
+    void touchedAll() {
+        touchedAll = true;
+    }
+
+    /**
+     * Records the state after a step (MUST be called while holding the write
+     * lock)
+     * @param iteration Step just completed
+     */
+    void record(int iteration) {
+        if (!enabled) return;
+
+        // Start from a checkpoint of the current state
+        if (modules == null || iteration != current + 1) {
+            clear();
+            capture();
+            addCheckpoint(iteration);
+            return;
+        }
+
+        // A step taken after going back replaces the steps that followed
+        truncate();
+
+        // Changes made by the step, gathered in the scratch list
+        int n = 0;
+        if (touchedAll) {
+            for (int i = 0; i < modules.length; i++) {
+                n = compareState(n, i);
+            }
+            for (int p = 0; p < ports.length; p++) {
+                n = comparePort(n, p);
+            }
+        }
+        else {
+            for (int t = 0; t < touchedCount; t++) {
+                int m = touched[t];
+                if (stateIndex[m] >= 0) n = compareState(n, stateIndex[m]);
+                for (int p = portStart[m]; p < portStart[m + 1]; p++) {
+                    n = comparePort(n, p);
+                }
+            }
+        }
+        untouch();
+        boolean rewritten = false;
+        for (int r = 0; r < rams.length; r++) {
+            rewritten |= rams[r].wasRewritten();
+            int[] written = rams[r].takeWrites();
+            if (written == null) continue;
+            for (int address : written) {
+                if (n + 3 > scratch.length) scratch = Arrays.copyOf(scratch, scratch.length * 2);
+                scratch[n++] = ~r;
+                scratch[n++] = address;
+                scratch[n++] = rams[r].readPacked(address);
+            }
+        }
+        int[] list = n == 0 ? NO_CHANGES : Arrays.copyOf(scratch, n);
+
+        changes.add(list);
+        bytes += size(list);
+        current = iteration;
+
+        // A memory replaced whole between steps, as by clearing it or undoing
+        // a load, isn't in the writes - so the step starts a checkpoint, and
+        // steps before it are never replayed over the new contents
+        if (rewritten || iteration - latest().iteration >= interval) {
+            addCheckpoint(iteration);
+        }
+        evict();
+    }
+
+    /**
+     * Returns the design to its state after an earlier step (MUST be called
+     * while holding the write lock)
+     * @param iteration Step to return to
+     * @return Whether the step is in the history
+     */
+    boolean restore(int iteration) {
+        if (modules == null || checkpoints.isEmpty()) return false;
+        int first = checkpoints.get(0).iteration;
+        if (iteration < first || iteration > first + changes.size()) return false;
+
+        // Latest checkpoint at or before the step
+        Checkpoint cp = checkpoints.get(0);
+        for (Checkpoint c : checkpoints) {
+            if (c.iteration > iteration) break;
+            cp = c;
+        }
+
+        // Apply the changes since - memory writes straight to the NRAM
+        // modules, restored to the checkpoint
+        int[] values = cp.values.clone();
+        for (int r = 0; r < rams.length; r++) {
+            rams[r].restore(cp.stores[r]);
+        }
+        for (int i = cp.iteration + 1; i <= iteration; i++) {
+            int[] list = changes.get(i - first - 1);
+            for (int k = 0; k < list.length; ) {
+                int index = list[k++];
+                if (index >= 0) {
+                    values[index] = list[k++];
+                }
+                else {
+                    int address = list[k++];
+                    int packed = list[k++];
+                    rams[~index].writePacked(address, packed & 0xFF, packed >> 8);
+                }
+            }
+        }
+        NRAM.Snapshot[] stores = new NRAM.Snapshot[rams.length];
+        for (int r = 0; r < rams.length; r++) {
+            stores[r] = rams[r].snapshot();
+        }
+
+        // Put it back, and run each module over its restored inputs so the
+        // parts showing its state catch up. That leaves the values as they
+        // were, unless the step was cut short by a runtime loop - so they're
+        // put back again after.
+        put(values, stores);
+        for (BaseModule m : sim.getModules()) {
+            m.propagate();
+        }
+        put(values, stores);
+
+        System.arraycopy(values, 0, last, 0, last.length);
+        untouch();
+        current = iteration;
+        return true;
+    }
+
+    /**
+     * Finds the modules holding state and the ports, and starts tracking
+     * memory writes
+     */
+    private void capture() {
+        Netlist net = sim.getNetlist();
+        List<BaseModule> held = new ArrayList<>();
+        List<NRAM> memories = new ArrayList<>();
+        stateIndex = new int[net.modules.length];
+        for (int i = 0; i < net.modules.length; i++) {
+            BaseModule m = net.modules[i];
+            AvailableModules type = m.getModType();
+            if (type == AvailableModules.CLOCK || type == AvailableModules.REGISTER
+                    || type == AvailableModules.SWITCH || type == AvailableModules.RAM) {
+                stateIndex[i] = held.size();
+                held.add(m);
+            }
+            else {
+                stateIndex[i] = -1;
+            }
+            if (m instanceof NRAM) {
+                memories.add((NRAM) m);
+            }
+        }
+        modules = held.toArray(new BaseModule[held.size()]);
+        rams = memories.toArray(new NRAM[memories.size()]);
+        ports = net.ports;
+        portStart = net.portStart;
+        isTouched = new boolean[net.modules.length];
+        touchedCount = 0;
+        touchedAll = false;
+        last = new int[modules.length + ports.length];
+        for (int i = 0; i < modules.length; i++) {
+            last[i] = modules[i].getState();
+        }
+        for (int p = 0; p < ports.length; p++) {
+            last[modules.length + p] = ports[p].getPacked();
+        }
+        for (NRAM ram : rams) {
+            ram.trackWrites(true);
+        }
+    }
+
+    private void put(int[] values, NRAM.Snapshot[] stores) {
+        for (int i = 0; i < modules.length; i++) {
+            modules[i].setState(values[i]);
+        }
+        for (int p = 0; p < ports.length; p++) {
+            ports[p].setPacked(values[modules.length + p]);
+            ports[p].updated = false;
+        }
+        for (int r = 0; r < rams.length; r++) {
+            rams[r].restore(stores[r]);
+            rams[r].takeWrites();
+        }
+    }
+
+    private void addCheckpoint(int iteration) {
+        NRAM.Snapshot[] stores = new NRAM.Snapshot[rams.length];
+        for (int r = 0; r < rams.length; r++) {
+            stores[r] = rams[r].snapshot();
+            rams[r].takeWrites();
+        }
+        Checkpoint cp = new Checkpoint(iteration, last.clone(), stores,
+                checkpoints.isEmpty() ? null : latest());
+        checkpoints.add(cp);
+        bytes += cp.bytes;
+        current = iteration;
+    }
+
+    /**
+     * Adds a module's state to the scratch list if it has changed
+     * @param i Index among the modules with state
+     * @return The new length of the list
+     */
+    private int compareState(int n, int i) {
+        int v = modules[i].getState();
+        return v != last[i] ? change(n, i, v) : n;
+    }
+
+    /**
+     * Adds a port's value to the scratch list if it has changed
+     * @param p Index of the port in the netlist
+     * @return The new length of the list
+     */
+    private int comparePort(int n, int p) {
+        int i = modules.length + p;
+        int v = ports[p].getPacked();
+        return v != last[i] ? change(n, i, v) : n;
+    }
+
+    /**
+     * Empties the list of modules propagated
+     */
+    private void untouch() {
+        for (int t = 0; t < touchedCount; t++) {
+            isTouched[touched[t]] = false;
+        }
+        touchedCount = 0;
+        touchedAll = false;
+    }
+
+    /**
+     * Adds a change to the scratch list
+     * @return The new length of the list
+     */
+    private int change(int n, int index, int value) {
+        if (n + 2 > scratch.length) scratch = Arrays.copyOf(scratch, scratch.length * 2);
+        scratch[n++] = index;
+        scratch[n++] = value;
+        last[index] = value;
+        return n;
+    }
+
+    private Checkpoint latest() {
+        return checkpoints.get(checkpoints.size() - 1);
+    }
+
+    /**
+     * Drops the steps after the current one
+     */
+    private void truncate() {
+        int first = checkpoints.get(0).iteration;
+        while (first + changes.size() > current) {
+            bytes -= size(changes.remove(changes.size() - 1));
+        }
+        while (latest().iteration > current) {
+            bytes -= checkpoints.remove(checkpoints.size() - 1).bytes;
+        }
+    }
+
+    /**
+     * Drops the oldest checkpoints, and the steps up to the next, until the
+     * history fits the budget
+     */
+    private void evict() {
+        while (bytes > budget && checkpoints.size() > 1) {
+            Checkpoint old = checkpoints.remove(0);
+            bytes -= old.bytes;
+
+            // The new oldest checkpoint now holds the pages it shared alone
+            Checkpoint next = checkpoints.get(0);
+            bytes -= next.bytes;
+            next.bytes = next.size(null);
+            bytes += next.bytes;
+
+            List<int[]> dropped = changes.subList(0, checkpoints.get(0).iteration - old.iteration);
+            for (int[] list : dropped) {
+                bytes -= size(list);
+            }
+            dropped.clear();
+        }
+    }
+
+    private static long size(int[] list) {
+        return REF_BYTES + (list.length == 0 ? 0 : OBJECT_BYTES + 4L * list.length);
+    }
+
+}
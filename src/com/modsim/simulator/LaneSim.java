@@ -0,0 +1,687 @@
+package com.modsim.simulator;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.BaseModule.AvailableModules;
+import com.modsim.modules.Clock;
+import com.modsim.modules.NRAM;
+import com.modsim.modules.Register;
+import com.modsim.modules.SwitchInput;
+import com.modsim.modules.parts.Port;
+import com.modsim.modules.ports.Input;
+import com.modsim.util.BinData;
+
+/**
+ * Bit-parallel simulation of sixteen independent copies ("lanes") of a design.
+ * Every port holds a long of values and a long of masks - the val/mask pair of
+ * BinData sixteen times over, lane i in bits 4i to 4i+3 - and each module is
+ * evaluated for all lanes at once with SWAR bit operations, in the levelized
+ * schedule's order. Only NRAM accesses go lane by lane.
+ *
+ * Lanes start from the design's current state and diverge through setSwitch()
+ * and writeMemory(). The design's modules are never touched, but the design
+ * must not be edited while a LaneSim built from it is in use.
+ *
+ * Module ports are found by their order in the inputs/outputs lists, which is
+ * fixed by each module's constructor.
+ */
+public class LaneSim {
+
+    public static final int LANES = 16;
+
+    private static final AvailableModules[] KINDS = AvailableModules.values();
+
+    // Bit 0 of every lane
+    private static final long LSB = 0x1111111111111111L;
+    // Low nibble of every byte - the even lanes
+    private static final long EVEN = 0x0F0F0F0F0F0F0F0FL;
+    // Bit 0 of every byte
+    private static final long BYTE_LSB = 0x0101010101010101L;
+
+    private final Netlist net;
+    private final int[][] in;
+    private final int[][] out;
+
+    // Port values, and the pull values of inputs
+    private final long[] val;
+    private final long[] mask;
+    private final boolean[] linked;
+    private final long[] pullVal;
+    private final long[] pullMask;
+
+    // Per-module state: register contents, switch settings, clock steps
+    private final long[] stateVal;
+    private final long[] stateMask;
+
+    // NRAM contents: the design's memory, and each lane's copy once written
+    private final byte[][] memBase;
+    private final byte[][][] memLane;
+
+    private final BitSet dirty;
+
+    /**
+     * Builds sixteen lanes of the given design, each a copy of its current state
+     * @param net Compiled design
+     */
+    public LaneSim(Netlist net) {
+        this.net = net;
+        net.levelize();
+
+        int numMods = net.modules.length;
+        int numPorts = net.ports.length;
+
+        val = new long[numPorts];
+        mask = new long[numPorts];
+        linked = new boolean[numPorts];
+        pullVal = new long[numPorts];
+        pullMask = new long[numPorts];
+        for (int p = 0; p < numPorts; p++) {
+            Port port = net.ports[p];
+            if (port instanceof Input) {
+                Input i = (Input) port;
+                linked[p] = i.link != null;
+                pullVal[p] = broadcast(i.pull.val);
+                pullMask[p] = broadcast(i.pull.mask);
+            }
+
+            // Inputs start resolved, which resolves the same way again
+            int v = port.getPacked();
+            val[p] = broadcast(v);
+            mask[p] = broadcast(v >> 4);
+        }
+
+        in = new int[numMods][];
+        out = new int[numMods][];
+        stateVal = new long[numMods];
+        stateMask = new long[numMods];
+        memBase = new byte[numMods][];
+        memLane = new byte[numMods][][];
+
+        for (int m = 0; m < numMods; m++) {
+            BaseModule mod = net.modules[m];
+            in[m] = new int[mod.inputs.size()];
+            out[m] = new int[mod.outputs.size()];
+            for (int p = net.portStart[m]; p < net.portStart[m + 1]; p++) {
+                int i = mod.inputs.indexOf(net.ports[p]);
+                if (i >= 0) in[m][i] = p;
+                int o = mod.outputs.indexOf(net.ports[p]);
+                if (o >= 0) out[m][o] = p;
+            }
+
+            int packed = 0;
+            switch (mod.getModType()) {
+                case REGISTER:
+                    packed = ((Register) mod).getStoredVal().getPacked();
+                    break;
+                case SWITCH:
+                    packed = mod.outputs.get(0).getPacked();
+                    break;
+                case CLOCK:
+                    packed = ((Clock) mod).getStep();
+                    break;
+                case RAM:
+                    memBase[m] = snapshot((NRAM) mod);
+                    memLane[m] = new byte[LANES][];
+                    break;
+            }
+            stateVal[m] = broadcast(packed);
+            stateMask[m] = broadcast(packed >> 4);
+        }
+
+        dirty = new BitSet(numMods);
+    }
+
+    /**
+     * Copies an NRAM's contents, one packed nibble per location
+     */
+    private static byte[] snapshot(NRAM ram) {
+        return ram.saveStore();
+    }
+
+    // ---- Lane arithmetic ----
+
+    /**
+     * A nibble repeated in every lane
+     */
+    private static long broadcast(int nibble) {
+        return (nibble & 0xFL) * LSB;
+    }
+
+    /**
+     * Per-lane flags (bit 0 of each lane) of bit b
+     */
+    private static long bit(long v, int b) {
+        return (v >>> b) & LSB;
+    }
+
+    /**
+     * Spreads per-lane flags across whole lanes
+     */
+    private static long spread(long flags) {
+        return (flags & LSB) * 0xF;
+    }
+
+    /**
+     * Per-lane flags set where the lane is non-zero
+     */
+    private static long nonZero(long v) {
+        return (v | v >>> 1 | v >>> 2 | v >>> 3) & LSB;
+    }
+
+    /**
+     * Four bit planes (per-lane flags) combined into lane values
+     */
+    private static long planes(long b0, long b1, long b2, long b3) {
+        return (b0 & LSB) | (b1 & LSB) << 1 | (b2 & LSB) << 2 | (b3 & LSB) << 3;
+    }
+
+    /**
+     * Spread lane selector for value k of a 2-bit select
+     */
+    private static long select(long s0, long s1, int k) {
+        return ((k & 2) != 0 ? s1 : ~s1) & ((k & 1) != 0 ? s0 : ~s0);
+    }
+
+    /**
+     * Extracts one lane's nibble
+     */
+    private static int lane(long v, int lane) {
+        return (int) (v >>> (lane * 4)) & 0xF;
+    }
+
+    // ---- Public interface ----
+
+    /**
+     * Sets a switch input in one lane
+     * @param lane Lane index
+     * @param sw Switch module
+     * @param value New 4-bit setting
+     */
+    public void setSwitch(int lane, SwitchInput sw, int value) {
+        int m = indexOf(sw);
+        long laneMask = 0xFL << (lane * 4);
+        stateVal[m] = (stateVal[m] & ~laneMask) | ((long) (value & 0xF) << (lane * 4));
+        stateMask[m] |= laneMask;
+        dirty.set(net.position[m]);
+    }
+
+    /**
+     * Writes a byte into one lane's copy of an NRAM
+     * @param lane Lane index
+     * @param ram NRAM module
+     * @param address Address, 0 to NRAM.MAX_ADDR
+     * @param data Byte to store
+     */
+    public void writeMemory(int lane, NRAM ram, int address, int data) {
+        byte[] mem = laneMemory(indexOf(ram), lane);
+        mem[address << 1] = (byte) BinData.packUInt(data);
+        mem[address << 1 | 1] = (byte) BinData.packUInt(data >> 4);
+    }
+
+    /**
+     * Reads a byte from one lane's copy of an NRAM
+     * @param lane Lane index
+     * @param ram NRAM module
+     * @param address Address, 0 to NRAM.MAX_ADDR
+     * @return The byte, with unconnected bits as 0
+     */
+    public int readMemory(int lane, NRAM ram, int address) {
+        int m = indexOf(ram);
+        byte[] mem = memLane[m][lane] != null ? memLane[m][lane] : memBase[m];
+        int lo = mem[address << 1], hi = mem[address << 1 | 1];
+        return (lo & (lo >> 4) & 0xF) | (hi & (hi >> 4) & 0xF) << 4;
+    }
+
+    /**
+     * @param lane Lane index
+     * @param reg Register module
+     * @return The register's stored value in the given lane
+     */
+    public BinData getRegister(int lane, Register reg) {
+        int m = indexOf(reg);
+        return new BinData((byte) lane(stateVal[m], lane), (byte) lane(stateMask[m], lane));
+    }
+
+    /**
+     * @param lane Lane index
+     * @param port Any port of the design
+     * @return The port's value in the given lane, as Port.getVal() would give
+     */
+    public BinData getValue(int lane, Port port) {
+        for (int p = 0; p < net.ports.length; p++) {
+            if (net.ports[p] != port) continue;
+
+            if (port instanceof Input) {
+                return new BinData((byte) lane(inVal(p), lane), (byte) lane(inMask(p), lane));
+            }
+            return new BinData((byte) lane(val[p], lane), (byte) lane(mask[p], lane));
+        }
+        return new BinData();
+    }
+
+    /**
+     * Ticks the clocks and settles every lane, as Sim.step() does
+     * @throws IllegalStateException If the design loops at runtime
+     */
+    public void step() {
+        for (int c : net.clocks) {
+            stateVal[c] = (stateVal[c] + LSB) & (3 * LSB);
+            settle(c);
+        }
+    }
+
+    /**
+     * Settles changes made through setSwitch() without ticking the clocks
+     */
+    public void settle() {
+        settle(-1);
+    }
+
+    private int indexOf(BaseModule m) {
+        for (int i = 0; i < net.modules.length; i++) {
+            if (net.modules[i] == m) return i;
+        }
+        throw new IllegalArgumentException("Module is not part of this design");
+    }
+
+    private byte[] laneMemory(int m, int lane) {
+        if (memLane[m][lane] == null) {
+            memLane[m][lane] = Arrays.copyOf(memBase[m], memBase[m].length);
+        }
+        return memLane[m][lane];
+    }
+
+    // ---- Evaluation ----
+
+    /**
+     * Evaluates dirty modules in schedule order until none remain - as
+     * Netlist's levelized engine does, but for all lanes at once
+     * @param root Index of the module disturbed, or -1
+     */
+    private void settle(int root) {
+        if (root >= 0) dirty.set(net.position[root]);
+
+        int sweeps = 0;
+        int last = -1;
+        int pos = dirty.nextSetBit(0);
+        while (pos >= 0) {
+            if (pos <= last && ++sweeps > net.released) {
+                dirty.clear();
+                throw new IllegalStateException("Runtime loop detected at " + net.modules[net.order[pos]].getModType());
+            }
+
+            dirty.clear(pos);
+            last = pos;
+            evaluate(net.order[pos]);
+
+            pos = dirty.nextSetBit(pos + 1);
+            if (pos < 0) pos = dirty.nextSetBit(0);
+        }
+    }
+
+    /**
+     * Resolved value of an input, as Input.getVal() - pull fills unconnected bits
+     */
+    private long inVal(int p) {
+        if (!linked[p]) return pullVal[p];
+        long m = mask[p];
+        return (val[p] & m) | (~m & pullVal[p]);
+    }
+
+    private long inMask(int p) {
+        return linked[p] ? -1L : pullMask[p];
+    }
+
+    /**
+     * Sets an output, as Port.setVal(), passing changes over its link
+     */
+    private void set(int p, long v, long m) {
+        if ((v & m) == (val[p] & mask[p]) && m == mask[p]) return;
+
+        val[p] = v;
+        mask[p] = m;
+
+        int targ = net.portTarget[p];
+        if (targ >= 0) {
+            val[targ] = v;
+            mask[targ] = m;
+            dirty.set(net.position[net.portOwner[targ]]);
+        }
+    }
+
+    private void evaluate(int m) {
+        int[] i = in[m];
+        int[] o = out[m];
+
+        switch (KINDS[net.kind[m]]) {
+            case CLOCK: {
+                // Bit 0 clock, bit 2 enable
+                long step = stateVal[m];
+                long one = bit(step, 0) & ~bit(step, 1) & LSB;
+                long three = bit(step, 0) & bit(step, 1);
+                set(o[0], 4 * LSB | one, 7 * LSB);
+                set(o[1], 4 * LSB | three, 7 * LSB);
+                break;
+            }
+            case SWITCH:
+                set(o[0], stateVal[m], stateMask[m]);
+                break;
+            case FANOUT: {
+                long v = inVal(i[0]), vm = inMask(i[0]);
+                for (int p : o) {
+                    set(p, v, vm);
+                }
+                break;
+            }
+            case REGISTER:
+                evalRegister(m, i, o);
+                break;
+            case LOGIC:
+                evalLogic(i, o);
+                break;
+            case ADDSUB:
+                evalAddSub(i, o);
+                break;
+            case MUX:
+                evalMux(i, o);
+                break;
+            case DEMUX:
+                evalDemux(i, o);
+                break;
+            case OR:
+                evalOr(i, o);
+                break;
+            case LEFT_SHIFT:
+                evalShift(i, o, true);
+                break;
+            case RIGHT_SHIFT:
+                evalShift(i, o, false);
+                break;
+            case RAM:
+                evalNRAM(m, i, o);
+                break;
+            case SPLIT_MERGE:
+                evalSplitMerge(m);
+                break;
+            case LEDMatrix:
+                // Display only
+                break;
+        }
+    }
+
+    private void evalRegister(int m, int[] i, int[] o) {
+        // Inputs: data, control. Outputs: data, control
+        long dv = inVal(i[0]), dm = inMask(i[0]);
+        long cv = inVal(i[1]), cm = inMask(i[1]);
+        long c = cv & cm;
+
+        long rst = spread(bit(c, 1));
+        long latch = spread(bit(c, 0) & bit(c, 2)) & ~rst;
+        long keep = ~(rst | latch);
+
+        stateVal[m] = (stateVal[m] & keep) | (dv & latch);
+        stateMask[m] = (stateMask[m] & keep) | (dm & latch) | rst;
+
+        set(o[0], stateVal[m], stateMask[m]);
+        set(o[1], cv, cm);
+    }
+
+    private void evalLogic(int[] i, int[] o) {
+        // Inputs: A, B, control. Outputs: result, control
+        long a = inVal(i[0]), b = inVal(i[1]), c = inVal(i[2]);
+        long f0 = spread(bit(c, 0)), f1 = spread(bit(c, 1));
+
+        long r = (f1 & ((f0 & (a ^ b)) | (~f0 & (a | b))))
+               | (~f1 & ((f0 & (a & b)) | (~f0 & ~a)));
+
+        set(o[0], r, -1L);
+        set(o[1], c, inMask(i[2]));
+    }
+
+    private void evalAddSub(int[] i, int[] o) {
+        // Inputs: A, B, control. Outputs: result, bool test, control
+        long a = inVal(i[0]), b = inVal(i[1]);
+        long cv = inVal(i[2]), cm = inMask(i[2]);
+        long c = cv & cm;
+
+        long carryIn = bit(c, 2);
+        b ^= spread(bit(c, 1));
+        long pass = bit(c, 0) & ~bit(c, 1) & LSB;
+
+        // Sum even and odd lanes in byte-wide fields so carries have room
+        long even = (a & EVEN) + (b & EVEN) + (carryIn & BYTE_LSB);
+        long odd = ((a >>> 4) & EVEN) + ((b >>> 4) & EVEN) + ((carryIn >>> 4) & BYTE_LSB);
+        long sum = (even & EVEN) | (odd & EVEN) << 4;
+        long carryOut = ((even >>> 4) & BYTE_LSB) | ((odd >>> 4) & BYTE_LSB) << 4;
+
+        long passLanes = spread(pass);
+        long r = (a & passLanes) | (sum & ~passLanes);
+        carryOut &= ~pass;
+
+        long not0 = (bit(c, 3) | nonZero(r)) & LSB;
+        long cOutVal = (cv & ~(0xC * LSB)) | carryOut << 2 | not0 << 3;
+        long cOutMask = cm | 0xC * LSB;
+
+        long negTest = bit(c, 0) & bit(c, 1);
+        long bool = (negTest & bit(r, 3)) | (~negTest & ~nonZero(r) & ~bit(c, 3));
+
+        set(o[0], r, -1L);
+        set(o[1], spread(bool), -1L);
+        set(o[2], cOutVal, cOutMask);
+    }
+
+    private void evalMux(int[] i, int[] o) {
+        // Inputs: A-D, control. Outputs: selected, control
+        long c = inVal(i[4]);
+        long s0 = spread(bit(c, 0)), s1 = spread(bit(c, 1));
+
+        long v = 0, vm = 0;
+        for (int k = 0; k < 4; k++) {
+            long sel = select(s0, s1, k);
+            v |= inVal(i[k]) & sel;
+            vm |= inMask(i[k]) & sel;
+        }
+
+        set(o[0], v, vm);
+        set(o[1], c, inMask(i[4]));
+    }
+
+    private void evalDemux(int[] i, int[] o) {
+        // Inputs: data, control. Outputs: A-D, control
+        long dv = inVal(i[0]), dm = inMask(i[0]);
+        long c = inVal(i[1]);
+        long s0 = spread(bit(c, 0)), s1 = spread(bit(c, 1));
+
+        // Unselected outputs are 0000
+        for (int k = 0; k < 4; k++) {
+            long sel = select(s0, s1, k);
+            set(o[k], dv & sel, (dm & sel) | ~sel);
+        }
+        set(o[4], c, inMask(i[1]));
+    }
+
+    private void evalOr(int[] i, int[] o) {
+        // Inputs: chain, A-D. Outputs: result, pass A-D
+        long res = bit(inVal(i[0]) & inMask(i[0]), 0);
+        for (int k = 0; k < 4; k++) {
+            long v = inVal(i[k + 1]), vm = inMask(i[k + 1]);
+            set(o[k + 1], v, vm);
+            res |= bit(v & vm, 0);
+        }
+
+        // Bit 0 only
+        set(o[0], res, LSB);
+    }
+
+    private void evalShift(int[] i, int[] o, boolean left) {
+        // Inputs: control, data, chain. Outputs: result, chain, control
+        long cv = inVal(i[0]), cm = inMask(i[0]);
+        long dv = inVal(i[1]), dm = inMask(i[1]);
+        long h = inVal(i[2]);
+
+        // Bit 0 defined low selects the even distances (0 or 2), bit 1 high the longer
+        long even = bit(~cv & cm, 0);
+        long far = bit(cv & cm, 1);
+
+        long d0 = bit(dv, 0), d1 = bit(dv, 1), d2 = bit(dv, 2), d3 = bit(dv, 3);
+        long h0 = bit(h, 0), h1 = bit(h, 1), h2 = bit(h, 2);
+
+        long chain, shift1, shift2, shift3;
+        if (left) {
+            chain = (spread(even) & planes(d3, d3, d2, 0)) | (~spread(even) & planes(d3, d2, d1, 0));
+            shift1 = planes(h0, d0, d1, d2);
+            shift2 = planes(h2, h1, d0, d1);
+            shift3 = planes(h2, h1, h0, d0);
+        }
+        else {
+            chain = (spread(even) & planes(d0, d0, d1, 0)) | (~spread(even) & planes(d0, d1, d2, 0));
+            shift1 = planes(d1, d2, d3, h0);
+            shift2 = planes(d2, d3, h1, h2);
+            shift3 = planes(d3, h0, h1, h2);
+        }
+
+        long e = spread(even), f = spread(far);
+        long none = e & ~f;
+        long r = (none & dv) | (e & f & shift2) | (~e & f & shift3) | (~e & ~f & shift1);
+        long rm = (none & dm) | ~none;
+
+        set(o[0], r, rm);
+        set(o[1], chain, -1L);
+        set(o[2], cv, cm);
+    }
+
+    private void evalNRAM(int m, int[] i, int[] o) {
+        // Inputs: data B, data A, control, address A-D. Outputs: data B, data A, control
+        long cv = inVal(i[2]), cm = inMask(i[2]);
+        long c = cv & cm;
+        long write = bit(c, 2);
+        long clock = bit(c, 0);
+        boolean jumper = ((NRAM) net.modules[m]).isWriteEnabled();
+
+        long adrA = inVal(i[3]), adrB = inVal(i[4]), adrC = inVal(i[5]), adrD = inVal(i[6]);
+        long inA = inVal(i[1]), inAm = inMask(i[1]);
+        long inB = inVal(i[0]), inBm = inMask(i[0]);
+
+        long outA = 0, outAm = 0, outB = 0, outBm = 0;
+        for (int l = 0; l < LANES; l++) {
+            int adr = lane(adrA, l) | lane(adrB, l) << 4 | lane(adrC, l) << 8 | lane(adrD, l) << 12;
+            int shift = l * 4;
+
+            if (((write >>> shift) & 1) != 0) {
+                // Write high, outputs disabled
+                if (((clock >>> shift) & 1) != 0 && jumper) {
+                    byte[] mem = laneMemory(m, l);
+                    mem[adr << 1] = (byte) (lane(inA, l) | lane(inAm, l) << 4);
+                    mem[adr << 1 | 1] = (byte) (lane(inB, l) | lane(inBm, l) << 4);
+                }
+            }
+            else {
+                byte[] mem = memLane[m][l] != null ? memLane[m][l] : memBase[m];
+                int lo = mem[adr << 1], hi = mem[adr << 1 | 1];
+                outA |= (long) (lo & 0xF) << shift;
+                outAm |= (long) ((lo >> 4) & 0xF) << shift;
+                outB |= (long) (hi & 0xF) << shift;
+                outBm |= (long) ((hi >> 4) & 0xF) << shift;
+            }
+        }
+
+        set(o[0], outB, outBm);
+        set(o[1], outA, outAm);
+        set(o[2], cv, cm);
+    }
+
+    /**
+     * Value half of BinData.setBit on bit b - lanes where the source bit is
+     * unconnected keep their value bit
+     */
+    private static long setBitVal(long v, int b, long srcV, long srcM) {
+        long defined = (srcM & LSB) << b;
+        return (v & ~defined) | ((srcV & LSB) << b & defined);
+    }
+
+    /**
+     * Mask half of BinData.setBit on bit b
+     */
+    private static long setBitMask(long m, int b, long srcM) {
+        return (m & ~(LSB << b)) | (srcM & LSB) << b;
+    }
+
+    private void evalSplitMerge(int m) {
+        BaseModule mod = net.modules[m];
+
+        // Ports: A0, A1, then B0-B3
+        int a0 = net.portStart[m], a1 = a0 + 1;
+        int b0 = a0 + 2, b1 = a0 + 3, b2 = a0 + 4, b3 = a0 + 5;
+
+        if (mod.ports.get(0).getMode() == Port.Mode.MODE_INPUT || mod.ports.get(1).getMode() == Port.Mode.MODE_INPUT) {
+            // Split: A side drives B side
+            long av = val[a0], am = mask[a0];
+            long cv = val[a1], cm = mask[a1];
+
+            long v = setBitVal(setBitVal(val[b0], 0, bit(av, 0), bit(am, 0)), 1, bit(av, 1), bit(am, 1));
+            long vm = setBitMask(setBitMask(mask[b0], 0, bit(am, 0)), 1, bit(am, 1));
+            setBidir(b0, v, vm);
+
+            setBidir(b1, setBitVal(val[b1], 0, bit(av, 1), bit(am, 1)), setBitMask(mask[b1], 0, bit(am, 1)));
+
+            // Merged bits resolve to A1 where it's connected
+            long hiV = resolve(bit(av, 3), bit(am, 3), bit(cv, 1), bit(cm, 1));
+            long hiM = bit(am, 3) | bit(cm, 1);
+            long loV = resolve(bit(av, 2), bit(am, 2), bit(cv, 0), bit(cm, 0));
+            long loM = bit(am, 2) | bit(cm, 0);
+
+            setBidir(b3, setBitVal(val[b3], 0, hiV, hiM), setBitMask(mask[b3], 0, hiM));
+
+            v = setBitVal(setBitVal(val[b2], 0, loV, loM), 1, hiV, hiM);
+            vm = setBitMask(setBitMask(mask[b2], 0, loM), 1, hiM);
+            setBidir(b2, v, vm);
+        }
+        else {
+            // Merge: B side drives A side
+            long v0 = val[b0], m0 = mask[b0], v1 = val[b1], m1 = mask[b1];
+            long v2 = val[b2], m2 = mask[b2], v3 = val[b3], m3 = mask[b3];
+
+            long hiV = merge(bit(v2, 1), bit(m2, 1), bit(v3, 0), bit(m3, 0));
+            long hiM = bit(m2, 1) | bit(m3, 0);
+            long midV = merge(bit(v0, 1), bit(m0, 1), bit(v1, 0), bit(m1, 0));
+            long midM = bit(m0, 1) | bit(m1, 0);
+
+            long v = val[a0], vm = mask[a0];
+            v = setBitVal(v, 0, bit(v0, 0), bit(m0, 0));
+            vm = setBitMask(vm, 0, bit(m0, 0));
+            v = setBitVal(v, 2, bit(v2, 0), bit(m2, 0));
+            vm = setBitMask(vm, 2, bit(m2, 0));
+            v = setBitVal(v, 3, hiV, hiM);
+            vm = setBitMask(vm, 3, hiM);
+            v = setBitVal(v, 1, midV, midM);
+            vm = setBitMask(vm, 1, midM);
+            setBidir(a0, v, vm);
+
+            v = setBitVal(setBitVal(val[a1], 0, bit(v2, 0), bit(m2, 0)), 1, hiV, hiM);
+            vm = setBitMask(setBitMask(mask[a1], 0, bit(m2, 0)), 1, hiM);
+            setBidir(a1, v, vm);
+        }
+    }
+
+    /**
+     * BinData.resolveBit on flags: the override wins where it's connected
+     */
+    private static long resolve(long v, long m, long overV, long overM) {
+        return (overV & overM) | (v & m & ~overM);
+    }
+
+    /**
+     * BinData.mergeBits on flags: connected bits OR together
+     */
+    private static long merge(long v0, long m0, long v1, long m1) {
+        return (v0 & m0) | (v1 & m1);
+    }
+
+    private void setBidir(int p, long v, long m) {
+        // Undirected ports neither hold nor pass values
+        if (net.ports[p].getMode() == Port.Mode.MODE_BIDIR) return;
+        set(p, v, m);
+    }
+}
@@ -0,0 +1,674 @@
+package com.modsim.simulator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import com.modsim.modules.AddSub;
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.BaseModule.AvailableModules;
+import com.modsim.modules.Clock;
+import com.modsim.modules.Link;
+import com.modsim.modules.Logic;
+import com.modsim.modules.Shift;
+import com.modsim.modules.parts.LEDRow;
+import com.modsim.modules.parts.Port;
+import com.modsim.modules.parts.VisiblePart;
+import com.modsim.modules.ports.Input;
+import com.modsim.util.BinData;
+
+/**
+ * Flattened, int-indexed form of the design used by the compiled engine.
+ * Ports are numbered module by module, so the ports of module i are
+ * [portStart[i], portStart[i+1]). Built from the simulator's module and link
+ * lists and thrown away whenever the design is edited.
+ *
+ * The compiled engine evaluates the purely combinational modules - logic and
+ * arithmetic units, shifts, multiplexors, demultiplexors, ORs and fanouts -
+ * straight from the packed port values, without touching their Port objects
+ * or display parts. The ports it changed are written back at the end of the
+ * step, and the parts brought up to date when the display is next taken. The
+ * port values carry over from step to step, and are only read from the ports
+ * again once something else has set them.
+ */
+public class Netlist {
+
+    private static final AvailableModules[] KINDS = AvailableModules.values();
+
+    // Modules
+    final BaseModule[] modules;
+    final int[] kind;
+    final int[] portStart;
+    final int[] clocks;
+
+    // Modules holding state between steps
+    private final BaseModule[] stateful;
+
+    // Ports
+    final Port[] ports;
+    final int[] portOwner;
+    final boolean[] portOutput;
+    final int[] portTarget;
+    final int[] portSource;
+    final int[] portLink;
+
+    // Value on every port as the compiled engine last left it, inputs
+    // resolved against their pulls
+    final int[] values;
+
+    final int linkCount;
+
+    // Parts shown through display snapshots, built on first use
+    private VisiblePart[] displayParts = null;
+
+    // Levelized schedule, built on first use: modules in evaluation order, each
+    // module's position in it, and the number of modules placed early to break
+    // a cycle
+    int[] order = null;
+    int[] position;
+    int released;
+    private BitSet dirty;
+
+    // Parallel form of the schedule, built on first use
+    private ParallelSchedule parallel = null;
+
+    // Profiler for the current step, if profiling is on
+    private Profiler profiling = null;
+
+    // Whether the current step evaluates modules from the port values where
+    // it can, and whether values[] still matches the ports from the last such
+    // step
+    private boolean direct = false;
+    private boolean synced = false;
+
+    // Compiled evaluation, built on first use: whether each module is
+    // evaluated from the port values; its input and output ports in the order
+    // of its lists; and the pull value of each input port
+    private boolean[] flat = null;
+    private int[][] in;
+    private int[][] out;
+    private int[] pull;
+
+    // Ports set from the port values and not yet written back
+    private int[] changed = new int[64];
+    private int changedCount = 0;
+    private boolean[] isChanged;
+
+    // Modules evaluated from the port values since their parts were last
+    // brought up to date, and the display state they've shown meanwhile -
+    // each display part's state in turn from bit 0, four bits for a row of
+    // LEDs and one for an LED
+    private final BitSet staleParts = new BitSet();
+    private int[] shown;
+
+    /**
+     * Compiles the given design
+     * @param modList Modules in the design
+     * @param linkList Links in the design
+     */
+    public Netlist(List<BaseModule> modList, List<Link> linkList) {
+        int numMods = modList.size();
+        modules = modList.toArray(new BaseModule[numMods]);
+        kind = new int[numMods];
+        portStart = new int[numMods + 1];
+
+        Map<Port, Integer> portIndex = new IdentityHashMap<>();
+        int numPorts = 0;
+        int numClocks = 0;
+        for (int i = 0; i < numMods; i++) {
+            BaseModule m = modules[i];
+            ((PickableEntity) m).netIndex = i;
+            kind[i] = m.getModType().ordinal();
+            if (m.getModType() == AvailableModules.CLOCK) numClocks++;
+
+            portStart[i] = numPorts;
+            for (Port p : m.ports) {
+                portIndex.put(p, numPorts++);
+            }
+        }
+        portStart[numMods] = numPorts;
+
+        clocks = new int[numClocks];
+        for (int i = 0, c = 0; i < numMods; i++) {
+            if (kind[i] == AvailableModules.CLOCK.ordinal()) clocks[c++] = i;
+        }
+
+        List<BaseModule> held = new ArrayList<>();
+        for (int i = 0; i < numMods; i++) {
+            if (kind[i] == AvailableModules.CLOCK.ordinal() || kind[i] == AvailableModules.REGISTER.ordinal()
+                    || kind[i] == AvailableModules.RAM.ordinal()) {
+                held.add(modules[i]);
+            }
+        }
+        stateful = held.toArray(new BaseModule[held.size()]);
+
+        ports = new Port[numPorts];
+        portOwner = new int[numPorts];
+        portOutput = new boolean[numPorts];
+        portTarget = new int[numPorts];
+        portSource = new int[numPorts];
+        portLink = new int[numPorts];
+        values = new int[numPorts];
+        Arrays.fill(portTarget, -1);
+        Arrays.fill(portSource, -1);
+        Arrays.fill(portLink, -1);
+
+        for (int i = 0; i < numMods; i++) {
+            int p = portStart[i];
+            for (Port port : modules[i].ports) {
+                ports[p] = port;
+                portOwner[p] = i;
+                portOutput[p] = port.canOutput();
+                p++;
+            }
+        }
+
+        // Fan-out table: each output drives at most one link
+        int l = 0;
+        for (Link link : linkList) {
+            Integer src = portIndex.get(link.src);
+            Integer targ = portIndex.get(link.targ);
+            if (src == null || targ == null) continue;
+
+            portTarget[src] = targ;
+            portSource[targ] = src;
+            portLink[src] = l++;
+        }
+        linkCount = l;
+    }
+
+    /**
+     * @return Number of modules in the compiled design
+     */
+    public int getModuleCount() {
+        return modules.length;
+    }
+
+    /**
+     * @return Number of ports in the compiled design
+     */
+    public int getPortCount() {
+        return ports.length;
+    }
+
+    /**
+     * Parts of the design whose display is driven by the simulation, brought
+     * up to date (MUST be called while holding the write lock)
+     */
+    VisiblePart[] getDisplayParts() {
+        refreshParts();
+        if (displayParts == null) {
+            List<VisiblePart> parts = new ArrayList<>();
+            for (BaseModule m : modules) {
+                for (VisiblePart p : m.parts) {
+                    if (p.hasDisplayState()) parts.add(p);
+                }
+            }
+            displayParts = parts.toArray(new VisiblePart[parts.size()]);
+        }
+        return displayParts;
+    }
+
+    /**
+     * Hash of the state held by the design's clocks, registers and memories.
+     * Everything else is a function of these, so a repeated hash means the
+     * design is repeating itself.
+     */
+    long stateHash() {
+        long h = 0;
+        for (BaseModule m : stateful) {
+            h = (h ^ m.getStateHash()) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 29;
+        }
+        return h;
+    }
+
+    /**
+     * Value on a port as the compiled engine last left it, packed as
+     * (mask << 4) | val
+     * @param port Port index
+     */
+    public int getValue(int port) {
+        return values[port];
+    }
+
+    /**
+     * Ticks the clocks and settles the design as stepLevelized does, but
+     * evaluates the purely combinational modules from the port values
+     * @param sim Simulator to report runtime loops to
+     */
+    void step(Sim sim) {
+        levelize();
+        compile();
+        profiling = sim.profiling;
+
+        // While profiling, modules are timed through their propagate()
+        direct = profiling == null;
+        if (direct && !synced) {
+            for (int p = 0; p < ports.length; p++) {
+                values[p] = ports[p].getPacked();
+            }
+        }
+
+        try {
+            for (int c : clocks) {
+                ((Clock) modules[c]).tick();
+                settle(sim, c);
+            }
+        }
+        finally {
+            writeBack();
+            synced = direct;
+            direct = false;
+        }
+    }
+
+    /**
+     * Notes that the ports may have been set outside the compiled engine, so
+     * its next step reads them afresh
+     */
+    void portsChanged() {
+        synced = false;
+    }
+
+    /**
+     * Ticks the clocks and evaluates the modules each one disturbs in schedule
+     * order, so that every module runs at most once per sweep
+     * @param sim Simulator to report runtime loops to
+     */
+    void stepLevelized(Sim sim) {
+        levelize();
+        profiling = sim.profiling;
+
+        for (int c : clocks) {
+            ((Clock) modules[c]).tick();
+            settle(sim, c);
+        }
+    }
+
+    /**
+     * Steps as stepLevelized does, evaluating wide levels of the schedule in
+     * parallel
+     * @param sim Simulator to report runtime loops to
+     */
+    void stepParallel(Sim sim) {
+        if (parallel == null) {
+            parallel = new ParallelSchedule(this, ForkJoinPool.commonPool());
+        }
+        parallel.step(sim);
+    }
+
+    /**
+     * Orders the modules so that each comes after everything driving it.
+     * Cycles can only pass through registers or NRAM (see Link.checkLoops), so
+     * when none of the remaining modules is ready one of those is placed early.
+     */
+    void levelize() {
+        if (order != null) return;
+
+        int n = modules.length;
+        order = new int[n];
+        position = new int[n];
+        released = 0;
+        dirty = new BitSet(n);
+
+        // Count each module's links from modules not yet placed
+        int[] pending = new int[n];
+        for (int p = 0; p < ports.length; p++) {
+            if (portTarget[p] >= 0) pending[portOwner[portTarget[p]]]++;
+        }
+
+        boolean[] placed = new boolean[n];
+        int[] ready = new int[n];
+        int head = 0, tail = 0;
+        for (int i = 0; i < n; i++) {
+            if (pending[i] == 0) ready[tail++] = i;
+        }
+
+        int count = 0;
+        while (count < n) {
+            if (head == tail) {
+                int m = breakCycle(placed, pending);
+                pending[m] = 0;
+                ready[tail++] = m;
+                released++;
+            }
+
+            int m = ready[head++];
+            placed[m] = true;
+            position[m] = count;
+            order[count++] = m;
+
+            for (int p = portStart[m]; p < portStart[m + 1]; p++) {
+                int targ = portTarget[p];
+                if (targ < 0) continue;
+
+                int o = portOwner[targ];
+                if (!placed[o] && --pending[o] == 0) ready[tail++] = o;
+            }
+        }
+    }
+
+    /**
+     * Picks a module to place early when only cycles remain: a register or NRAM
+     * if possible, then one whose waiting inputs don't affect its outputs
+     * @param placed Modules already in the schedule
+     * @param pending Links into each module from modules not yet placed
+     */
+    private int breakCycle(boolean[] placed, int[] pending) {
+        int fallback = -1;
+        int breaker = -1;
+
+        for (int m = 0; m < modules.length; m++) {
+            if (placed[m] || pending[m] <= 0) continue;
+
+            if (kind[m] == AvailableModules.REGISTER.ordinal() || kind[m] == AvailableModules.RAM.ordinal()) {
+                return m;
+            }
+            if (breaker < 0 && waitsOnStateOnly(m, placed)) breaker = m;
+            if (fallback < 0) fallback = m;
+        }
+
+        return breaker >= 0 ? breaker : fallback;
+    }
+
+    /**
+     * Whether none of a module's inputs still waiting on an unplaced module
+     * affect its outputs
+     */
+    private boolean waitsOnStateOnly(int m, boolean[] placed) {
+        for (int p = portStart[m]; p < portStart[m + 1]; p++) {
+            int src = portSource[p];
+            if (src < 0 || placed[portOwner[src]]) continue;
+
+            if (!modules[m].getAffected(ports[p]).isEmpty()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates dirty modules in schedule order until none remain. Feedback to
+     * a module already evaluated (only possible through a register or NRAM)
+     * starts another sweep; needing more sweeps than there are such modules
+     * means the design is looping.
+     * @param sim Simulator to report runtime loops to
+     * @param root Index of the module disturbed
+     */
+    private void settle(Sim sim, int root) {
+        dirty.set(position[root]);
+
+        int sweeps = 0;
+        int last = -1;
+        int pos = dirty.nextSetBit(0);
+        while (pos >= 0) {
+            if (pos <= last && ++sweeps > released) {
+                sim.runtimeLoop(modules[order[pos]]);
+                dirty.clear();
+                return;
+            }
+
+            dirty.clear(pos);
+            last = pos;
+            sim.history.touched(order[pos]);
+            evaluate(order[pos]);
+
+            pos = dirty.nextSetBit(pos + 1);
+            if (pos < 0) pos = dirty.nextSetBit(0);
+        }
+    }
+
+    /**
+     * Propagates through one module, passing updated outputs over their links
+     * and marking the modules they reach dirty
+     * @param m Module index
+     */
+    private void evaluate(int m) {
+        if (direct && flat[m]) {
+            // Passes its outputs on as it drives them
+            shown[m] |= evaluateFlat(m);
+            staleParts.set(m);
+            return;
+        }
+
+        if (profiling == null) {
+            modules[m].propagate();
+        }
+        else {
+            profiling.propagate(modules[m], 0);
+        }
+
+        for (int p = portStart[m]; p < portStart[m + 1]; p++) {
+            boolean up = ports[p].updated;
+            ports[p].updated = false;
+            if (!up || !portOutput[p]) continue;
+
+            if (direct) {
+                values[p] = ports[p].getPacked();
+            }
+            pass(p);
+        }
+    }
+
+    /**
+     * Passes an updated output over its link, marking the module it reaches
+     * dirty
+     * @param p Port index
+     */
+    private void pass(int p) {
+        int targ = portTarget[p];
+        if (targ < 0) return;
+
+        int o = portOwner[targ];
+        if (!direct) {
+            ports[targ].setPacked(ports[p].getPacked());
+        }
+        else if (flat[o]) {
+            // Its module reads it from the port values
+            values[targ] = BinData.packedResolvePull(values[p], pull[targ]);
+            change(targ);
+        }
+        else {
+            ports[targ].setPacked(values[p]);
+            values[targ] = ports[targ].getPacked();
+        }
+        dirty.set(position[o]);
+    }
+
+    /**
+     * Finds the modules that can be evaluated from the port values - those
+     * whose outputs depend on nothing but their inputs - and their ports
+     */
+    private void compile() {
+        if (flat != null) return;
+
+        int n = modules.length;
+        flat = new boolean[n];
+        in = new int[n][];
+        out = new int[n][];
+        shown = new int[n];
+        for (int m = 0; m < n; m++) {
+            switch (KINDS[kind[m]]) {
+                case LOGIC:
+                case ADDSUB:
+                case MUX:
+                case DEMUX:
+                case OR:
+                case FANOUT:
+                case LEFT_SHIFT:
+                case RIGHT_SHIFT:
+                    flat[m] = true;
+                    break;
+                default:
+                    continue;
+            }
+
+            BaseModule mod = modules[m];
+            in[m] = new int[mod.inputs.size()];
+            out[m] = new int[mod.outputs.size()];
+            for (int p = portStart[m]; p < portStart[m + 1]; p++) {
+                int i = mod.inputs.indexOf(ports[p]);
+                if (i >= 0) in[m][i] = p;
+                int o = mod.outputs.indexOf(ports[p]);
+                if (o >= 0) out[m][o] = p;
+            }
+        }
+
+        pull = new int[ports.length];
+        for (int p = 0; p < ports.length; p++) {
+            if (ports[p] instanceof Input) pull[p] = ((Input) ports[p]).pull.getPacked();
+        }
+        isChanged = new boolean[ports.length];
+    }
+
+    /**
+     * Evaluates a module from the port values, as its propagate() does. Its
+     * ports are found by their order in its inputs/outputs lists and its
+     * display parts by their order in its parts list, both fixed by the
+     * module's constructor.
+     * @param m Module index
+     * @return The display state it shows, as kept in shown[]
+     */
+    private int evaluateFlat(int m) {
+        int[] i = in[m], o = out[m];
+        switch (KINDS[kind[m]]) {
+            case LOGIC: {
+                // Result LEDs, then function LEDs
+                int control = values[i[2]];
+                int r = Logic.lookup(control, values[i[0]], values[i[1]]);
+                drive(o[0], r);
+                drive(o[1], control);
+                return lit(r) | 0x10 << (control & 3);
+            }
+            case ADDSUB: {
+                // Carry LED, result LEDs, boolean LED, then function LEDs
+                int control = values[i[2]];
+                int e = AddSub.lookup(control, values[i[0]], values[i[1]]);
+                int r = BinData.packUInt(e);
+                boolean bool = (e & AddSub.BOOL) != 0;
+                drive(o[0], r);
+                drive(o[1], BinData.packUInt(bool ? 0xF : 0));
+                drive(o[2], e >> 8);
+                return ((e & AddSub.CARRY) != 0 ? 1 : 0) | lit(r) << 1 | (bool ? 0x20 : 0) | 0x40 << (control & 3);
+            }
+            case MUX: {
+                // Selection LEDs, then data LEDs
+                int control = values[i[4]];
+                int data = values[i[control & 3]];
+                drive(o[0], data);
+                drive(o[1], control);
+                return 1 << (control & 3) | lit(data) << 4;
+            }
+            case DEMUX: {
+                // Selection LEDs, then data LEDs
+                int control = values[i[1]];
+                int data = values[i[0]];
+                for (int d = 0; d < 4; d++) {
+                    drive(o[d], d == (control & 3) ? data : BinData.packUInt(0));
+                }
+                drive(o[4], control);
+                return 1 << (control & 3) | lit(data) << 4;
+            }
+            case OR: {
+                // Result is bit 0 only: low unless any input's bit 0 is high
+                int res = 0x10;
+                for (int d = 0; d < 4; d++) {
+                    int v = values[i[d + 1]];
+                    drive(o[d + 1], v);
+                    if (BinData.packedBit(v, 0) == BinData.HIGH) res = 0x11;
+                }
+                if (BinData.packedBit(values[i[0]], 0) == BinData.HIGH) res = 0x11;
+                drive(o[0], res);
+                return res & 1;
+            }
+            case FANOUT: {
+                int v = values[i[0]];
+                for (int p : o) {
+                    drive(p, v);
+                }
+                return lit(v);
+            }
+            default: {
+                // Data LEDs, then shift LEDs
+                int control = values[i[0]];
+                int e = Shift.lookup(kind[m] == AvailableModules.LEFT_SHIFT.ordinal(), control, values[i[1]], values[i[2]]);
+                drive(o[0], e & 0xFF);
+                drive(o[1], e >> 8);
+                drive(o[2], control);
+                return lit(values[o[0]]) | (BinData.packedBit(control, 0) == BinData.HIGH ? 0x10 : 0)
+                        | (BinData.packedBit(control, 1) == BinData.HIGH ? 0x20 : 0);
+            }
+        }
+    }
+
+    /**
+     * LEDs a row lights for packed data - bits both high and connected
+     */
+    private static int lit(int v) {
+        return v & (v >> 4) & 0xF;
+    }
+
+    /**
+     * Sets an output of a module evaluated from the port values, as
+     * Port.setPacked does, and passes it on if it changed
+     */
+    private void drive(int p, int v) {
+        if (BinData.packedEquals(v, values[p])) return;
+        values[p] = v;
+        change(p);
+        pass(p);
+    }
+
+    /**
+     * Notes a port set from the port values, to be written back
+     */
+    private void change(int p) {
+        if (isChanged[p]) return;
+        isChanged[p] = true;
+        if (changedCount == changed.length) changed = Arrays.copyOf(changed, changedCount * 2);
+        changed[changedCount++] = p;
+    }
+
+    /**
+     * Writes the ports set from the port values back to their Port objects.
+     * An input is given the value of the output driving it, as passing it
+     * over the link would have.
+     */
+    private void writeBack() {
+        for (int c = 0; c < changedCount; c++) {
+            int p = changed[c];
+            isChanged[p] = false;
+            ports[p].setPacked(portOutput[p] ? values[p] : values[portSource[p]]);
+            ports[p].updated = false;
+        }
+        changedCount = 0;
+    }
+
+    /**
+     * Brings the display parts of the modules evaluated from the port values
+     * up to date: adds the states they've shown since, then propagates them
+     * over their written-back ports (MUST be called while holding the write
+     * lock)
+     */
+    void refreshParts() {
+        for (int m = staleParts.nextSetBit(0); m >= 0; m = staleParts.nextSetBit(m + 1)) {
+            int state = shown[m];
+            for (VisiblePart part : modules[m].parts) {
+                if (!part.hasDisplayState()) continue;
+                int bits = part instanceof LEDRow ? 4 : 1;
+                part.addState(state & ((1 << bits) - 1));
+                state >>>= bits;
+            }
+            shown[m] = 0;
+
+            modules[m].propagate();
+            for (int p = portStart[m]; p < portStart[m + 1]; p++) {
+                ports[p].updated = false;
+            }
+        }
+        staleParts.clear();
+    }
+}
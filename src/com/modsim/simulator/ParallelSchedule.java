@@ -0,0 +1,316 @@
+package com.modsim.simulator;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.modsim.modules.BaseModule.AvailableModules;
+import com.modsim.modules.Clock;
+import com.modsim.modules.parts.Port;
+
+/**
+ * Parallel form of the levelized schedule. Each module is given a level one
+ * above every linked module that comes before it in the schedule, so modules
+ * sharing a level have no links between them: nothing one of them reads is
+ * written by another. A sweep evaluates the levels in turn, running the dirty
+ * modules of a wide level across a ForkJoinPool. Every pair of linked modules
+ * is evaluated in the same relative order as the serial schedule, so the
+ * results are identical to it.
+ *
+ * Registers and NRAM pass data straight through while clocked, so the cones of
+ * logic between them aren't independent within a step - only within a level.
+ */
+final class ParallelSchedule {
+
+    // Dirty modules in a level below this are evaluated on the calling thread
+    static final int PARALLEL_THRESHOLD = 64;
+
+    // Modules per task
+    private static final int CHUNK = 32;
+
+    private final Netlist net;
+
+    // Modules by level, then schedule position; each module's index in that
+    // order; and where each level starts
+    private final int[] levelOrder;
+    private final int[] levelIndex;
+    private final int[] levelStart;
+    private final int[] levelOf;
+
+    // Modules that may edit the design or report errors when evaluated, which
+    // must happen on the thread holding the sim lock
+    private final boolean[] serialOnly;
+
+    private final AtomicLongArray dirty;
+    private int[] batch = new int[64];
+
+    private final ForkJoinPool pool;
+
+    // Profiler for the current step, if profiling is on
+    private Profiler profiling = null;
+
+    /**
+     * Builds the schedule from a levelized netlist
+     * @param net Netlist to schedule
+     * @param pool Pool to evaluate wide levels on
+     */
+    ParallelSchedule(Netlist net, ForkJoinPool pool) {
+        this.net = net;
+        this.pool = pool;
+        net.levelize();
+
+        int n = net.modules.length;
+        int[] level = new int[n];
+        int levels = 0;
+
+        for (int i = 0; i < n; i++) {
+            int m = net.order[i];
+            int lv = 0;
+
+            for (int p = net.portStart[m]; p < net.portStart[m + 1]; p++) {
+                int src = net.portSource[p];
+                if (src >= 0) lv = Math.max(lv, after(level, m, net.portOwner[src]));
+
+                int targ = net.portTarget[p];
+                if (targ >= 0) lv = Math.max(lv, after(level, m, net.portOwner[targ]));
+            }
+
+            level[m] = lv;
+            levels = Math.max(levels, lv + 1);
+        }
+
+        // Counting sort by level, keeping schedule order within each
+        levelStart = new int[levels + 1];
+        for (int m = 0; m < n; m++) levelStart[level[m] + 1]++;
+        for (int l = 0; l < levels; l++) levelStart[l + 1] += levelStart[l];
+
+        levelOrder = new int[n];
+        levelIndex = new int[n];
+        levelOf = new int[n];
+        int[] fill = levelStart.clone();
+        for (int i = 0; i < n; i++) {
+            int m = net.order[i];
+            levelIndex[m] = fill[level[m]]++;
+            levelOrder[levelIndex[m]] = m;
+            levelOf[levelIndex[m]] = level[m];
+        }
+
+        serialOnly = new boolean[n];
+        for (int m = 0; m < n; m++) {
+            serialOnly[m] = net.kind[m] == AvailableModules.SPLIT_MERGE.ordinal();
+        }
+
+        dirty = new AtomicLongArray((n + 63) >> 6);
+    }
+
+    /**
+     * Lowest level a module can take given one linked neighbour
+     * @param level Levels assigned so far
+     * @param m Module being placed
+     * @param other Linked module
+     */
+    private int after(int[] level, int m, int other) {
+        return net.position[other] < net.position[m] ? level[other] + 1 : 0;
+    }
+
+    /**
+     * Ticks the clocks and settles the design, as Netlist.stepLevelized does
+     * @param sim Simulator to report runtime loops to
+     */
+    void step(Sim sim) {
+        profiling = sim.profiling;
+        for (int c : net.clocks) {
+            ((Clock) net.modules[c]).tick();
+            settle(sim, c);
+        }
+    }
+
+    /**
+     * Evaluates dirty modules level by level until none remain. A sweep that
+     * leaves modules dirty (fed back through a register or NRAM) starts
+     * another; needing more sweeps than there are such modules means the
+     * design is looping.
+     * @param sim Simulator to report runtime loops to
+     * @param root Index of the module disturbed
+     */
+    private void settle(Sim sim, int root) {
+        mark(root);
+
+        int sweeps = 0;
+        int next = nextDirty(0);
+
+        while (next >= 0) {
+            if (sweeps++ > net.released) {
+                sim.runtimeLoop(net.modules[firstDirty()]);
+                clearAll();
+                return;
+            }
+
+            // Each level with anything dirty, in turn
+            while (next >= 0) {
+                int l = levelOf[next];
+                int count = take(levelStart[l], levelStart[l + 1]);
+                for (int i = 0; i < count; i++) {
+                    sim.history.touched(batch[i]);
+                }
+
+                if (count < PARALLEL_THRESHOLD) {
+                    for (int i = 0; i < count; i++) {
+                        evaluate(batch[i]);
+                    }
+                }
+                else {
+                    // Modules that can't run on a worker go first - order
+                    // within a level doesn't matter
+                    int parallel = 0;
+                    for (int i = 0; i < count; i++) {
+                        int m = batch[i];
+                        if (serialOnly[m]) evaluate(m);
+                        else batch[parallel++] = m;
+                    }
+                    pool.invoke(new Evaluation(0, parallel));
+                }
+
+                next = nextDirty(levelStart[l + 1]);
+            }
+
+            // Anything dirty now was fed back to an earlier level
+            next = nextDirty(0);
+        }
+    }
+
+    /**
+     * Evaluates a range of the current batch, splitting it across the pool
+     */
+    private final class Evaluation extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+
+        Evaluation(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CHUNK) {
+                for (int i = from; i < to; i++) {
+                    evaluate(batch[i]);
+                }
+            }
+            else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Evaluation(from, mid), new Evaluation(mid, to));
+            }
+        }
+    }
+
+    /**
+     * Propagates through one module, passing updated outputs over their links
+     * and marking the modules they reach dirty. Safe to run concurrently for
+     * modules on the same level.
+     * @param m Module index
+     */
+    private void evaluate(int m) {
+        if (profiling == null) {
+            net.modules[m].propagate();
+        }
+        else {
+            profiling.propagate(net.modules[m], 0);
+        }
+
+        for (int p = net.portStart[m]; p < net.portStart[m + 1]; p++) {
+            Port port = net.ports[p];
+            int targ = net.portTarget[p];
+            if (net.portOutput[p] && port.updated && targ >= 0) {
+                net.ports[targ].setPacked(port.getPacked());
+
+                mark(net.portOwner[targ]);
+            }
+            port.updated = false;
+        }
+    }
+
+    /**
+     * Marks a module dirty
+     */
+    private void mark(int m) {
+        int i = levelIndex[m];
+        int w = i >> 6;
+        long bit = 1L << i;
+
+        long old = dirty.get(w);
+        while ((old & bit) == 0 && !dirty.compareAndSet(w, old, old | bit)) {
+            old = dirty.get(w);
+        }
+    }
+
+    /**
+     * Clears the dirty modules in a range of the level order, gathering them
+     * into the batch
+     * @return Number of modules gathered
+     */
+    private int take(int from, int to) {
+        if (batch.length < to - from) {
+            batch = new int[Integer.highestOneBit(to - from) << 1];
+        }
+
+        int count = 0;
+        for (int w = from >> 6; w <= (to - 1) >> 6; w++) {
+            long bits = dirty.get(w);
+            if (bits == 0) continue;
+
+            // Only the bits in range
+            int lo = Math.max(from - (w << 6), 0);
+            int hi = Math.min(to - (w << 6), 64);
+            long range = (hi == 64 ? -1L : (1L << hi) - 1) & (-1L << lo);
+            bits &= range;
+            if (bits == 0) continue;
+
+            dirty.set(w, dirty.get(w) & ~bits);
+            while (bits != 0) {
+                batch[count++] = levelOrder[(w << 6) + Long.numberOfTrailingZeros(bits)];
+                bits &= bits - 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Index in the level order of the first dirty module at or after the given
+     * one, or -1 if there is none
+     */
+    private int nextDirty(int from) {
+        int w = from >> 6;
+        if (w >= dirty.length()) return -1;
+
+        long bits = dirty.get(w) & (-1L << from);
+        while (bits == 0) {
+            if (++w == dirty.length()) return -1;
+            bits = dirty.get(w);
+        }
+        return (w << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    /**
+     * The dirty module earliest in the serial schedule - the one the serial
+     * engine would report a runtime loop at
+     */
+    private int firstDirty() {
+        int first = -1;
+        for (int i = 0; i < levelOrder.length; i++) {
+            if ((dirty.get(i >> 6) & (1L << i)) == 0) continue;
+
+            int m = levelOrder[i];
+            if (first < 0 || net.position[m] < net.position[first]) first = m;
+        }
+        return first;
+    }
+
+    private void clearAll() {
+        for (int w = 0; w < dirty.length(); w++) {
+            dirty.set(w, 0);
+        }
+    }
+}
@@ -14,6 +14,20 @@ public abstract class PickableEntity {
     public boolean selected = false;
     public boolean enabled = false;
 
+    // Simulator the entity was added to
+    Sim sim = null;
+
+    // Index of the module in the simulator's netlist, set when it's compiled
+    int netIndex = -1;
+
+    /**
+     * @return The simulator the entity was added to, or null if it hasn't
+     * been added to one yet
+     */
+    public Sim getSim() {
+        return sim;
+    }
+
     /**
      * Test whether the object intersects a given point (in world space)
      * @param pt Point to test against
@@ -0,0 +1,185 @@
+package com.modsim.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.BaseModule.AvailableModules;
+
+/**
+ * Counts the propagate() calls made by the engines and the time they take,
+ * per module and per module type. The engines only look at the profiler once
+ * per step, so while it's disabled propagation runs exactly as before.
+ */
+public class Profiler {
+
+    /**
+     * Totals for one module, or one module type
+     */
+    public static final class Entry {
+        public final BaseModule module;
+        public final AvailableModules type;
+
+        public long calls = 0;
+        public long nanos = 0;
+
+        // Sum and maximum of the number of modules waiting in the propagation
+        // wave when this one was evaluated (event-driven engines only)
+        public long depthSum = 0;
+        public int depthMax = 0;
+
+        Entry(BaseModule module, AvailableModules type) {
+            this.module = module;
+            this.type = type;
+        }
+
+        Entry(Entry e) {
+            this(e.module, e.type);
+            add(e);
+        }
+
+        private void add(Entry e) {
+            calls += e.calls;
+            nanos += e.nanos;
+            depthSum += e.depthSum;
+            depthMax = Math.max(depthMax, e.depthMax);
+        }
+
+        /**
+         * @return Mean time per call, in nanoseconds
+         */
+        public double meanNanos() {
+            return calls == 0 ? 0 : (double) nanos / calls;
+        }
+
+        /**
+         * @return Mean queue depth per call
+         */
+        public double meanDepth() {
+            return calls == 0 ? 0 : (double) depthSum / calls;
+        }
+    }
+
+    private volatile boolean enabled = false;
+
+    private final Map<BaseModule, Entry> entries = new IdentityHashMap<>();
+    private long steps = 0;
+
+    /**
+     * Turns profiling on or off - totals are kept until reset
+     */
+    public void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * @return Whether profiling is on
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Discards the totals
+     */
+    public synchronized void reset() {
+        entries.clear();
+        steps = 0;
+    }
+
+    /**
+     * Counts a step
+     */
+    synchronized void step() {
+        steps++;
+    }
+
+    /**
+     * Propagates through a module, timing it
+     * @param m Module to propagate
+     * @param depth Modules waiting in the propagation wave, or 0
+     */
+    void propagate(BaseModule m, int depth) {
+        long start = System.nanoTime();
+        m.propagate();
+        long time = System.nanoTime() - start;
+
+        // The parallel engine evaluates modules on several threads
+        synchronized (this) {
+            Entry e = entries.get(m);
+            if (e == null) {
+                e = new Entry(m, m.getModType());
+                entries.put(m, e);
+            }
+            e.calls++;
+            e.nanos += time;
+            e.depthSum += depth;
+            e.depthMax = Math.max(e.depthMax, depth);
+        }
+    }
+
+    /**
+     * @return Steps profiled since the last reset
+     */
+    public synchronized long getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return A copy of the totals for each module profiled
+     */
+    public synchronized List<Entry> getModules() {
+        List<Entry> list = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            list.add(new Entry(e));
+        }
+        return list;
+    }
+
+    /**
+     * @return The totals for each module type profiled
+     */
+    public synchronized List<Entry> getTypes() {
+        Map<AvailableModules, Entry> types = new EnumMap<>(AvailableModules.class);
+        for (Entry e : entries.values()) {
+            Entry t = types.get(e.type);
+            if (t == null) {
+                t = new Entry(null, e.type);
+                types.put(e.type, t);
+            }
+            t.add(e);
+        }
+        return new ArrayList<>(types.values());
+    }
+
+    /**
+     * Writes the totals per module and per type as CSV
+     * @param file File to write
+     * @throws IOException If the file can't be written
+     */
+    public void writeCSV(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+            out.println("scope,type,id,label,calls,total_ns,mean_ns,mean_queue_depth,max_queue_depth");
+            for (Entry e : getModules()) {
+                writeRow(out, "module", e);
+            }
+            for (Entry e : getTypes()) {
+                writeRow(out, "type", e);
+            }
+        }
+    }
+
+    private static void writeRow(PrintWriter out, String scope, Entry e) {
+        String id = e.module == null ? "" : String.valueOf(e.module.ID);
+        String label = e.module == null ? "" : "\"" + e.module.label.replace("\"", "\"\"") + "\"";
+        out.println(scope + "," + e.type.name() + "," + id + "," + label + "," + e.calls + "," + e.nanos + ","
+                + String.format("%.1f", e.meanNanos()) + "," + String.format("%.2f", e.meanDepth()) + "," + e.depthMax);
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.modsim.simulator;
+
+import java.util.Arrays;
+
+/**
+ * Bookkeeping for a breadth-first propagation wave. Entries are appended in
+ * FIFO order; each records the link it arrived over and the entry it was queued
+ * from, so an entry's path can be walked back to the root. Runtime loops are
+ * detected per path (a path crossing the same link twice), exactly as the old
+ * per-entry visited arrays did, but nothing is allocated per hop.
+ */
+final class PropagationWave {
+
+    int[] link = new int[64];
+    int[] parent = new int[64];
+
+    // 64-bit summary of the links on each entry's path - lets most checks
+    // finish without walking the path
+    long[] sig = new long[64];
+
+    int tail = 0;
+
+    /**
+     * Appends an entry
+     * @param viaLink ID of the link crossed to reach the entry, or -1 for a root
+     * @param from Entry the new one was queued from, or -1 for a root
+     * @return Index of the new entry
+     */
+    int push(int viaLink, int from) {
+        if (tail == link.length) {
+            int size = link.length * 2;
+            link = Arrays.copyOf(link, size);
+            parent = Arrays.copyOf(parent, size);
+            sig = Arrays.copyOf(sig, size);
+        }
+
+        link[tail] = viaLink;
+        parent[tail] = from;
+        sig[tail] = (from < 0 ? 0 : sig[from]) | (viaLink < 0 ? 0 : 1L << (viaLink & 63));
+        return tail++;
+    }
+
+    /**
+     * Whether the path leading to an entry has already crossed a link
+     * @param item Entry index
+     * @param id Link ID
+     */
+    boolean onPath(int item, int id) {
+        if ((sig[item] & (1L << (id & 63))) == 0) return false;
+
+        for (int i = item; i >= 0; i = parent[i]) {
+            if (link[i] == id) return true;
+        }
+        return false;
+    }
+}
@@ -2,33 +2,79 @@ package com.modsim.simulator;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import javax.swing.JOptionPane;
 
 import com.modsim.Main;
 import com.modsim.modules.*;
 import static com.modsim.modules.BaseModule.AvailableModules;
 import com.modsim.modules.parts.Port;
-import sun.awt.Mutex;
+import com.modsim.operations.OperationStack;
 
 import com.modsim.util.BinData;
 import com.modsim.util.CtrlPt;
 
 public class Sim implements Runnable {
 
-    private Thread thread;
-    public final Mutex lock = new Mutex();
+    /**
+     * Available propagation engines
+     */
+    public enum Engine {
+        QUEUE("Event queue"),
+        COMPILED("Compiled netlist"),
+        LEVELIZED("Levelized schedule"),
+        PARALLEL("Parallel levelized schedule");
+
+        private final String name;
+
+        Engine(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private volatile Thread thread;
+
+    /**
+     * Guards the design and its state. Stepping and edits take the write lock;
+     * painting and hit-testing take the read lock. Fair, so that a running
+     * simulation can't starve the view.
+     */
+    public final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+
+    // Longest time the run loop holds the write lock for in one go
+    private static final long BATCH_NANOS = 1000000;
+
+    // Furthest the run loop will fall behind its target before giving up on
+    // catching up - a design too slow for the target just runs flat out
+    private static final long MAX_LAG_NANOS = 100000000;
+
+    /**
+     * Steps in one cycle of the clock module
+     */
+    public static final int STEPS_PER_CYCLE = 4;
 
     private int lastLinkInd = 0;
 
-    public static long delay = 2500000;
+    // Target clock frequency, and the time between steps it works out to -
+    // zero runs flat out
+    private volatile double targetHz = 0;
+    private volatile long stepNanos = 0;
+    private volatile boolean rescheduled = false;
+
     public volatile boolean running = false;
 
     public String filePath = "";
 
+    // Undo history of edits to the design
+    public final OperationStack opStack = new OperationStack();
+
     // Module list
     private final List<BaseModule> modules = new ArrayList<>();
     private final List<BaseModule> propModules = new ArrayList<>();
@@ -42,28 +88,78 @@ public class Sim implements Runnable {
     private List<BaseModule> deferredPropagators = new ArrayList<>();
     private int deferring = 0;
 
-    private Queue<QueueItem> propagationQueue;
-    
+    // Propagation wave, and the module of each entry
+    private final PropagationWave wave = new PropagationWave();
+    private BaseModule[] waveModule = new BaseModule[64];
+
+    // Compiled form of the design, rebuilt on the next step after an edit
+    private Engine engine = Engine.QUEUE;
+    private volatile Netlist netlist = null;
+
+    // Display state handed to the view
+    public final DisplayBuffer display = new DisplayBuffer();
+
+    // Waveform recording of probed ports
+    public final WaveRecorder recorder = new WaveRecorder(this);
+
+    // Propagation profiling, and the profiler for the current step if it's on
+    public final Profiler profiler = new Profiler();
+    Profiler profiling = null;
+
+    // Recorded states of the design, for stepping backwards
+    public final History history = new History(this);
+
+    // Recent states of the running design, and whether it has been found
+    // repeating itself and the run loop is idling until something changes
+    private final SteadyState steady = new SteadyState();
+    private volatile boolean idle = false;
+
+    // Steps left to run, without publishing, before idling
+    private int settlingSteps = 0;
+
+    // Breakpoints, and their compiled form - null when there are none
+    private final List<Breakpoint> breakpoints = new ArrayList<>();
+    private BreakpointSet armed = null;
+
+    /**
+     * The breakpoint that last halted the simulation, if any
+     */
+    public volatile Breakpoint lastBreak = null;
+
     /**
-     * Begin deferring propagation operations (preventing errors during large-scale operations)
+     * Begin deferring propagation operations (preventing errors during large-scale operations).
+     * Holds the write lock until the matching endDeferPropagations(). Error flags are cleared
+     * once here rather than on every addition, which would make large loads quadratic.
      */
     public void beginDeferPropagations() {
-        deferring++;
+        lock.writeLock().lock();
+        if (deferring++ == 0) {
+            clearErrors();
+        }
     }
 
     /**
      * Finish deferring propagation operations (carries out the deferred propagations)
      */
     public void endDeferPropagations() {
-        deferring--;
-        assert(deferring >= 0);
+        try {
+            deferring--;
+            assert(deferring >= 0);
 
-        if (deferring == 0) {
-            for (BaseModule m : deferredPropagators) {
-                propagate(m);
-            }
+            if (deferring == 0) {
+                for (BaseModule m : deferredPropagators) {
+                    propagateWave(m);
+                }
+                disturbed();
+                if (!running) {
+                    publishDisplay();
+                }
 
-            deferredPropagators.clear();
+                deferredPropagators.clear();
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
         }
     }
 
@@ -72,6 +168,7 @@ public class Sim implements Runnable {
      */
     public void start() {
         running = true;
+        idle = false;
         clearErrors();
         if (thread == null || !thread.isAlive()) {
             thread = new Thread(this);
@@ -85,7 +182,70 @@ public class Sim implements Runnable {
     public void stop() {
         clearErrors();
         running = false;
+        idle = false;
         itrPerSec = 0;
+        wake();
+    }
+
+    /**
+     * Sets the clock frequency the simulation runs at
+     * @param hz Clock cycles per second, or 0 to run as fast as possible
+     */
+    public void setFrequency(double hz) {
+        targetHz = hz > 0 ? hz : 0;
+        stepNanos = hz > 0 ? Math.max(1, Math.round(1e9 / (hz * STEPS_PER_CYCLE))) : 0;
+        rescheduled = true;
+        wake();
+    }
+
+    /**
+     * @return The target clock frequency in Hz, or 0 if running flat out
+     */
+    public double getTargetFrequency() {
+        return targetHz;
+    }
+
+    /**
+     * @return The clock frequency achieved over the last second, in Hz
+     */
+    public double getFrequency() {
+        return itrPerSec / STEPS_PER_CYCLE;
+    }
+
+    /**
+     * @return Whether the running simulation has settled into a fixed point or
+     * cycle and is idling until an edit or input
+     */
+    public boolean isIdle() {
+        return idle;
+    }
+
+    /**
+     * Notes an edit or input that may take the design out of a steady state,
+     * waking an idle run loop (MUST be called while holding the write lock)
+     */
+    private void disturbed() {
+        Netlist n = netlist;
+        if (n != null) {
+            n.portsChanged();
+        }
+        steady.reset();
+        settlingSteps = 0;
+        if (idle) {
+            idle = false;
+            rescheduled = true;
+            wake();
+        }
+    }
+
+    /**
+     * Wakes the run loop early, so it sees a new target or a stop
+     */
+    private void wake() {
+        Thread t = thread;
+        if (t != null) {
+            LockSupport.unpark(t);
+        }
     }
 
     // Grid size
@@ -94,26 +254,61 @@ public class Sim implements Runnable {
     // New simulation
     public void newSim() {
         // Reset the camera position
-        Main.ui.view.camX = 0;
-        Main.ui.view.camY = 0;
+        if (isShown()) {
+            Main.ui.view.camX = 0;
+            Main.ui.view.camY = 0;
+        }
 
-        synchronized (this) {
+        recorder.stop();
+        recorder.clearProbes();
+
+        lock.writeLock().lock();
+        try {
             modules.clear();
             links.clear();
             propModules.clear();
             entities.clear();
+            breakpoints.clear();
+            armed = null;
+
+            dropNetlist();
+            history.clear();
+            disturbed();
 
-            Main.opStack.clearAll();
+            opStack.clearAll();
             filePath = "";
-            Main.ui.updateTitle();
+            if (isShown()) Main.ui.updateTitle();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        if (isShown()) Main.ui.view.flagStaticRedraw();
+    }
+
+    /**
+     * @return Whether this is the simulation the user interface shows
+     */
+    public boolean isShown() {
+        return Main.ui != null && Main.sim == this;
+    }
+
+    /**
+     * Shows a message about the simulation - to the user if it's the one on
+     * screen, otherwise on the error stream, naming the design
+     * @param text Message to show
+     */
+    public void message(String text) {
+        if (isShown()) {
+            Main.showMessage(text);
+        }
+        else {
+            System.err.println((filePath.isEmpty() ? "Message" : filePath) + ": " + text);
         }
-		propagationQueue = new LinkedList<QueueItem>();
-        Main.ui.view.flagStaticRedraw();
     }
 
     /**
      * Module access (MUST be contained in
-     * synchronized (Main.sim) block)
+     * the lock being held)
      */
     public List<BaseModule> getModules() {
         return modules;
@@ -121,7 +316,7 @@ public class Sim implements Runnable {
 
     /**
      * Entity access (MUST be contained in
-     * synchronized (Main.sim) block)
+     * the lock being held)
      */
     public List<PickableEntity> getEntities() {
         return entities;
@@ -129,7 +324,7 @@ public class Sim implements Runnable {
 
     /**
      * Link access (MUST be contained in
-     * synchronized (Main.sim) block)
+     * the lock being held)
      */
     public List<Link> getLinks() {
         return links;
@@ -139,8 +334,10 @@ public class Sim implements Runnable {
      * Thread safe entity add
      */
     public void addEntity(PickableEntity ent) {
-        synchronized (this) {
-            clearErrors();
+        lock.writeLock().lock();
+        try {
+            if (deferring == 0) clearErrors();
+            ent.sim = this;
 
             if (ent.getType() == PickableEntity.MODULE) {
                 BaseModule m = (BaseModule) ent;
@@ -148,16 +345,23 @@ public class Sim implements Runnable {
                 if (m.getModType() == AvailableModules.CLOCK) {
                     propModules.add(m);
                 }
+                dropNetlist();
+                history.clear();
+                disturbed();
             }
             entities.add(ent);
         }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Thread safe entity removal. Removes module links.
      */
     public void removeEntity(PickableEntity ent) {
-        synchronized (this) {
+        lock.writeLock().lock();
+        try {
             entities.remove(ent);
 
             // Module-specific cleanup also removes leftover links
@@ -165,6 +369,20 @@ public class Sim implements Runnable {
                 BaseModule module = (BaseModule) ent;
                 modules.remove(ent);
                 propModules.remove(ent);
+                dropNetlist();
+                history.clear();
+                disturbed();
+
+                // Conditions on the module go with it
+                if (breakpoints.removeIf(b -> b.getModule() == module)) {
+                    armBreakpoints();
+                }
+                if (module instanceof NRAM) {
+                    ((NRAM) module).setWatches(null);
+                }
+                for (Port p : module.ports) {
+                    recorder.removeProbe(p);
+                }
 
                 for (Port p : module.ports) {
                     if (p.link != null) {
@@ -173,20 +391,163 @@ public class Sim implements Runnable {
                 }
             }
         }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Thread safe link (& control points) addition
      */
     public void addLink(Link l) {
-        synchronized (this) {
-            clearErrors();
+        lock.writeLock().lock();
+        try {
+            if (deferring == 0) clearErrors();
             links.add(l);
+            dropNetlist();
+            history.clear();
+            disturbed();
 
             for (CtrlPt c : l.path.getCtrlPts()) {
                 addEntity(c);
             }
         }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Selects the propagation engine used by step()
+     */
+    public void setEngine(Engine e) {
+        lock.writeLock().lock();
+        try {
+            engine = e;
+            dropNetlist();
+            disturbed();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return The propagation engine used by step()
+     */
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Throws the compiled form of the design away, first bringing up to date
+     * the display parts it left behind (MUST be called while holding the
+     * write lock)
+     */
+    private void dropNetlist() {
+        Netlist n = netlist;
+        if (n != null) {
+            n.refreshParts();
+            netlist = null;
+        }
+    }
+
+    /**
+     * Compiled form of the current design, rebuilt if the design has been edited
+     * since the last call (MUST be called while holding the write lock)
+     */
+    public Netlist getNetlist() {
+        Netlist n = netlist;
+        if (n == null) {
+            n = new Netlist(modules, links);
+            netlist = n;
+        }
+        return n;
+    }
+
+    /**
+     * Adds a breakpoint, checked after every step from then on
+     */
+    public void addBreakpoint(Breakpoint b) {
+        lock.writeLock().lock();
+        try {
+            breakpoints.add(b);
+            armBreakpoints();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a breakpoint
+     */
+    public void removeBreakpoint(Breakpoint b) {
+        lock.writeLock().lock();
+        try {
+            breakpoints.remove(b);
+            armBreakpoints();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes every breakpoint
+     */
+    public void clearBreakpoints() {
+        lock.writeLock().lock();
+        try {
+            breakpoints.clear();
+            armBreakpoints();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return A copy of the current breakpoints
+     */
+    public List<Breakpoint> getBreakpoints() {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(breakpoints);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recompiles the breakpoints, arming memory conditions on their NRAM
+     * modules (MUST be called while holding the write lock)
+     */
+    private void armBreakpoints() {
+        List<NRAM> rams = new ArrayList<>();
+        for (BaseModule m : modules) {
+            if (m instanceof NRAM) rams.add((NRAM) m);
+        }
+        for (Breakpoint b : breakpoints) {
+            if (b.memory != null && !rams.contains(b.memory)) rams.add(b.memory);
+        }
+
+        BreakpointSet set = new BreakpointSet(breakpoints, rams);
+        armed = breakpoints.isEmpty() ? null : set;
+        disturbed();
+    }
+
+    /**
+     * Reports an NRAM access meeting a memory breakpoint. The simulation halts
+     * at the end of the step.
+     * @param b Breakpoint met
+     */
+    public void memoryBreak(Breakpoint b) {
+        BreakpointSet set = armed;
+        if (set != null) {
+            set.memoryHit(b);
+        }
     }
 
     /**
@@ -200,80 +561,222 @@ public class Sim implements Runnable {
      * Thread safe link remove
      */
     public void removeLink(Link l) {
-        synchronized (this) {
+        lock.writeLock().lock();
+        try {
             links.remove(l);
+            dropNetlist();
+            history.clear();
+            disturbed();
+
+            l.src.link = null;
+            l.targ.setVal(new BinData());
+        }
+        finally {
+            lock.writeLock().unlock();
         }
-        l.src.link = null;
-        l.targ.setVal(new BinData());
     }
 
     /**
      * Removes error flags from com.modsim.modules
      */
     public void clearErrors() {
-        for (BaseModule m : modules) {
-            m.error = false;
+        lock.writeLock().lock();
+        try {
+            for (BaseModule m : modules) {
+                m.error = false;
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
         }
     }
 
+    /**
+     * Runs steps until stopped. At a target frequency, each wake-up runs the
+     * steps that have fallen due and parks until the next one; flat out, it
+     * runs batches back to back.
+     */
     public void run() {
-        int iterations = 0;
-        long start = System.currentTimeMillis();
+        int count = 0;
+        long start = System.nanoTime();
+        long due = start;
 
         // Runs the sim constantly
         while(running) {
-            // Iterate
-            step();
+            long period = stepNanos;
+
+            lock.writeLock().lock();
+            try {
+                long now = System.nanoTime();
+                long batchEnd = now + BATCH_NANOS;
+
+                if (period == 0) {
+                    // Iterate - as many steps as fit in one batch
+                    do {
+                        runStep();
+                        count++;
+                    } while (running && !idle && stepNanos == 0 && System.nanoTime() < batchEnd);
+                    due = System.nanoTime();
+                }
+                else {
+                    // Iterate - every step that has fallen due, up to one batch
+                    if (rescheduled || now - due > MAX_LAG_NANOS) {
+                        rescheduled = false;
+                        due = now;
+                    }
+                    while (running && !idle && due <= now && now < batchEnd) {
+                        runStep();
+                        count++;
+                        due += period;
+                        now = System.nanoTime();
+                    }
+                }
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
 
             // Calculate speed
-            iterations++;
-            long now = System.currentTimeMillis();
+            long now = System.nanoTime();
             long delta = now - start;
 
-            if (delta > 1000) {
-                itrPerSec = iterations;
-                iterations = 0;
+            if (delta > 1000000000) {
+                itrPerSec = count * 1e9 / delta;
+                count = 0;
                 start = now;
             }
 
-            // Speed control
-            if (delay != 0) {
-                nanoWait(delay);
+            // Nothing will change until something is edited - sleep until then
+            if (idle) {
+                itrPerSec = 0;
+                count = 0;
+                start = System.nanoTime();
+                while (idle && running) {
+                    LockSupport.park(this);
+                }
+                continue;
+            }
+
+            // Speed control - sleep until the next step is due
+            if (period != 0 && running) {
+                long wait = due - now;
+                if (wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
             }
         }
+
+        // Make sure the view shows where the simulation stopped
+        lock.writeLock().lock();
+        try {
+            publishDisplay();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
-     * Nanosecond(ish)-accurate wait
+     * Carries out one step of the run loop, then checks whether the design has
+     * settled (MUST be called while holding the write lock). Once a cycle is
+     * found it runs one more time round, so the display collects every state
+     * in it, and the loop goes idle.
      */
-    private void nanoWait(long interval) {
-        int ms = (int) (interval / 100000);
-        try {Thread.sleep(ms);}
-        catch (Exception e) {
-            System.err.println("Warning: thread sleep exception!");
+    private void runStep() {
+        doStep();
+
+        // Breakpoints need every step to run
+        if (!running || armed != null || deferring != 0) {
+            steady.reset();
+            settlingSteps = 0;
+            return;
         }
 
-        interval = interval % 100000;
-
-        long start = System.nanoTime();
-        long end;
+        if (settlingSteps > 0) {
+            if (--settlingSteps == 0) {
+                publishDisplay();
+                idle = true;
+            }
+            return;
+        }
 
-        do {
-            end = System.nanoTime();
-        } while (start + interval >= end);
+        int period = steady.record(getNetlist().stateHash());
+        if (period > 0) {
+            publishDisplay();
+            settlingSteps = period;
+        }
     }
 
     /**
      * Recursive simulation
      */
     public void step() {
-        synchronized (lock) {
-            // Don't run while we're deferring operations
-            if (deferring != 0) return;
+        lock.writeLock().lock();
+        try {
+            doStep();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the design to its state after an earlier step, stopping the
+     * simulation first
+     * @param iteration Step to return to
+     * @return Whether the step is still in the history
+     */
+    public boolean rewind(int iteration) {
+        stop();
 
-            //System.out.print("\nIteration " + iterations + " : ");
-            iterations++;
+        lock.writeLock().lock();
+        try {
+            if (deferring != 0 || !history.restore(iteration)) return false;
 
+            iterations = iteration;
+            lastBreak = null;
+            if (armed != null) {
+                armBreakpoints();
+            }
+            disturbed();
+            publishDisplay();
+            return true;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Carries out one step (MUST be called while holding the write lock)
+     */
+    private void doStep() {
+        // Don't run while we're deferring operations
+        if (deferring != 0) return;
+
+        //System.out.print("\nIteration " + iterations + " : ");
+        iterations++;
+
+        profiling = profiler.isEnabled() ? profiler : null;
+        if (profiling != null) {
+            profiling.step();
+        }
+
+        BreakpointSet bps = armed;
+        if (bps != null) {
+            bps.beginStep();
+        }
+
+        if (engine == Engine.COMPILED) {
+            getNetlist().step(this);
+        }
+        else if (engine == Engine.LEVELIZED) {
+            getNetlist().stepLevelized(this);
+        }
+        else if (engine == Engine.PARALLEL) {
+            getNetlist().stepParallel(this);
+        }
+        else {
             for (int i = 0; i < propModules.size(); i++) {
                 BaseModule m = propModules.get(i);
 
@@ -283,26 +786,69 @@ public class Sim implements Runnable {
                 }
 
                 // Begin propagation at the clocks AND switches
-                propagate(m);
+                propagateWave(m);
+            }
+        }
+
+        recorder.sample(iterations);
+        history.record(iterations);
+
+        // Halt on a breakpoint - the view gets the state it was met in
+        if (bps != null) {
+            Breakpoint hit = bps.check(iterations);
+            if (hit != null) {
+                breakAt(hit);
+                publishDisplay();
+                return;
             }
         }
 
-        // Request view update
-        Main.ui.view.flagDynamicRedraw();
+        // Hand the view a new snapshot once it's taken the last one
+        if (settlingSteps == 0 && display.isTaken()) {
+            publishDisplay();
+        }
     }
 
     /**
-     * Thread-local propagation
-     * @param m Module to propagate on
-     * @param visited ID-indexed array indicating whether we've already propagated over each module
+     * Publishes the display state of the design to the view (MUST be called
+     * while holding the write lock)
      */
-    private void doPropagate(BaseModule m, boolean[] visited) {
+    private void publishDisplay() {
+        display.publish(getNetlist().getDisplayParts());
+    }
+
+    /**
+     * Appends a module to the propagation wave
+     * @param m Module to queue
+     * @param link ID of the link it was reached over, or -1
+     * @param from Wave entry it was queued from, or -1
+     */
+    private void enqueue(BaseModule m, int link, int from) {
+        int next = wave.push(link, from);
+        if (next == waveModule.length) {
+            waveModule = Arrays.copyOf(waveModule, wave.link.length);
+        }
+        waveModule[next] = m;
+    }
+
+    /**
+     * Propagates over a single wave entry, queueing the modules it updates
+     * @param item Index of the wave entry to propagate on
+     */
+    private void doPropagate(int item) {
+        BaseModule m = waveModule[item];
         if (deferring != 0) {
             deferredPropagators.add(m);
         }
         else {
             if (m == null) return;
-            m.propagate();
+            history.touched(((PickableEntity) m).netIndex);
+            if (profiling == null) {
+                m.propagate();
+            }
+            else {
+                profiling.propagate(m, wave.tail - item - 1);
+            }
 
             for (Port p : m.ports) {
                 if (!p.canOutput()) {
@@ -310,17 +856,10 @@ public class Sim implements Runnable {
                     continue;
                 }
                 if (p.wasUpdated() && p.link != null) {
-                    // First make sure 'visited' array is big enough
+                    // Check if this path has crossed the link before
                     int id = p.link.getLinkID();
-                    if (id >= visited.length) {
-                        visited = Arrays.copyOf(visited, id * 2 + 1);
-                    }
-
-                    // Check if we've visited this link before
-                    if (visited[id]) {
-                        p.owner.error = true;
-                        running = false;
-                        JOptionPane.showMessageDialog(null, "Runtime loop detected! Halting simulation. Did you forget a register?");
+                    if (wave.onPath(item, id)) {
+                        runtimeLoop(p.owner);
                         return;
                     }
 
@@ -329,12 +868,10 @@ public class Sim implements Runnable {
                         System.out.println("Warning: Null propagation target");
                         return;
                     }
-                    p.link.targ.setVal(p.getVal());
+                    p.link.targ.setPacked(p.getPacked());
 
-                    // Add link to visited - remove after propagation
-                    boolean[] clone = visited.clone();
-                    clone[id] = true;
-                    propagationQueue.add(new QueueItem(p.link.targ.owner, clone));
+                    // Queue the target, recording the link on its path
+                    enqueue(p.link.targ.owner, id, item);
                 }
                 p.updated = false;
             }
@@ -342,26 +879,65 @@ public class Sim implements Runnable {
     }
 
     /**
-     * Propagates through a module
+     * Flags a module caught in a runtime loop and halts the simulation
+     * @param m Module whose output would re-enter the loop
+     */
+    void runtimeLoop(BaseModule m) {
+        history.touchedAll();
+        m.error = true;
+        running = false;
+        message("Runtime loop detected! Halting simulation. Did you forget a register?");
+    }
+
+    /**
+     * Halts the simulation at a breakpoint
+     * @param b Breakpoint met
+     */
+    private void breakAt(Breakpoint b) {
+        lastBreak = b;
+        running = false;
+        message("Breakpoint: " + b + " at iteration " + iterations + ". Halting simulation.");
+    }
+
+    /**
+     * Propagates through a module. When the simulation isn't running the
+     * result is published to the view straight away.
      * @param m Module to propagate
      */
     public void propagate(BaseModule m) {
-        synchronized (lock) {
-        	propagationQueue.add(new QueueItem(m, new boolean[1024]));
-        	while(!propagationQueue.isEmpty()){
-        		QueueItem it = propagationQueue.remove();
-        		doPropagate(it.baseModule, it.visited);
-        	}
-        }
-    }
-    
-    class QueueItem {
-    	private BaseModule baseModule;
-    	private boolean[] visited;
-    	public QueueItem(BaseModule m, boolean[] v){
-    		baseModule = m;
-    		visited = v;
-    	}
-    }
-    
+        lock.writeLock().lock();
+        try {
+            propagateWave(m);
+            disturbed();
+
+            if (!running && deferring == 0) {
+                publishDisplay();
+            }
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Propagates through a module without publishing the result (MUST be
+     * called while holding the write lock)
+     * @param m Module to propagate
+     */
+    private void propagateWave(BaseModule m) {
+        // Entries from start onward belong to this call (propagation may nest)
+        int start = wave.tail;
+        enqueue(m, -1, -1);
+
+        try {
+            for (int item = start; item < wave.tail; item++) {
+                doPropagate(item);
+            }
+        }
+        finally {
+            Arrays.fill(waveModule, start, wave.tail, null);
+            wave.tail = start;
+        }
+    }
+
 }
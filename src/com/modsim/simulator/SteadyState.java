@@ -0,0 +1,45 @@
+package com.modsim.simulator;
+
+/**
+ * Spots a running design that has settled into a fixed point or a short
+ * cycle, from the hashes of its state after each step. Without input the
+ * simulation is deterministic, so once a state recurs every following step
+ * repeats the steps since its last occurrence.
+ */
+final class SteadyState {
+
+    // Longest cycle looked for, in steps
+    static final int HISTORY = 64;
+
+    private final long[] hashes = new long[HISTORY];
+    private int next = 0;
+    private int filled = 0;
+
+    /**
+     * Forgets the recorded states, after an edit or input
+     */
+    void reset() {
+        next = 0;
+        filled = 0;
+    }
+
+    /**
+     * Records the state after a step
+     * @param hash Hash of the design's state
+     * @return Length of the cycle the design has entered, in steps, or 0 if
+     * the state hasn't been seen recently
+     */
+    int record(long hash) {
+        int i = next;
+        for (int period = 1; period <= filled; period++) {
+            i = i == 0 ? HISTORY - 1 : i - 1;
+            if (hashes[i] == hash) return period;
+        }
+
+        hashes[next] = hash;
+        next = next == HISTORY - 1 ? 0 : next + 1;
+        if (filled < HISTORY) filled++;
+        return 0;
+    }
+
+}
@@ -0,0 +1,392 @@
+package com.modsim.simulator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.parts.Port;
+import com.modsim.util.BinData;
+
+/**
+ * Records the values of probed ports while the simulation runs, streaming
+ * them to a Value Change Dump (VCD) file. After each step the simulation
+ * thread appends the probes that changed to a ring buffer outside the heap;
+ * a writer thread drains it to disk. Each step is one VCD time unit.
+ *
+ * The ring holds 32-bit records: a step marker, (1 << 31) | iteration,
+ * followed by (probe index << 8) | packed value for each probe that changed
+ * in it. If the writer falls a whole ring behind, steps are dropped rather
+ * than slowing the simulation; the next step recorded carries every probe's
+ * value, and the number dropped is noted at the end of the file.
+ */
+public class WaveRecorder {
+
+    // Ring size, in bytes
+    private static final int RING_BYTES = 1 << 22;
+
+    private static final int STEP_MARK = 1 << 31;
+
+    // How long the writer sleeps when it has caught up
+    private static final long DRAIN_NANOS = 1000000;
+
+    private final Sim sim;
+
+    // Ports chosen for recording
+    private final List<Port> probes = new ArrayList<>();
+
+    // Recording in progress, if any
+    private volatile Session session = null;
+
+    // Steps dropped from the last recording
+    private volatile long lastDropped = 0;
+
+    /**
+     * One recording: the probes it covers, the ring and the thread writing
+     * the ring out
+     */
+    private static final class Session implements Runnable {
+        final Port[] ports;
+        final int[] last;
+        final String[] codes;
+        final ByteBuffer ring = ByteBuffer.allocateDirect(RING_BYTES);
+        final int mask = RING_BYTES - 1;
+
+        // Bytes ever written to and read from the ring
+        final AtomicLong head = new AtomicLong();
+        final AtomicLong tail = new AtomicLong();
+
+        final Writer out;
+        final Thread writer;
+        volatile boolean stopping = false;
+
+        // Whether the last step was dropped, and how many have been
+        boolean gap = false;
+        volatile long dropped = 0;
+
+        // Values when stopped, if the last step was dropped
+        int[] closing = null;
+        int closingIteration;
+
+        IOException error = null;
+
+        Session(Port[] ports, Writer out) {
+            this.ports = ports;
+            this.last = new int[ports.length];
+            codes = new String[ports.length];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = code(i);
+            }
+            this.out = out;
+            writer = new Thread(this, "VCD writer");
+            writer.setDaemon(true);
+        }
+
+        /**
+         * Appends the changed probes after a step (simulation thread)
+         */
+        void sample(int iteration) {
+            long h = head.get();
+            long free = RING_BYTES - (h - tail.get());
+
+            // Room for every probe, so a step is never split
+            if (free < 4L * (ports.length + 1)) {
+                if (!gap) {
+                    // Make the step after the gap carry everything
+                    for (int i = 0; i < last.length; i++) last[i] = -1;
+                    gap = true;
+                }
+                dropped++;
+                return;
+            }
+            gap = false;
+
+            long p = h + 4;
+            for (int i = 0; i < ports.length; i++) {
+                int v = ports[i].getPacked();
+                if (v != last[i]) {
+                    last[i] = v;
+                    ring.putInt((int) p & mask, (i << 8) | v);
+                    p += 4;
+                }
+            }
+
+            if (p != h + 4) {
+                ring.putInt((int) h & mask, STEP_MARK | iteration);
+                head.lazySet(p);
+            }
+        }
+
+        /**
+         * Writes the ring out until stopped, then closes the file
+         */
+        @Override
+        public void run() {
+            try {
+                boolean done;
+                do {
+                    done = stopping;
+                    long t = tail.get();
+                    long h = head.get();
+
+                    if (t == h) {
+                        if (!done) LockSupport.parkNanos(this, DRAIN_NANOS);
+                        continue;
+                    }
+
+                    for (; t != h; t += 4) {
+                        int r = ring.getInt((int) t & mask);
+                        if ((r & STEP_MARK) != 0) {
+                            out.write('#');
+                            out.write(Integer.toString(r & ~STEP_MARK));
+                            out.write('\n');
+                        }
+                        else {
+                            writeValue(out, codes[r >>> 8], r & 0xFF);
+                        }
+                    }
+                    tail.lazySet(h);
+                } while (!done);
+
+                if (closing != null) {
+                    out.write("#" + closingIteration + "\n");
+                    for (int i = 0; i < closing.length; i++) {
+                        writeValue(out, codes[i], closing[i]);
+                    }
+                }
+
+                if (dropped > 0) {
+                    out.write("$comment " + dropped + " steps were dropped while the writer caught up $end\n");
+                }
+            }
+            catch (IOException e) {
+                error = e;
+            }
+            finally {
+                try {
+                    out.close();
+                }
+                catch (IOException e) {
+                    if (error == null) error = e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a recorder for a simulator
+     */
+    WaveRecorder(Sim sim) {
+        this.sim = sim;
+    }
+
+    /**
+     * Adds a port to those recorded, from the next recording
+     */
+    public void addProbe(Port p) {
+        synchronized (probes) {
+            if (!probes.contains(p)) probes.add(p);
+        }
+    }
+
+    /**
+     * Removes a port from those recorded, from the next recording
+     */
+    public void removeProbe(Port p) {
+        synchronized (probes) {
+            probes.remove(p);
+        }
+    }
+
+    /**
+     * Removes every probe
+     */
+    public void clearProbes() {
+        synchronized (probes) {
+            probes.clear();
+        }
+    }
+
+    /**
+     * @return Whether the port is recorded
+     */
+    public boolean isProbed(Port p) {
+        synchronized (probes) {
+            return probes.contains(p);
+        }
+    }
+
+    /**
+     * @return The number of ports recorded
+     */
+    public int getProbeCount() {
+        synchronized (probes) {
+            return probes.size();
+        }
+    }
+
+    /**
+     * @return Whether a recording is in progress
+     */
+    public boolean isRecording() {
+        return session != null;
+    }
+
+    /**
+     * Starts recording the probed ports to a file, replacing any recording in
+     * progress. The file starts with the probes' current values.
+     * @param file VCD file to write
+     * @throws IOException If the file can't be written
+     */
+    public void start(File file) throws IOException {
+        stop();
+
+        Port[] ports;
+        synchronized (probes) {
+            ports = probes.toArray(new Port[probes.size()]);
+        }
+
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII), 1 << 16);
+        Session s = new Session(ports, out);
+
+        sim.lock.writeLock().lock();
+        try {
+            out.write("$date " + new Date() + " $end\n");
+            out.write("$version ModuleSim $end\n");
+            out.write("$comment One time unit per simulation step $end\n");
+            out.write("$timescale 1ns $end\n");
+            out.write("$scope module design $end\n");
+            for (int i = 0; i < ports.length; i++) {
+                out.write("$var wire 4 " + code(i) + " " + name(ports[i]) + " $end\n");
+            }
+            out.write("$upscope $end\n");
+            out.write("$enddefinitions $end\n");
+
+            out.write("#" + sim.iterations + "\n$dumpvars\n");
+            for (int i = 0; i < ports.length; i++) {
+                s.last[i] = ports[i].getPacked();
+                writeValue(out, s.codes[i], s.last[i]);
+            }
+            out.write("$end\n");
+
+            session = s;
+        }
+        catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        finally {
+            sim.lock.writeLock().unlock();
+        }
+
+        s.writer.start();
+    }
+
+    /**
+     * Stops recording, waiting for what's been recorded to reach the file
+     */
+    public void stop() {
+        Session s;
+        sim.lock.writeLock().lock();
+        try {
+            s = session;
+            session = null;
+
+            // Make sure the file ends with the final values
+            if (s != null && s.gap) {
+                s.closing = new int[s.ports.length];
+                for (int i = 0; i < s.closing.length; i++) {
+                    s.closing[i] = s.ports[i].getPacked();
+                }
+                s.closingIteration = sim.iterations;
+            }
+        }
+        finally {
+            sim.lock.writeLock().unlock();
+        }
+        if (s == null) return;
+
+        lastDropped = s.dropped;
+        s.stopping = true;
+        LockSupport.unpark(s.writer);
+        try {
+            s.writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (s.error != null) {
+            sim.message("Waveform recording failed: " + s.error.getMessage());
+        }
+    }
+
+    /**
+     * @return Steps dropped from the current or last recording because the
+     * writer fell behind
+     */
+    public long getDropped() {
+        Session s = session;
+        return s == null ? lastDropped : s.dropped;
+    }
+
+    /**
+     * Records the probes after a step (MUST be called while holding the write
+     * lock)
+     * @param iteration Iteration just completed
+     */
+    void sample(int iteration) {
+        Session s = session;
+        if (s != null) {
+            s.sample(iteration);
+        }
+    }
+
+    /**
+     * VCD identifier for a probe - printable characters, base 94
+     */
+    private static String code(int i) {
+        StringBuilder sb = new StringBuilder();
+        do {
+            sb.append((char) ('!' + i % 94));
+            i /= 94;
+        } while (i > 0);
+        return sb.toString();
+    }
+
+    /**
+     * VCD signal name for a port: its module's type, label and ID, then its
+     * own name, with spaces replaced
+     */
+    private static String name(Port p) {
+        BaseModule m = p.owner;
+        String mod = m.getModType().name() + (m.label.isEmpty() ? "" : "_" + m.label) + "_" + m.ID;
+        return (mod + "." + p.text).replaceAll("[^A-Za-z0-9_.()\\[\\]]+", "_");
+    }
+
+    /**
+     * Writes a value change: the four bits, most significant first, with
+     * disconnected bits as 'x'
+     */
+    private static void writeValue(Writer out, String code, int packed) throws IOException {
+        out.write('b');
+        for (int bit = 3; bit >= 0; bit--) {
+            byte b = BinData.packedBit(packed, bit);
+            out.write(b == BinData.NOCON ? 'x' : (char) ('0' + b));
+        }
+        out.write(' ');
+        out.write(code);
+        out.write('\n');
+    }
+
+}
@@ -0,0 +1,286 @@
+package com.modsim.util;
+
+import java.util.Random;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.BaseModule.AvailableModules;
+import com.modsim.modules.Link;
+import com.modsim.modules.NRAM;
+import com.modsim.modules.parts.Port;
+import com.modsim.simulator.LaneSim;
+import com.modsim.simulator.Sim;
+
+/**
+ * Microbenchmarks for the simulator core, in the manner of a JMH suite: each
+ * benchmark is warmed up, then timed over several fixed-length iterations,
+ * and the mean time per operation is printed as CSV with its spread so runs
+ * can be compared before and after a change.
+ *
+ * Usage: Benchmarks [-quick] [filter]
+ *   -quick  Shorter iterations, for a rough figure
+ *   filter  Only runs benchmarks whose name contains this text
+ */
+public class Benchmarks {
+
+    private static int warmups = 5;
+    private static int measurements = 5;
+    private static long iterationNanos = 200000000L;
+
+    // Keeps results alive so the work that made them isn't optimised away
+    public static volatile long sink;
+
+    /**
+     * The operation being timed
+     */
+    private interface Body {
+        /**
+         * Carries out the operation a number of times
+         */
+        void run(int ops) throws Exception;
+    }
+
+    /**
+     * Runs the benchmarks
+     * @param args Options, then an optional name filter
+     */
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+
+        String filter = "";
+        for (String a : args) {
+            if (a.equals("-quick")) {
+                warmups = 2;
+                measurements = 3;
+                iterationNanos = 50000000L;
+            }
+            else {
+                filter = a;
+            }
+        }
+
+        System.out.println("benchmark,param,mode,samples,score,error,unit");
+
+        // Whole steps of generated designs, on every engine
+        for (final int size : new int[] {100, 1000, 10000}) {
+            for (final Sim.Engine engine : Sim.Engine.values()) {
+                String name = "step." + engine.name().toLowerCase();
+                if (!name.contains(filter)) continue;
+
+                final Sim sim = newDesign(size);
+                sim.setEngine(engine);
+                sim.step();
+                run(name, "modules=" + sim.getModules().size(), ops -> {
+                    for (int i = 0; i < ops; i++) sim.step();
+                });
+            }
+        }
+
+        // Whole steps of sixteen lanes at once, to set against the engines'
+        // single steps
+        for (final int size : new int[] {100, 1000, 10000}) {
+            if (!"lanes.step".contains(filter)) break;
+
+            final Sim sim = newDesign(size);
+            final LaneSim lanes;
+            sim.lock.writeLock().lock();
+            try {
+                lanes = new LaneSim(sim.getNetlist());
+            }
+            finally {
+                sim.lock.writeLock().unlock();
+            }
+            lanes.settle();
+            run("lanes.step", "modules=" + sim.getModules().size() + " lanes=" + LaneSim.LANES, ops -> {
+                for (int i = 0; i < ops; i++) lanes.step();
+            });
+        }
+
+        // Whole steps while keeping the simulation history
+        for (final int size : new int[] {100, 1000, 10000}) {
+            if (!"history.step".contains(filter)) break;
+
+            final Sim sim = newDesign(size);
+            sim.history.setEnabled(true);
+            sim.step();
+            run("history.step", "modules=" + sim.getModules().size(), ops -> {
+                for (int i = 0; i < ops; i++) sim.step();
+            });
+        }
+
+        // Memory accesses at random addresses
+        if ("nram.read".contains(filter) || "nram.write".contains(filter)) {
+            final NRAM ram = (NRAM) newModule(new Sim(), AvailableModules.RAM);
+            final int[] addresses = new int[4096];
+            Random rng = new Random(1);
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = rng.nextInt(NRAM.MAX_ADDR + 1);
+            }
+            final BinData d0 = new BinData(5), d1 = new BinData(10);
+
+            if ("nram.read".contains(filter)) {
+                run("nram.read", "", ops -> {
+                    long s = 0;
+                    for (int i = 0; i < ops; i++) {
+                        s += ram.read(addresses[i & 4095])[0].getUInt();
+                    }
+                    sink = s;
+                });
+            }
+            if ("nram.write".contains(filter)) {
+                run("nram.write", "", ops -> {
+                    for (int i = 0; i < ops; i++) {
+                        ram.write(addresses[i & 4095], d0, d1);
+                    }
+                });
+            }
+        }
+
+        // Memory images, parsed and written
+        if ("hex.read".contains(filter) || "hex.write".contains(filter)) {
+            final NRAM ram = (NRAM) newModule(new Sim(), AvailableModules.RAM);
+            Random rng = new Random(2);
+            for (int a = 0; a < 4096; a++) {
+                ram.write(a, new BinData(rng.nextInt(16)), new BinData(rng.nextInt(16)));
+            }
+            final String image = HexWriter.hexString(ram, false);
+
+            if ("hex.read".contains(filter)) {
+                run("hex.read", "filled=4096", ops -> {
+                    for (int i = 0; i < ops; i++) HexReader.readString(image, ram);
+                });
+            }
+            if ("hex.write".contains(filter)) {
+                run("hex.write", "filled=4096", ops -> {
+                    long s = 0;
+                    for (int i = 0; i < ops; i++) s += HexWriter.hexString(ram, true).length();
+                    sink = s;
+                });
+            }
+        }
+
+        // Saving and reloading a design
+        for (final int size : new int[] {100, 1000}) {
+            if (!"xml.roundtrip".contains(filter)) break;
+
+            final Sim sim = newDesign(size);
+            final String xml = XMLWriter.writeString(sim, sim.getModules(), sim.getLinks());
+            run("xml.roundtrip", "modules=" + sim.getModules().size(), ops -> {
+                for (int i = 0; i < ops; i++) {
+                    String s = XMLWriter.writeString(sim, sim.getModules(), sim.getLinks());
+                    Sim copy = new Sim();
+                    XMLReader.readString(xml, copy);
+                    sink = s.length() + copy.getModules().size();
+                }
+            });
+        }
+
+        // Linking to the head of a chain, which is checked end to end for loops
+        for (final int length : new int[] {100, 1000}) {
+            if (!"link.create".contains(filter)) break;
+
+            Sim sim = new Sim();
+            final Port head = chain(sim, length);
+            final BaseModule src = newModule(sim, AvailableModules.SWITCH);
+            run("link.create", "chain=" + length, ops -> {
+                for (int i = 0; i < ops; i++) {
+                    Link l = Link.createLink(src.outputs.get(0), head, new StraightPath());
+                    l.src.link = null;
+                    l.targ.link = null;
+                }
+            });
+        }
+    }
+
+    /**
+     * Times a benchmark and prints its result
+     */
+    private static void run(String name, String param, Body body) throws Exception {
+        // Batches long enough that reading the clock doesn't count
+        int batch = 1;
+        while (true) {
+            long start = System.nanoTime();
+            body.run(batch);
+            if (System.nanoTime() - start > iterationNanos / 100 || batch >= 1 << 30) break;
+            batch *= 2;
+        }
+
+        for (int i = 0; i < warmups; i++) {
+            iteration(body, batch);
+        }
+
+        double[] scores = new double[measurements];
+        double mean = 0;
+        for (int i = 0; i < measurements; i++) {
+            scores[i] = iteration(body, batch);
+            mean += scores[i];
+        }
+        mean /= measurements;
+
+        double var = 0;
+        for (double s : scores) var += (s - mean) * (s - mean);
+        double stdev = measurements > 1 ? Math.sqrt(var / (measurements - 1)) : 0;
+
+        System.out.println(name + "," + param + ",avgt," + measurements + ","
+                + String.format("%.1f,%.1f", mean, stdev) + ",ns/op");
+    }
+
+    /**
+     * Runs whole batches for one iteration's time
+     * @return Mean time per operation, in nanoseconds
+     */
+    private static double iteration(Body body, int batch) throws Exception {
+        long ops = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            body.run(batch);
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return (double) elapsed / ops;
+    }
+
+    /**
+     * Generates a mixed design of roughly the given size in a new simulator
+     * @return The simulator
+     */
+    private static Sim newDesign(int size) {
+        Sim sim = new Sim();
+        DesignGenerator.generate(sim, null, size, 1);
+        return sim;
+    }
+
+    /**
+     * Builds a chain of adders
+     * @return The first adder's free input
+     */
+    private static Port chain(Sim sim, int length) {
+        sim.beginDeferPropagations();
+        try {
+            BaseModule first = newModule(sim, AvailableModules.ADDSUB);
+            BaseModule last = first;
+            for (int i = 1; i < length; i++) {
+                BaseModule next = newModule(sim, AvailableModules.ADDSUB);
+                link(sim, last.outputs.get(0), next.inputs.get(0));
+                last = next;
+            }
+            return first.inputs.get(0);
+        }
+        finally {
+            sim.endDeferPropagations();
+        }
+    }
+
+    private static BaseModule newModule(Sim sim, AvailableModules type) {
+        BaseModule m = (BaseModule) type.getSrcModule().createNew();
+        sim.addEntity(m);
+        return m;
+    }
+
+    private static void link(Sim sim, Port a, Port b) {
+        Link l = Link.createLink(a, b, new StraightPath());
+        sim.addLink(l);
+        sim.propagate(l.targ.owner);
+    }
+
+}
@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.modsim.modules.parts.Port;
-import com.modsim.Main;
 
 /**
  * Manages a path consisting of connected bezier curves
@@ -134,9 +133,9 @@ public class BezierPath extends Path {
 		Vec2 c1;
 
 		if (p.type == Port.CTRL || p.type == Port.CLOCK)
-			c1 = new Vec2(p.side * Main.sim.grid * 2, 0);
+			c1 = new Vec2(p.side * p.owner.getSim().grid * 2, 0);
 		else
-			c1 = new Vec2(0, p.side * Main.sim.grid * 2);
+			c1 = new Vec2(0, p.side * p.owner.getSim().grid * 2);
 
 		c1.add(p.getDisplayPos());
 		c1 = p.owner.objToWorld(c1);
@@ -161,9 +160,9 @@ public class BezierPath extends Path {
 		Vec2 c1;
 
 		if (p.type == Port.CTRL || p.type == Port.CLOCK)
-			c1 = new Vec2(p.side*Main.sim.grid*2, 0);
+			c1 = new Vec2(p.side*p.owner.getSim().grid*2, 0);
 		else
-			c1 = new Vec2(0, p.side*Main.sim.grid*2);
+			c1 = new Vec2(0, p.side*p.owner.getSim().grid*2);
 
 		c1.add(p.getDisplayPos());
 		c1 = p.owner.objToWorld(c1);
@@ -283,7 +282,7 @@ public class BezierPath extends Path {
 	public boolean removePt() {
 		if (ctrlPts.size() > 0) {
 			CtrlPt pt = ctrlPts.remove(ctrlPts.size() - 1);
-			Main.sim.removeEntity(pt);
+			if (pt.getSim() != null) pt.getSim().removeEntity(pt);
 			calcCurves();
 			return true;
 		}
@@ -297,7 +296,7 @@ public class BezierPath extends Path {
 	 */
     public void removePt(CtrlPt ctrlPt) {
         ctrlPts.remove(ctrlPt);
-        Main.sim.removeEntity(ctrlPt);
+        if (ctrlPt.getSim() != null) ctrlPt.getSim().removeEntity(ctrlPt);
         calcCurves();
     }
 
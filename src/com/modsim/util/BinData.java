@@ -233,6 +233,70 @@ public class BinData {
         mask = v.mask;
     }
 
+    /**
+     * Packs into a single int as (mask << 4) | val.
+     * Ports store their values packed, so hot code can move data around
+     * without allocating.
+     */
+    public int getPacked() {
+        return ((mask & 0xF) << 4) | (val & 0xF);
+    }
+
+    /**
+     * Set to match given packed data
+     * @param p Data packed as (mask << 4) | val
+     */
+    public void setPacked(int p) {
+        val = (byte) (p & 0xF);
+        mask = (byte) ((p >> 4) & 0xF);
+    }
+
+    /**
+     * New binary data from packed data
+     * @param p Data packed as (mask << 4) | val
+     */
+    public static BinData fromPacked(int p) {
+        BinData d = new BinData();
+        d.setPacked(p);
+        return d;
+    }
+
+    /**
+     * Packs an unsigned binary number, as setUInt
+     */
+    public static int packUInt(int n) {
+        return 0xF0 | (n & 0xF);
+    }
+
+    /**
+     * Retrieve a bit of packed data, as getBit
+     * @param p Packed data
+     * @param bit Bit index
+     * @return Bit value (0, 1, or NOCON)
+     */
+    public static byte packedBit(int p, int bit) {
+        if (((p >> (bit + 4)) & 1) == 0) return NOCON;
+        return (byte) ((p >> bit) & 1);
+    }
+
+    /**
+     * Equality test on packed data, as equals
+     */
+    public static boolean packedEquals(int a, int b) {
+        return (a & (0xF0 | (a >> 4))) == (b & (0xF0 | (b >> 4)));
+    }
+
+    /**
+     * Pull resolution on packed data, as resolvePull
+     * @param p Packed data
+     * @param pull Packed pull value
+     * @return Packed data with NOCON bits set from pull
+     */
+    public static int packedResolvePull(int p, int pull) {
+        int m = (p >> 4) & 0xF;
+        return 0xF0 | (p & m) | (~m & pull & 0xF);
+    }
+
     public static int mergeBits(byte b0, byte b1) {
         if (b0 == 2 && b1 == 2) {
             return 2;
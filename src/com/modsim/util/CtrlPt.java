@@ -4,7 +4,6 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 
-import com.modsim.Main;
 import com.modsim.simulator.PickableEntity;
 import com.modsim.operations.DeleteOperation;
 
@@ -89,7 +88,7 @@ public class CtrlPt extends PickableEntity {
     public void delete() {
         DeleteOperation deleteOp = new DeleteOperation(this, parent.ctrlPts.indexOf(this));
         parent.removePt(this);
-        Main.opStack.pushOp(deleteOp);
+        getSim().opStack.pushOp(deleteOp);
     }
 
     @Override
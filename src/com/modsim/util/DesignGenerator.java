@@ -0,0 +1,475 @@
+package com.modsim.util;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.modsim.modules.BaseModule;
+import com.modsim.modules.BaseModule.AvailableModules;
+import com.modsim.modules.Link;
+import com.modsim.modules.NRAM;
+import com.modsim.modules.parts.Port;
+import com.modsim.modules.parts.Switch;
+import com.modsim.simulator.Sim;
+
+/**
+ * Builds synthetic designs for load testing: ripple adders, register files,
+ * multiplexer and demultiplexer trees, fanout chains and small CPU-style
+ * datapaths, in any number. Blocks are fed from free-running counters so
+ * that every part of the design changes as the clock runs, and share one
+ * two-phase clock through trees of fanouts.
+ *
+ * Build calls must be made between the simulation's
+ * beginDeferPropagations() and endDeferPropagations(), as generate() does.
+ */
+public class DesignGenerator {
+
+    private static final String USAGE =
+            "Usage: DesignGenerator <out.modsim> [-modules <n>] [-block <name>] [-seed <n>]\n"
+            + "  -modules  Approximate number of modules to generate (default 1000)\n"
+            + "  -block    Only generate one kind of block: adder, regfile, mux, demux, fanout or datapath\n"
+            + "  -seed     Random seed (default 1)";
+
+    /**
+     * Blocks the generator can build
+     */
+    public enum Block {
+        ADDER("adder"),
+        REGISTER_FILE("regfile"),
+        MUX_TREE("mux"),
+        DEMUX_TREE("demux"),
+        FANOUT_CHAIN("fanout"),
+        DATAPATH("datapath");
+
+        private final String name;
+
+        Block(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return The block with the given short name, or null
+         */
+        public static Block forName(String name) {
+            for (Block b : values()) {
+                if (b.name.equals(name)) return b;
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // Layout: modules are placed left to right in rows of cells, each block
+    // starting a new row
+    private static final int CELL = 200;
+    private static final int COLUMNS = 40;
+    private static final int COUNTER_CELLS = 8;
+    private static final int COUNTERS_PER_ROW = COLUMNS / COUNTER_CELLS;
+
+    private final Sim sim;
+    private final Random rng;
+
+    // Free outputs of the clock's two phases
+    private final Deque<Port> phase1 = new ArrayDeque<>();
+    private final Deque<Port> phase2 = new ArrayDeque<>();
+
+    // Free outputs that change as the clock runs
+    private final Deque<Port> sources = new ArrayDeque<>();
+
+    private int row = 0, column = 0;
+    private int counters = 0;
+
+    /**
+     * Creates a generator, and adds the clock
+     * @param sim Simulation to add modules to
+     * @param seed Random seed
+     */
+    public DesignGenerator(Sim sim, long seed) {
+        this.sim = sim;
+        rng = new Random(seed);
+
+        BaseModule clock = add(AvailableModules.CLOCK);
+        phase1.add(clock.outputs.get(0));
+        phase2.add(clock.outputs.get(1));
+    }
+
+    /**
+     * Generates a design
+     * @param sim Simulation to add it to
+     * @param block Kind of block to build, or null for a mix
+     * @param modules Approximate number of modules wanted
+     * @param seed Random seed
+     */
+    public static void generate(Sim sim, Block block, int modules, long seed) {
+        sim.beginDeferPropagations();
+        try {
+            new DesignGenerator(sim, seed).fill(block, modules);
+        }
+        finally {
+            sim.endDeferPropagations();
+        }
+    }
+
+    /**
+     * Adds blocks of random sizes until the design has the number of modules
+     * wanted
+     * @param block Kind of block to build, or null for a mix
+     * @param modules Approximate number of modules wanted
+     */
+    public void fill(Block block, int modules) {
+        Block[] blocks = Block.values();
+        while (sim.getModules().size() < modules) {
+            Block b = block != null ? block : blocks[rng.nextInt(blocks.length)];
+            switch (b) {
+                case ADDER:
+                    rippleAdder(4 + rng.nextInt(5));
+                    break;
+                case REGISTER_FILE:
+                    registerFile(4 + rng.nextInt(13));
+                    break;
+                case MUX_TREE:
+                    muxTree(1 + rng.nextInt(3));
+                    break;
+                case DEMUX_TREE:
+                    demuxTree(1 + rng.nextInt(3));
+                    break;
+                case FANOUT_CHAIN:
+                    fanoutChain(8 + rng.nextInt(25));
+                    break;
+                default:
+                    datapath();
+            }
+        }
+    }
+
+    /**
+     * Adds a ripple-carry adder, its carries chained through the adders'
+     * control ports, storing its result in registers
+     * @param width Number of 4-bit stages
+     */
+    public void rippleAdder(int width) {
+        newRow();
+        Port carry = constant(0);
+        for (int i = 0; i < width; i++) {
+            BaseModule add = add(AvailableModules.ADDSUB);
+            BaseModule result = add(AvailableModules.REGISTER);
+            link(source(), add.inputs.get(0));
+            link(source(), add.inputs.get(1));
+            link(carry, add.inputs.get(2));
+            link(add.outputs.get(0), result.inputs.get(0));
+            link(clock(phase1), result.inputs.get(1));
+            carry = add.outputs.get(2);
+        }
+    }
+
+    /**
+     * Adds a register file: a shared write bus, and a read port through a
+     * multiplexer tree
+     * @param registers Number of registers
+     */
+    public void registerFile(int registers) {
+        newRow();
+        Deque<Port> bus = new ArrayDeque<>();
+        bus.add(source());
+
+        List<Port> outputs = new ArrayList<>();
+        for (int i = 0; i < registers; i++) {
+            BaseModule r = add(AvailableModules.REGISTER);
+            link(branch(bus), r.inputs.get(0));
+            link(clock(phase1), r.inputs.get(1));
+            outputs.add(r.outputs.get(0));
+        }
+        select(outputs);
+    }
+
+    /**
+     * Adds a tree of multiplexers selecting one of 4^depth inputs
+     * @param depth Levels of multiplexers
+     */
+    public void muxTree(int depth) {
+        newRow();
+        List<Port> leaves = new ArrayList<>();
+        for (int i = 1 << (2 * depth); i > 0; i--) {
+            leaves.add(source());
+        }
+        select(leaves);
+    }
+
+    /**
+     * Adds a tree of demultiplexers routing one input to 4^depth outputs
+     * @param depth Levels of demultiplexers
+     */
+    public void demuxTree(int depth) {
+        newRow();
+        List<Port> level = new ArrayList<>();
+        level.add(source());
+        for (int d = 0; d < depth; d++) {
+            List<Port> next = new ArrayList<>();
+            Port control = source();
+            for (Port in : level) {
+                BaseModule demux = add(AvailableModules.DEMUX);
+                link(in, demux.inputs.get(0));
+                link(control, demux.inputs.get(1));
+                control = demux.outputs.get(4);
+                next.addAll(demux.outputs.subList(0, 4));
+            }
+            level = next;
+        }
+    }
+
+    /**
+     * Adds a chain of fanouts, each passing the signal on to the next
+     * @param length Number of fanouts
+     */
+    public void fanoutChain(int length) {
+        newRow();
+        Port signal = source();
+        for (int i = 0; i < length; i++) {
+            BaseModule fan = add(AvailableModules.FANOUT);
+            link(signal, fan.inputs.get(0));
+            signal = fan.outputs.get(3);
+        }
+    }
+
+    /**
+     * Adds a small CPU-style datapath: a program counter addressing an NRAM
+     * module, whose output selects and supplies the ALU's operand, and an
+     * accumulator that is written back to memory. Writes are gated onto the
+     * first clock phase, when the address and data are steady.
+     */
+    public void datapath() {
+        newRow();
+        Port pc = counter(1);
+
+        NRAM ram = (NRAM) add(AvailableModules.RAM);
+        HashMap<String, String> data = new HashMap<>();
+        data.put("write_jumper", "1");
+        ram.dataIn(data);
+        for (int a = 0; a < 16; a++) {
+            ram.write(a, new BinData(rng.nextInt(16)), new BinData(rng.nextInt(16)));
+        }
+
+        BaseModule gate = add(AvailableModules.LOGIC);
+        BaseModule mux = add(AvailableModules.MUX);
+        BaseModule alu = add(AvailableModules.ADDSUB);
+        BaseModule acc1 = add(AvailableModules.REGISTER);
+        BaseModule acc2 = add(AvailableModules.REGISTER);
+        BaseModule accOut = add(AvailableModules.FANOUT);
+
+        // Memory: addressed by the PC, writing on phase 1 when a counter says so
+        link(clock(phase1), gate.inputs.get(0));
+        link(source(), gate.inputs.get(1));
+        link(constant(1), gate.inputs.get(2));
+        link(gate.outputs.get(0), ram.inputs.get(2));
+        link(pc, ram.inputs.get(3));
+        link(accOut.outputs.get(1), ram.inputs.get(1));
+        link(accOut.outputs.get(2), ram.inputs.get(0));
+
+        // Operand: memory, or another counter when the high nibble says so
+        link(ram.outputs.get(1), mux.inputs.get(0));
+        link(source(), mux.inputs.get(1));
+        link(source(), mux.inputs.get(2));
+        link(source(), mux.inputs.get(3));
+        link(ram.outputs.get(0), mux.inputs.get(4));
+
+        // ALU and accumulator
+        link(accOut.outputs.get(0), alu.inputs.get(0));
+        link(mux.outputs.get(0), alu.inputs.get(1));
+        link(constant(0), alu.inputs.get(2));
+        link(alu.outputs.get(0), acc1.inputs.get(0));
+        link(acc1.outputs.get(0), acc2.inputs.get(0));
+        link(acc2.outputs.get(0), accOut.inputs.get(0));
+        link(clock(phase1), acc1.inputs.get(1));
+        link(clock(phase2), acc2.inputs.get(1));
+    }
+
+    /**
+     * Selects one of a set of signals through a tree of multiplexers, each
+     * level's select chained through the multiplexers' control ports
+     * @return The selected signal
+     */
+    private Port select(List<Port> inputs) {
+        List<Port> level = inputs;
+        while (level.size() > 1) {
+            List<Port> next = new ArrayList<>();
+            Port control = source();
+            for (int i = 0; i < level.size(); i += 4) {
+                BaseModule gate = add(AvailableModules.LOGIC);
+        BaseModule mux = add(AvailableModules.MUX);
+                for (int j = 0; j < 4 && i + j < level.size(); j++) {
+                    link(level.get(i + j), mux.inputs.get(j));
+                }
+                link(control, mux.inputs.get(4));
+                control = mux.outputs.get(1);
+                next.add(mux.outputs.get(0));
+            }
+            level = next;
+        }
+        return level.get(0);
+    }
+
+    /**
+     * Takes a signal that changes as the clock runs, adding a counter when
+     * they've all been used
+     */
+    private Port source() {
+        if (sources.isEmpty()) {
+            sources.add(counter(1 + rng.nextInt(15)));
+        }
+        return branch(sources);
+    }
+
+    /**
+     * Adds a counter: an adder and two registers clocked on opposite phases
+     * @param step Amount counted up by each cycle
+     * @return The count
+     */
+    private Port counter(int step) {
+        // Counters get rows of their own, above the blocks they feed
+        int blockRow = row, blockColumn = column;
+        row = -1 - counters / COUNTERS_PER_ROW;
+        column = counters % COUNTERS_PER_ROW * COUNTER_CELLS;
+        counters++;
+
+        BaseModule add = add(AvailableModules.ADDSUB);
+        BaseModule r1 = add(AvailableModules.REGISTER);
+        BaseModule r2 = add(AvailableModules.REGISTER);
+        BaseModule fan = add(AvailableModules.FANOUT);
+
+        link(constant(step), add.inputs.get(1));
+        link(add.outputs.get(0), r1.inputs.get(0));
+        link(r1.outputs.get(0), r2.inputs.get(0));
+        link(r2.outputs.get(0), fan.inputs.get(0));
+        link(fan.outputs.get(0), add.inputs.get(0));
+        link(clock(phase1), r1.inputs.get(1));
+        link(clock(phase2), r2.inputs.get(1));
+
+        row = blockRow;
+        column = blockColumn;
+
+        sources.add(fan.outputs.get(1));
+        sources.add(fan.outputs.get(2));
+        return fan.outputs.get(3);
+    }
+
+    /**
+     * Adds a switch module set to a value
+     * @return Its output
+     */
+    private Port constant(int value) {
+        BaseModule sw = add(AvailableModules.SWITCH);
+        for (int b = 0; b < 4; b++) {
+            ((Switch) sw.parts.get(3 - b)).setEnabled((value & (1 << b)) != 0);
+        }
+        sim.propagate(sw);
+        return sw.outputs.get(0);
+    }
+
+    /**
+     * Takes a clock output, branching the phase's tree when needed
+     */
+    private Port clock(Deque<Port> phase) {
+        return branch(phase);
+    }
+
+    /**
+     * Takes one of a set of outputs carrying the same signal, adding a fanout
+     * to the last one rather than using it up
+     */
+    private Port branch(Deque<Port> signal) {
+        if (signal.size() == 1) {
+            BaseModule fan = add(AvailableModules.FANOUT);
+            link(signal.poll(), fan.inputs.get(0));
+            signal.addAll(fan.outputs);
+        }
+        return signal.poll();
+    }
+
+    private void newRow() {
+        if (column != 0) row++;
+        column = 0;
+    }
+
+    /**
+     * Creates a module in the next cell of the layout and adds it to the
+     * simulation
+     */
+    private BaseModule add(AvailableModules type) {
+        BaseModule m = (BaseModule) type.getSrcModule().createNew();
+        if (column == COLUMNS) newRow();
+        m.pos.set(column++ * CELL, row * CELL);
+        m.enabled = true;
+        sim.addEntity(m);
+        return m;
+    }
+
+    private void link(Port a, Port b) {
+        Link l = Link.createLink(a, b, new StraightPath());
+        if (l == null) {
+            throw new IllegalStateException("Generated an invalid link");
+        }
+        sim.addLink(l);
+        sim.propagate(l.targ.owner);
+    }
+
+    /**
+     * Generates a design and saves it
+     * @param args Output file followed by options
+     */
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String out = null;
+        int modules = 1000;
+        Block block = null;
+        long seed = 1;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-modules":
+                        modules = Integer.parseInt(args[++i]);
+                        break;
+                    case "-block":
+                        block = Block.forName(args[++i]);
+                        if (block == null) throw new IllegalArgumentException(args[i]);
+                        break;
+                    case "-seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        if (out != null || args[i].startsWith("-")) throw new IllegalArgumentException(args[i]);
+                        out = args[i];
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            out = null;
+        }
+
+        if (out == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+
+        Sim sim = new Sim();
+
+        long start = System.nanoTime();
+        generate(sim, block, modules, seed);
+        long built = System.nanoTime();
+        XMLWriter.writeFile(new File(out), sim);
+        long saved = System.nanoTime();
+
+        System.out.println("Generated " + sim.getModules().size() + " modules and " + sim.getLinks().size()
+                + " links in " + (built - start) / 1000000 + " ms, saved in " + (saved - built) / 1000000 + " ms");
+    }
+
+}
@@ -3,82 +3,185 @@ package com.modsim.util;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 
-import javax.swing.JOptionPane;
 
 import com.modsim.modules.NRAM;
+import com.modsim.simulator.Sim;
 import com.modsim.Main;
 
+/**
+ * Loads hex format data into NRAM modules. The data is whitespace-separated
+ * bytes of two hex digits, written to consecutive addresses from 0. A byte
+ * may be prefixed with a decimal repeat count, as in 16x00. The data must fit
+ * within the memory.
+ */
 public class HexReader {
 
+    // Longest token accepted - a 5-digit repeat count, 'x' and two digits,
+    // with room to spare
+    private static final int MAX_TOKEN = 16;
+
+    /**
+     * A problem with the format of hex data, and where it is
+     */
+    public static class FormatException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int line;
+        public final int column;
+
+        public FormatException(int line, int column, String message) {
+            super("line " + line + ", column " + column + ": " + message);
+            this.line = line;
+            this.column = column;
+        }
+    }
+
     /**
      * Reads a hex format file
      */
     public static void readFile(File hexFile, NRAM nram) {
         if (nram == null) {
-            JOptionPane.showMessageDialog(null, "No NRAM module present");
+            Main.showMessage("No NRAM module present");
             return;
         }
 
-        try {
-            nram.clear();
-            BufferedReader in = new BufferedReader(new FileReader(hexFile));
-
-            // Read in the full file
-            String line;
-            String file = "";
-            while ((line = in.readLine()) != null) {
-                file += line + " ";
-            }
-            in.close();
-
-            readString(file, nram);
+        nram.clear();
+        try (BufferedReader in = new BufferedReader(new FileReader(hexFile))) {
+            read(in, nram);
         }
-        catch (Exception e) {
+        catch (FormatException e) {
+            Main.showMessage("Invalid hex file " + hexFile.getName() + ", " + e.getMessage());
+        }
+        catch (IOException e) {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(null, "Unable to read hex file: " + e.getMessage());
+            Main.showMessage("Unable to read hex file: " + e.getMessage());
         }
+        propagate(nram);
     }
 
     public static void readString(String store, NRAM nram) {
         try {
-            String[] chopped = store.split("( |\t)+");
-
-            int adr = 0;
-            for (String s : chopped) {
-                // Skip isEmpty strings
-                if (s.equals("")) continue;
-
-                // Multiple entries
-                int rpt = 1;
-                if (s.contains("x")) {
-                    String[] pair = s.split("x");
-                    rpt = Integer.parseInt(pair[0]);
-                    s = pair[1];
-                }
+            read(new StringReader(store), nram);
+        }
+        catch (IOException e) {
+            Main.showMessage("Invalid hex string, " + e.getMessage());
+        }
+        propagate(nram);
+    }
 
-                // Flag invalid formatting
-                if (s.length() != 2) {
-                    throw new Exception("File load requires hex codes 2 digits long");
-                }
+    /**
+     * Reads hex format data into an NRAM module, from address 0. Runs of a
+     * repeated byte are written in one go. Data before any error is kept.
+     * @param in Source of the data - read in blocks, so needn't be buffered
+     * @param nram Module to write to
+     * @throws FormatException If the data is badly formed
+     * @throws IOException If the data couldn't be read
+     */
+    public static void read(Reader in, NRAM nram) throws IOException {
+        char[] buf = new char[8192];
+        char[] token = new char[MAX_TOKEN];
+        int tokenLen = 0, tokenLine = 0, tokenCol = 0;
+        int line = 1, col = 0;
 
-                int n1 = Integer.parseInt(s.substring(0, 1), 16);
-                int n2 = Integer.parseInt(s.substring(1), 16);
+        // Single bytes are gathered and written together
+        byte[] pending = new byte[4096];
+        int pendingLen = 0;
+        int adr = 0;
 
-                // Support repeated entries
-                for (int i = 0; i < rpt; i++) {
-                    nram.write(adr, new BinData(n2), new BinData(n1));
-                    adr++;
+        try {
+            while (true) {
+                int n = in.read(buf);
+                if (n < 0) {
+                    // End of data ends the last token
+                    buf[0] = ' ';
+                }
+                for (int i = 0; i < Math.max(n, 1); i++) {
+                    char c = buf[i];
+                    col++;
+
+                    if (!Character.isWhitespace(c)) {
+                        if (tokenLen == 0) {
+                            tokenLine = line;
+                            tokenCol = col;
+                        }
+                        if (tokenLen == MAX_TOKEN) {
+                            throw new FormatException(tokenLine, tokenCol, "entry too long");
+                        }
+                        token[tokenLen++] = c;
+                        continue;
+                    }
+                    if (c == '\n') {
+                        line++;
+                        col = 0;
+                    }
+                    if (tokenLen == 0) continue;
+
+                    // Parse the token: [count x] HH
+                    int count = 1;
+                    int start = 0;
+                    for (int k = 0; k < tokenLen; k++) {
+                        if (token[k] == 'x') {
+                            count = 0;
+                            for (int d = 0; d < k; d++) {
+                                int digit = Character.digit(token[d], 10);
+                                count = count * 10 + digit;
+                                if (digit < 0 || count > NRAM.MAX_ADDR + 1) {
+                                    throw new FormatException(tokenLine, tokenCol, "invalid repeat count '" + new String(token, 0, k) + "'");
+                                }
+                            }
+                            if (k == 0) {
+                                throw new FormatException(tokenLine, tokenCol, "missing repeat count before 'x'");
+                            }
+                            start = k + 1;
+                            break;
+                        }
+                    }
+                    int hi = tokenLen - start == 2 ? Character.digit(token[start], 16) : -1;
+                    int lo = tokenLen - start == 2 ? Character.digit(token[start + 1], 16) : -1;
+                    if (hi < 0 || lo < 0) {
+                        throw new FormatException(tokenLine, tokenCol + start,
+                                "expected two hex digits, found '" + new String(token, start, tokenLen - start) + "'");
+                    }
+                    int value = hi << 4 | lo;
+                    tokenLen = 0;
+
+                    if (count > NRAM.MAX_ADDR + 1 - adr) {
+                        throw new FormatException(tokenLine, tokenCol, "data runs past the last address");
+                    }
+
+                    if (count == 1) {
+                        if (pendingLen == pending.length) {
+                            nram.writeBytes(adr - pendingLen, pending, 0, pendingLen);
+                            pendingLen = 0;
+                        }
+                        pending[pendingLen++] = (byte) value;
+                    }
+                    else {
+                        nram.writeBytes(adr - pendingLen, pending, 0, pendingLen);
+                        pendingLen = 0;
+                        nram.fill(adr, count, value);
+                    }
+                    adr += count;
                 }
+                if (n < 0) break;
             }
-
-            // Propagate change
-            Main.sim.propagate(nram);
         }
-        catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(null, "Invalid hex string: "+e.getMessage());
+        finally {
+            nram.writeBytes(adr - pendingLen, pending, 0, pendingLen);
         }
     }
 
+    /**
+     * Propagates a change - a module still being loaded is propagated once
+     * it's added to a simulation
+     */
+    private static void propagate(NRAM nram) {
+        Sim sim = nram.getSim();
+        if (sim != null) sim.propagate(nram);
+    }
+
 }
@@ -2,8 +2,8 @@ package com.modsim.util;
 
 import java.io.*;
 
-import javax.swing.JOptionPane;
 
+import com.modsim.Main;
 import com.modsim.modules.NRAM;
 
 public class HexWriter {
@@ -13,7 +13,7 @@ public class HexWriter {
      */
     public static void writeFile(File hexFile, NRAM nram) {
         if (nram == null) {
-            JOptionPane.showMessageDialog(null, "No NRAM module present");
+            Main.showMessage("No NRAM module present");
             return;
         }
 
@@ -24,7 +24,7 @@ public class HexWriter {
         }
         catch (IOException e) {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(null, "Hex file IO failure: "+e.getMessage());
+            Main.showMessage("Hex file IO failure: "+e.getMessage());
         }
     }
 
@@ -47,8 +47,7 @@ public class HexWriter {
                 int num = 0;
                 int seekAdr = adr;
 
-                BinData[] bits = nram.read(adr);
-                newVal = bits[0].getUInt() | (bits[1].getUInt() << 4);
+                newVal = toByte(nram.readPacked(adr));
 
                 // Seek out repeated bytes
                 do {
@@ -56,8 +55,7 @@ public class HexWriter {
                     val = newVal;
 
                     if (seekAdr <= NRAM.MAX_ADDR) {
-                        bits = nram.read(seekAdr);
-                        newVal = bits[0].getUInt() | (bits[1].getUInt() << 4);
+                        newVal = toByte(nram.readPacked(seekAdr));
                     }
                     else newVal = 0;
 
@@ -88,9 +86,16 @@ public class HexWriter {
         }
         catch (Exception e) {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(null, "Unable to write hex file: " + e.getMessage());
+            Main.showMessage("Unable to write hex file: " + e.getMessage());
             return "";
         }
     }
 
+    /**
+     * @return An address's byte, from its two locations packed as NRAM.readPacked
+     */
+    private static int toByte(int packed) {
+        return (packed & 0xF) | ((packed >> 8) & 0xF) << 4;
+    }
+
 }
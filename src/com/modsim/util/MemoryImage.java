@@ -0,0 +1,257 @@
+package com.modsim.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import com.modsim.modules.NRAM;
+import com.modsim.simulator.Sim;
+
+/**
+ * Imports and exports NRAM contents as the memory images an assembler
+ * produces: raw binary, one byte per address, and Intel HEX. Files are mapped
+ * and transferred to and from the store in bulk, rather than going through
+ * the hex format.
+ *
+ * Imports write over the addresses they cover and leave the rest as they
+ * were. An address range runs from a base address for a number of bytes, and
+ * is cut short at the end of memory.
+ */
+public class MemoryImage {
+
+    // Data bytes in each record written to an Intel HEX file
+    private static final int RECORD_BYTES = 16;
+
+    // Intel HEX record types
+    private static final int DATA = 0x00;
+    private static final int END_OF_FILE = 0x01;
+    private static final int SEGMENT_ADDRESS = 0x02;
+    private static final int START_SEGMENT = 0x03;
+    private static final int LINEAR_ADDRESS = 0x04;
+    private static final int START_LINEAR = 0x05;
+
+    /**
+     * Loads a raw binary file into consecutive addresses
+     * @param base Address of the file's first byte
+     * @param length Most bytes to load, or -1 for the whole file
+     * @return Number of bytes loaded
+     * @throws IOException If the file couldn't be read
+     */
+    public static int readBinary(File file, NRAM nram, int base, int length) throws IOException {
+        checkBase(base);
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = Math.min(in.size(), NRAM.MAX_ADDR + 1 - base);
+            if (length >= 0) size = Math.min(size, length);
+
+            MappedByteBuffer image = in.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            nram.writeBytes(base, image);
+            propagate(nram);
+            return (int) size;
+        }
+    }
+
+    /**
+     * Saves consecutive addresses to a raw binary file
+     * @param base First address saved
+     * @param length Number of bytes to save, or -1 for every address from base
+     * @throws IOException If the file couldn't be written
+     */
+    public static void writeBinary(File file, NRAM nram, int base, int length) throws IOException {
+        checkBase(base);
+        ByteBuffer image = ByteBuffer.allocate(rangeLength(base, length));
+        nram.readBytes(base, image);
+        image.flip();
+        write(file, image);
+    }
+
+    /**
+     * Loads an Intel HEX file. Data, end of file and extended address records
+     * are understood, and start address records ignored.
+     * @param offset Added to the address of each record
+     * @return Number of bytes loaded
+     * @throws HexReader.FormatException If the file is badly formed, or has
+     * data outside memory. Records before the bad one are kept.
+     * @throws IOException If the file couldn't be read
+     */
+    public static int readIntelHex(File file, NRAM nram, int offset) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer text = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            try {
+                return readIntelHex(text, nram, offset);
+            }
+            finally {
+                propagate(nram);
+            }
+        }
+    }
+
+    /**
+     * Loads Intel HEX text from a buffer, as readIntelHex(File...)
+     */
+    static int readIntelHex(ByteBuffer text, NRAM nram, int offset) throws HexReader.FormatException {
+        byte[] record = new byte[255 + 5];
+        int line = 1;
+        int lineStart = text.position();
+        int extended = 0;
+        int loaded = 0;
+
+        while (text.hasRemaining()) {
+            // Skip to the start of the record, allowing blank lines
+            int c = text.get();
+            while (c != ':') {
+                if (c == '\n') {
+                    line++;
+                    lineStart = text.position();
+                }
+                else if (!Character.isWhitespace(c)) {
+                    throw new HexReader.FormatException(line, text.position() - lineStart, "expected ':' to start a record");
+                }
+                if (!text.hasRemaining()) return loaded;
+                c = text.get();
+            }
+
+            // Length, address, type, data and checksum, each byte two digits
+            int count = 0;
+            int sum = 0;
+            do {
+                int col = text.position() - lineStart + 1;
+                int hi = text.remaining() >= 2 ? Character.digit(text.get(), 16) : -1;
+                int lo = hi >= 0 ? Character.digit(text.get(), 16) : -1;
+                if (hi < 0 || lo < 0) {
+                    throw new HexReader.FormatException(line, col, count == 0 ? "missing record length" : "record shorter than its length");
+                }
+                record[count++] = (byte) (hi << 4 | lo);
+                sum += hi << 4 | lo;
+            } while (count < (record[0] & 0xFF) + 5);
+
+            if ((sum & 0xFF) != 0) {
+                throw new HexReader.FormatException(line, 1, "checksum mismatch");
+            }
+
+            int length = record[0] & 0xFF;
+            int address = (record[1] & 0xFF) << 8 | (record[2] & 0xFF);
+            int type = record[3];
+            switch (type) {
+                case DATA:
+                    long start = (long) extended + address + offset;
+                    if (start < 0 || start + length > NRAM.MAX_ADDR + 1) {
+                        throw new HexReader.FormatException(line, 4, String.format("data at %X is outside memory", start));
+                    }
+                    nram.writeBytes((int) start, record, 4, length);
+                    loaded += length;
+                    break;
+                case END_OF_FILE:
+                    return loaded;
+                case SEGMENT_ADDRESS:
+                case LINEAR_ADDRESS:
+                    if (length != 2) {
+                        throw new HexReader.FormatException(line, 2, "address record has length " + length);
+                    }
+                    int value = (record[4] & 0xFF) << 8 | (record[5] & 0xFF);
+                    extended = type == SEGMENT_ADDRESS ? value << 4 : value << 16;
+                    break;
+                case START_SEGMENT:
+                case START_LINEAR:
+                    break;
+                default:
+                    throw new HexReader.FormatException(line, 8, String.format("unknown record type %02X", type & 0xFF));
+            }
+
+            // Nothing more on the line
+            while (text.hasRemaining()) {
+                c = text.get();
+                if (c == '\n') {
+                    line++;
+                    lineStart = text.position();
+                    break;
+                }
+                if (!Character.isWhitespace(c)) {
+                    throw new HexReader.FormatException(line, text.position() - lineStart, "unexpected text after record");
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Saves consecutive addresses to an Intel HEX file, in data records
+     * addressed from base
+     * @param base First address saved
+     * @param length Number of bytes to save, or -1 for every address from base
+     * @throws IOException If the file couldn't be written
+     */
+    public static void writeIntelHex(File file, NRAM nram, int base, int length) throws IOException {
+        checkBase(base);
+        ByteBuffer data = ByteBuffer.allocate(rangeLength(base, length));
+        nram.readBytes(base, data);
+        data.flip();
+
+        // Each record is ':', 5 bytes of header and checksum, the data, CRLF
+        int records = (data.remaining() + RECORD_BYTES - 1) / RECORD_BYTES;
+        StringBuilder text = new StringBuilder(records * (1 + 10 + 2 * RECORD_BYTES + 2) + 13);
+        byte[] record = new byte[RECORD_BYTES];
+        int address = base;
+        while (data.hasRemaining()) {
+            int n = Math.min(RECORD_BYTES, data.remaining());
+            data.get(record, 0, n);
+            appendRecord(text, address, DATA, record, n);
+            address += n;
+        }
+        appendRecord(text, 0, END_OF_FILE, record, 0);
+
+        write(file, ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static void appendRecord(StringBuilder text, int address, int type, byte[] data, int n) {
+        int sum = n + (address >> 8) + (address & 0xFF) + type;
+        text.append(':');
+        appendByte(text, n);
+        appendByte(text, address >> 8);
+        appendByte(text, address);
+        appendByte(text, type);
+        for (int i = 0; i < n; i++) {
+            appendByte(text, data[i]);
+            sum += data[i] & 0xFF;
+        }
+        appendByte(text, -sum);
+        text.append("\r\n");
+    }
+
+    private static void appendByte(StringBuilder text, int b) {
+        text.append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)));
+        text.append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+    }
+
+    private static void write(File file, ByteBuffer data) throws IOException {
+        try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (data.hasRemaining()) {
+                out.write(data);
+            }
+        }
+    }
+
+    private static void checkBase(int base) {
+        if (base < 0 || base > NRAM.MAX_ADDR) {
+            throw new IllegalArgumentException(String.format("Base address %X is outside memory", base));
+        }
+    }
+
+    /**
+     * @return Length of a range, cut short at the end of memory
+     */
+    private static int rangeLength(int base, int length) {
+        int toEnd = NRAM.MAX_ADDR + 1 - base;
+        return length < 0 ? toEnd : Math.min(length, toEnd);
+    }
+
+    private static void propagate(NRAM nram) {
+        Sim sim = nram.getSim();
+        if (sim != null) sim.propagate(nram);
+    }
+
+}
@@ -2,9 +2,11 @@ package com.modsim.util;
 
 import com.modsim.modules.BaseModule;
 import com.modsim.modules.Link;
+import com.modsim.modules.NRAM;
 import com.modsim.modules.parts.Port;
 import com.modsim.Main;
 import com.modsim.simulator.PickableEntity;
+import com.modsim.simulator.Sim;
 import com.modsim.operations.CreateOperation;
 
 import java.util.ArrayList;
@@ -27,6 +29,51 @@ import java.nio.file.Paths;
  */
 public final class ModuleClipboard implements ClipboardOwner {
 
+    // The last copy made, while it's on the clipboard
+    private Copy copied = null;
+
+    /**
+     * A copy placed on the clipboard. Its XML leaves out the contents of NRAM
+     * modules, which are held as snapshots in order instead - pasted back into
+     * this program, the copies share the originals' pages and no memory is
+     * written out or parsed. Other programs are given the XML with the
+     * contents in full, written when they first ask for it.
+     */
+    private static final class Copy implements Transferable {
+        final String xml;
+        final List<NRAM.Snapshot> stores;
+        private String fullXML = null;
+
+        Copy(String xml, List<NRAM.Snapshot> stores) {
+            this.xml = xml;
+            this.stores = stores;
+        }
+
+        @Override
+        public DataFlavor[] getTransferDataFlavors() {
+            return new DataFlavor[] {DataFlavor.stringFlavor};
+        }
+
+        @Override
+        public boolean isDataFlavorSupported(DataFlavor flavor) {
+            return DataFlavor.stringFlavor.equals(flavor);
+        }
+
+        @Override
+        public synchronized Object getTransferData(DataFlavor flavor) throws UnsupportedFlavorException {
+            if (!isDataFlavorSupported(flavor)) throw new UnsupportedFlavorException(flavor);
+
+            if (fullXML == null) {
+                // Rebuilt in a simulation of its own, leaving the design alone
+                Sim scratch = new Sim();
+                XMLReader.readString(xml, scratch);
+                restoreStores(scratch.getModules(), stores);
+                fullXML = XMLWriter.writeString(scratch, scratch.getModules(), scratch.getLinks());
+            }
+            return fullXML;
+        }
+    }
+
     /**
      * Whether the clipboard has any items on it
      * @return True if the clipboard is isEmpty
@@ -90,8 +137,12 @@ public final class ModuleClipboard implements ClipboardOwner {
      * @throws Exception
      */
     public List<PickableEntity> paste() throws Exception {
-        
-        String xmlStr = getClipboardContents();
+        // Our own copy is used as it is, rather than as the text given to
+        // other programs
+        final Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+        final Copy own = copied != null && clipboard.getContents(null) == copied ? copied : null;
+
+        String xmlStr = own != null ? own.xml : getClipboardContents();
         if (xmlStr != null) {
             ResultData result = XMLReader.readString(xmlStr);
 
@@ -100,6 +151,16 @@ public final class ModuleClipboard implements ClipboardOwner {
 
             final List<PickableEntity> output = new ArrayList<>(modules);
 
+            if (own != null) {
+                Main.sim.lock.writeLock().lock();
+                try {
+                    restoreStores(modules, own.stores);
+                }
+                finally {
+                    Main.sim.lock.writeLock().unlock();
+                }
+            }
+
             // Add to the simulation
             for (final BaseModule m : modules) {
                 Main.opStack.pushOp(new CreateOperation(m));
@@ -147,7 +208,38 @@ public final class ModuleClipboard implements ClipboardOwner {
      * @param destLinks   (out) list of copied links
      */
     protected void doCopy(final List<BaseModule> src) {
-        setClipboardContents(XMLWriter.writeString(src, getAllLinks(src)));
+        final List<NRAM.Snapshot> stores = new ArrayList<>();
+        final String xml;
+        // Writing renumbers the entities, which takes the write lock - held
+        // throughout so the snapshots match the XML
+        Main.sim.lock.writeLock().lock();
+        try {
+            xml = XMLWriter.writeString(Main.sim, src, getAllLinks(src), false);
+            for (final BaseModule m : src) {
+                if (m instanceof NRAM) {
+                    stores.add(((NRAM) m).snapshot());
+                }
+            }
+        }
+        finally {
+            Main.sim.lock.writeLock().unlock();
+        }
+
+        copied = new Copy(xml, stores);
+        final Clipboard clipboard = Toolkit.getDefaultToolkit().getSystemClipboard();
+        clipboard.setContents(copied, this);
+    }
+
+    /**
+     * Gives NRAM modules, in order, the contents held by snapshots
+     */
+    private static void restoreStores(final List<BaseModule> modules, final List<NRAM.Snapshot> stores) {
+        int r = 0;
+        for (final BaseModule m : modules) {
+            if (m instanceof NRAM && r < stores.size()) {
+                ((NRAM) m).restore(stores.get(r++));
+            }
+        }
     }
 
     /**
@@ -155,7 +247,8 @@ public final class ModuleClipboard implements ClipboardOwner {
      */
     @Override
     public void lostOwnership(final Clipboard clipboard, final Transferable contents) {
-        // do nothing
+        // Lets go of the snapshots
+        if (contents == copied) copied = null;
     }
 
     /**
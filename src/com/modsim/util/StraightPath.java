@@ -5,7 +5,6 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.modsim.modules.parts.Port;
-import com.modsim.Main;
 
 /**
  * Manages a path consisting of connected bezier lines
@@ -228,7 +227,7 @@ public class StraightPath extends Path {
 	public boolean removePt() {
 		if (ctrlPts.size() > 0) {
 			CtrlPt pt = ctrlPts.remove(ctrlPts.size() - 1);
-			Main.sim.removeEntity(pt);
+			if (pt.getSim() != null) pt.getSim().removeEntity(pt);
 			calcCurves();
 			return true;
 		}
@@ -242,7 +241,7 @@ public class StraightPath extends Path {
 	 */
     public void removePt(CtrlPt ctrlPt) {
         ctrlPts.remove(ctrlPt);
-        Main.sim.removeEntity(ctrlPt);
+        if (ctrlPt.getSim() != null) ctrlPt.getSim().removeEntity(ctrlPt);
         calcCurves();
     }
 
@@ -1,11 +1,17 @@
 package com.modsim.util;
 
 import java.awt.geom.AffineTransform;
+import java.util.List;
+import java.util.Random;
 
 import com.modsim.modules.BaseModule;
+import com.modsim.modules.Register;
+import com.modsim.modules.SwitchInput;
 import com.modsim.modules.parts.*;
 import com.modsim.modules.ports.Input;
 import com.modsim.modules.ports.Output;
+import com.modsim.simulator.LaneSim;
+import com.modsim.simulator.Sim;
 
 public class Tests {
 
@@ -55,12 +61,27 @@ public class Tests {
             }
 
             System.out.print("  Unit test: ");
-            m.test();
+            testval(m.test(), true);
 
             System.out.println();
         }
 
 
+        // Bit-parallel lanes against the scalar simulator
+        System.out.println("Testing lane simulation against the scalar simulator:");
+        for (long seed = 1; seed <= 4; seed++) {
+            System.out.print("  Generated design " + seed + ": ");
+            testval(lanesMatch(seed, 300, 40), true);
+            System.out.println();
+        }
+
+        // Modules evaluated from the port values against their propagate()
+        System.out.println("Testing the compiled engine against the levelized engine:");
+        for (long seed = 1; seed <= 4; seed++) {
+            System.out.print("  Generated design " + seed + ": ");
+            testval(compiledMatches(seed, 300, 40), true);
+            System.out.println();
+        }
 
         if (!result) {
             System.err.println("Tests failed");
@@ -70,6 +91,131 @@ public class Tests {
         }
     }
 
+    /**
+     * Runs a generated design in every lane of a LaneSim, each lane with its
+     * own random switch settings, alongside a scalar copy of the design per
+     * lane with the same settings
+     * @return Whether every port and register of every lane matched its copy
+     * after every step
+     */
+    private static boolean lanesMatch(long seed, int size, int steps) {
+        Sim sim = newDesign(seed, size, Sim.Engine.LEVELIZED);
+        List<BaseModule> modules = sim.getModules();
+        LaneSim lanes;
+        sim.lock.writeLock().lock();
+        try {
+            lanes = new LaneSim(sim.getNetlist());
+        }
+        finally {
+            sim.lock.writeLock().unlock();
+        }
+
+        Random rng = new Random(seed);
+        Sim[] copies = new Sim[LaneSim.LANES];
+        for (int l = 0; l < LaneSim.LANES; l++) {
+            copies[l] = newDesign(seed, size, Sim.Engine.LEVELIZED);
+            List<BaseModule> copy = copies[l].getModules();
+            for (int i = 0; i < modules.size(); i++) {
+                if (modules.get(i) instanceof SwitchInput) {
+                    int setting = rng.nextInt(16);
+                    lanes.setSwitch(l, (SwitchInput) modules.get(i), setting);
+                    copy.get(i).setState(setting);
+                    copies[l].propagate(copy.get(i));
+                }
+            }
+        }
+        lanes.settle();
+
+        for (int s = 0; s <= steps; s++) {
+            if (s > 0) {
+                lanes.step();
+                for (Sim c : copies) c.step();
+            }
+
+            for (int l = 0; l < LaneSim.LANES; l++) {
+                List<BaseModule> copy = copies[l].getModules();
+                for (int i = 0; i < modules.size(); i++) {
+                    BaseModule m = modules.get(i), c = copy.get(i);
+                    for (int p = 0; p < m.ports.size(); p++) {
+                        if (lanes.getValue(l, m.ports.get(p)).getPacked() != c.ports.get(p).getPacked()) {
+                            System.err.print("lane " + l + " step " + s + " " + m.getModType() + " port " + p + " ");
+                            return false;
+                        }
+                    }
+                    if (m instanceof Register && lanes.getRegister(l, (Register) m).getPacked()
+                            != ((Register) c).getStoredVal().getPacked()) {
+                        System.err.print("lane " + l + " step " + s + " register ");
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs a generated design on the compiled engine alongside a copy on the
+     * levelized engine, changing a switch between steps now and then
+     * @return Whether every port, register and displayed part matched its
+     * copy after every step
+     */
+    private static boolean compiledMatches(long seed, int size, int steps) {
+        Sim compiled = newDesign(seed, size, Sim.Engine.COMPILED);
+        Sim levelized = newDesign(seed, size, Sim.Engine.LEVELIZED);
+        List<BaseModule> modules = compiled.getModules(), copy = levelized.getModules();
+
+        Random rng = new Random(seed);
+        for (int s = 0; s <= steps; s++) {
+            if (s > 0) {
+                int i = rng.nextInt(modules.size());
+                if (rng.nextBoolean() && modules.get(i) instanceof SwitchInput) {
+                    int setting = rng.nextInt(16);
+                    modules.get(i).setState(setting);
+                    copy.get(i).setState(setting);
+                    compiled.propagate(modules.get(i));
+                    levelized.propagate(copy.get(i));
+                }
+
+                // Have the step publish its display, which brings the parts
+                // up to date
+                compiled.display.show();
+                levelized.display.show();
+                compiled.step();
+                levelized.step();
+            }
+
+            for (int i = 0; i < modules.size(); i++) {
+                BaseModule m = modules.get(i), c = copy.get(i);
+                for (int p = 0; p < m.ports.size(); p++) {
+                    if (m.ports.get(p).getPacked() != c.ports.get(p).getPacked()) {
+                        System.err.print("step " + s + " " + m.getModType() + " port " + p + " ");
+                        return false;
+                    }
+                }
+                if (m instanceof Register && ((Register) m).getStoredVal().getPacked()
+                        != ((Register) c).getStoredVal().getPacked()) {
+                    System.err.print("step " + s + " register ");
+                    return false;
+                }
+                for (int p = 0; p < m.parts.size(); p++) {
+                    VisiblePart part = m.parts.get(p);
+                    if (part.hasDisplayState() && part.captureState() != c.parts.get(p).captureState()) {
+                        System.err.print("step " + s + " " + m.getModType() + " part " + p + " ");
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static Sim newDesign(long seed, int size, Sim.Engine engine) {
+        Sim sim = new Sim();
+        sim.setEngine(engine);
+        DesignGenerator.generate(sim, null, size, seed);
+        return sim;
+    }
+
     private static boolean testval(Object o, Object v) {
         if (!o.equals(v)) {
             System.err.print("BAD VALUE "+o.toString()+" ");
@@ -9,7 +9,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.swing.JOptionPane;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
@@ -18,6 +17,7 @@ import com.modsim.modules.BaseModule.AvailableModules;
 import com.modsim.modules.Link;
 import com.modsim.modules.ports.BidirPort;
 import com.modsim.modules.parts.Port;
+import com.modsim.simulator.Sim;
 
 import org.w3c.dom.*;
 import org.xml.sax.InputSource;
@@ -42,73 +42,94 @@ final class ResultData {
 
 public class XMLReader {
     /**
-     * Reads an XML-format file
+     * Reads an XML-format file into the simulation on screen
      *
      * @param path
      */
     public static ResultData readFile(File xmlFile) {
+        return readFile(xmlFile, Main.sim);
+    }
+
+    /**
+     * Reads an XML-format file, replacing the design in a simulation
+     * @param xmlFile File to read
+     * @param sim Simulation to load it into
+     */
+    public static ResultData readFile(File xmlFile, Sim sim) {
         ResultData result = new ResultData();
 
-        Main.sim.beginDeferPropagations();
+        sim.beginDeferPropagations();
 
         // Read the document elements into the program
-        Main.sim.newSim();
+        sim.newSim();
 
         try {
             DocumentBuilderFactory dbF = DocumentBuilderFactory.newInstance();
             DocumentBuilder db = dbF.newDocumentBuilder();
             Document doc = db.parse(xmlFile);
 
-            result = readXML(doc);
+            result = readXML(doc, sim);
 
-            View v = Main.ui.view;
-            v.init_camX = v.camX = result.camX;
-            v.init_camY = v.camY = result.camY;
-            v.init_zoomI = v.zoomI = result.zoom;
-            v.zoom = View.ZOOM_MULTIPLIER * v.zoomI;
-            v.calcXForm();
+            if (sim.isShown()) {
+                View v = Main.ui.view;
+                v.init_camX = v.camX = result.camX;
+                v.init_camY = v.camY = result.camY;
+                v.init_zoomI = v.zoomI = result.zoom;
+                v.zoom = View.ZOOM_MULTIPLIER * v.zoomI;
+                v.calcXForm();
+            }
 
             // Notify user of partially corrupted file
             if (result.badLinks != 0) {
-                JOptionPane.showMessageDialog(null,
-                        "Detected " + result.badLinks + " bad links in the file. These were ignored.\n"
+                sim.message("Detected " + result.badLinks + " bad links in the file. These were ignored.\n"
                                 + "A known bug in an older version of ModuleSim may have corrupted your file - "
                                 + "there may be other incorrect or missing links.");
             }
 
             // Save the file path
-            Main.sim.filePath = xmlFile.getPath();
-            Main.ui.updateTitle();
+            sim.filePath = xmlFile.getPath();
+            if (sim.isShown()) Main.ui.updateTitle();
         } catch (
 
         Exception e) {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(null,
-                    "Error while loading XML file " + xmlFile.getPath() + " : " + e.getMessage());
+            sim.message("Error while loading XML file " + xmlFile.getPath() + " : " + e.getMessage());
         }
 
-        Main.sim.endDeferPropagations();
-        Main.ui.view.flagStaticRedraw();
+        sim.endDeferPropagations();
+        if (sim.isShown()) Main.ui.view.flagStaticRedraw();
 
         return result;
     }
 
+    /**
+     * Reads XML-format data into the simulation on screen, alongside its design
+     * @param xmlStr Data to read
+     */
     public static ResultData readString(String xmlStr) {
+        return readString(xmlStr, Main.sim);
+    }
+
+    /**
+     * Reads XML-format data into a simulation, alongside its design
+     * @param xmlStr Data to read
+     * @param sim Simulation to add it to
+     */
+    public static ResultData readString(String xmlStr, Sim sim) {
         ResultData result = new ResultData();
 
-        Main.sim.beginDeferPropagations();
+        sim.beginDeferPropagations();
 
         try {
             DocumentBuilderFactory dbF = DocumentBuilderFactory.newInstance();
             DocumentBuilder db = dbF.newDocumentBuilder();
             Document doc = db.parse(new InputSource(new StringReader(xmlStr)));
 
-            result = readXML(doc);
+            result = readXML(doc, sim);
 
             // Notify user of partially corrupted file
             if (result.badLinks != 0) {
-                JOptionPane.showMessageDialog(null,
-                        "Detected " + result.badLinks + " bad links in the file. These were ignored.\n"
+                sim.message("Detected " + result.badLinks + " bad links in the file. These were ignored.\n"
                                 + "A known bug in an older version of ModuleSim may have corrupted your file - "
                                 + "there may be other incorrect or missing links.");
             }
@@ -116,12 +137,11 @@ public class XMLReader {
 
         Exception e) {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(null,
-                    "Error while loading XML data: " + e.getMessage());
+            sim.message("Error while loading XML data: " + e.getMessage());
         }
 
-        Main.sim.endDeferPropagations();
-        Main.ui.view.flagStaticRedraw();
+        sim.endDeferPropagations();
+        if (sim.isShown()) Main.ui.view.flagStaticRedraw();
 
         return result;
     }
@@ -129,11 +149,12 @@ public class XMLReader {
     /**
      * Finds the maximum ID number for entities in the simulation.
      */
-    private static int findMaxID(List<BaseModule> modules) {
-        synchronized (Main.sim) {
+    private static int findMaxID(Sim sim) {
+        sim.lock.readLock().lock();
+        try {
             int id = 0;
 
-            for (BaseModule m : modules) {
+            for (BaseModule m : sim.getModules()) {
                 if (m.ID > id) {
                     id = m.ID;
                 }
@@ -147,9 +168,37 @@ public class XMLReader {
 
             return id;
         }
+        finally {
+            sim.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Finds the elements with a tag name, in document order. The parser builds the document's
+     * nodes as they are first visited, which resets the position cached by the live lists
+     * getElementsByTagName returns - walking one by index while reading each node's contents
+     * takes time proportional to the square of the file size.
+     */
+    private static List<Node> elements(Document doc, String tag) {
+        List<Node> found = new ArrayList<>();
+        Node n = doc.getDocumentElement();
+        while (n != null) {
+            if (n.getNodeType() == Node.ELEMENT_NODE && n.getNodeName().equals(tag)) {
+                found.add(n);
+            }
+
+            // Next node in document order
+            Node next = n.getFirstChild();
+            while (next == null && n != null) {
+                next = n.getNextSibling();
+                n = n.getParentNode();
+            }
+            n = next;
+        }
+        return found;
     }
 
-    private static ResultData readXML(Document doc) {
+    private static ResultData readXML(Document doc, Sim sim) {
         ResultData result = new ResultData();
 
         try {
@@ -157,7 +206,7 @@ public class XMLReader {
 
             // Identity remapping
             Map<Integer, Integer> idRemap = new HashMap<Integer, Integer>();
-            int remapAtId = findMaxID(Main.sim.getModules()) + 1;
+            int remapAtId = findMaxID(sim) + 1;
 
             // View load
             Element view = (Element) doc.getElementsByTagName("view").item(0);
@@ -166,11 +215,10 @@ public class XMLReader {
             result.zoom = Integer.parseInt(view.getAttribute("zoom"));
 
             // Module load
-            NodeList mods = doc.getElementsByTagName("module");
-            List<Port> loadedPorts = new ArrayList<>();
+            List<Node> mods = elements(doc, "module");
+            Map<Integer, Port> loadedPorts = new HashMap<>();
 
-            for (int i = 0; i < mods.getLength(); i++) {
-                Node n = mods.item(i);
+            for (Node n : mods) {
 
                 if (n.getNodeType() == Node.ELEMENT_NODE) {
                     Element module = (Element) n;
@@ -239,7 +287,7 @@ public class XMLReader {
                             inIDRemapped = idRemap.get(inID);
                         }
                         moduleInputs.get(j).ID = inIDRemapped;
-                        loadedPorts.add(moduleInputs.get(j));
+                        loadedPorts.put(inIDRemapped, moduleInputs.get(j));
                     }
 
                     // Set output IDs
@@ -255,7 +303,7 @@ public class XMLReader {
                             outIDRemapped = idRemap.get(outID);
                         }
                         moduleOutputs.get(j).ID = outIDRemapped;
-                        loadedPorts.add(moduleOutputs.get(j));
+                        loadedPorts.put(outIDRemapped, moduleOutputs.get(j));
                     }
 
                     // Additional module data (for NRAM and inputs)
@@ -276,7 +324,7 @@ public class XMLReader {
                     m.propagate();
 
                     // Add to the simulation
-                    Main.sim.addEntity(m);
+                    sim.addEntity(m);
                     m.enabled = true;
 
                     result.modules.add(m);
@@ -284,13 +332,12 @@ public class XMLReader {
             }
 
             // Link load
-            NodeList links = doc.getElementsByTagName("link");
+            List<Node> links = elements(doc, "link");
 
             String BezierPathTagName = new BezierPath().XMLTagName();
             String StraightPathTagName = new StraightPath().XMLTagName();
 
-            for (int i = 0; i < links.getLength(); i++) {
-                Node n = links.item(i);
+            for (Node n : links) {
 
                 if (n.getNodeType() == Node.ELEMENT_NODE) {
                     Element link = (Element) n;
@@ -311,16 +358,9 @@ public class XMLReader {
                     srcID = idRemap.get(srcID);
                     targID = idRemap.get(targID);
 
-                    Port src = null, targ = null;
-
                     // Find the source and target
-                    for (Port p : loadedPorts) {
-                        if (p.ID == srcID) {
-                            src = p;
-                        } else if (p.ID == targID) {
-                            targ = p;
-                        }
-                    }
+                    Port src = loadedPorts.get(srcID);
+                    Port targ = loadedPorts.get(targID);
 
                     // Generate the bezier path
                     Path curve;
@@ -346,8 +386,8 @@ public class XMLReader {
 
                     // Add to the simulation
                     if (l != null) {
-                        Main.sim.addLink(l);
-                        Main.sim.propagate(l.targ.owner);
+                        sim.addLink(l);
+                        sim.propagate(l.targ.owner);
                     } else {
                         result.badLinks++;
                     }
@@ -355,7 +395,7 @@ public class XMLReader {
             }
         } catch (Exception e) {
             e.printStackTrace();
-            JOptionPane.showMessageDialog(null, "Error while loading XML data: " + e.getMessage());
+            sim.message("Error while loading XML data: " + e.getMessage());
         }
 
         return result;
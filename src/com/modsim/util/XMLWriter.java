@@ -19,8 +19,10 @@ import javax.xml.transform.stream.StreamResult;
 
 import com.modsim.modules.BaseModule;
 import com.modsim.modules.Link;
+import com.modsim.modules.NRAM;
 import com.modsim.modules.ports.BidirPort;
 import com.modsim.modules.parts.Port;
+import com.modsim.simulator.Sim;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -30,30 +32,38 @@ import com.modsim.Main;
 public class XMLWriter {
 
     /**
-     * Generates unique IDs for entities in the simulation
+     * Generates unique IDs for entities in the simulation (MUST be called
+     * while holding the write lock)
      */
-    private static void genIDs() {
-        synchronized (Main.sim) {
-            int id = 0;
+    private static void genIDs(Sim sim) {
+        int id = 0;
 
-            for (BaseModule m : Main.sim.getModules()) {
-                m.ID = id++;
+        for (BaseModule m : sim.getModules()) {
+            m.ID = id++;
 
-                for (Port p : m.ports) {
-                    p.ID = id++;
-                }
+            for (Port p : m.ports) {
+                p.ID = id++;
             }
         }
     }
 
     /**
-     * Write an XML format file
+     * Write an XML format file of the simulation on screen
      *
      * @param path
      */
     public static void writeFile(File xmlFile) {
+        writeFile(xmlFile, Main.sim);
+    }
+
+    /**
+     * Writes a simulation's design to an XML format file
+     * @param xmlFile File to write
+     * @param sim Simulation to save
+     */
+    public static void writeFile(File xmlFile, Sim sim) {
         try {
-            Document doc = constructXMLDocument(Main.sim.getModules(), Main.sim.getLinks());
+            Document doc = constructXMLDocument(sim, sim.getModules(), sim.getLinks(), true);
 
             // Saving operation
             TransformerFactory tf = TransformerFactory.newInstance();
@@ -66,8 +76,8 @@ public class XMLWriter {
             t.transform(src, r);
             System.out.println("Saved simulation to " + xmlFile.getAbsolutePath());
 
-            Main.sim.filePath = xmlFile.getPath();
-            Main.ui.updateTitle();
+            sim.filePath = xmlFile.getPath();
+            if (sim.isShown()) Main.ui.updateTitle();
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -75,8 +85,27 @@ public class XMLWriter {
     }
 
     public static String writeString(List<BaseModule> modules, List<Link> links) {
+        return writeString(Main.sim, modules, links);
+    }
+
+    /**
+     * Writes modules and links of a simulation as XML format data
+     * @param sim Simulation they belong to
+     * @return The data, or an empty string if it couldn't be written
+     */
+    public static String writeString(Sim sim, List<BaseModule> modules, List<Link> links) {
+        return writeString(sim, modules, links, true);
+    }
+
+    /**
+     * Writes modules and links of a simulation as XML format data
+     * @param sim Simulation they belong to
+     * @param memory Whether to include the contents of NRAM modules
+     * @return The data, or an empty string if it couldn't be written
+     */
+    public static String writeString(Sim sim, List<BaseModule> modules, List<Link> links, boolean memory) {
         try {
-            Document doc = constructXMLDocument(modules, links);
+            Document doc = constructXMLDocument(sim, modules, links, memory);
 
             // Saving operation
             TransformerFactory tf = TransformerFactory.newInstance();
@@ -100,8 +129,10 @@ public class XMLWriter {
      * 
      * @return The XML document.
      */
-    private static Document constructXMLDocument( List<BaseModule> modules
-                                                , List<Link> links)
+    private static Document constructXMLDocument( Sim sim
+                                                , List<BaseModule> modules
+                                                , List<Link> links
+                                                , boolean memory)
         throws ParserConfigurationException {
         DocumentBuilderFactory dbF = DocumentBuilderFactory.newInstance();
         DocumentBuilder db = dbF.newDocumentBuilder();
@@ -113,16 +144,26 @@ public class XMLWriter {
         doc.appendChild(rootElem);
 
         // Store the view information
+        // (the default view when saving without the user interface)
         Element view = doc.createElement("view");
-        View v = Main.ui.view;
-        view.setAttribute("camX", "" + v.camX);
-        view.setAttribute("camY", "" + v.camY);
-        view.setAttribute("zoom", "" + v.zoomI);
+        if (sim.isShown()) {
+            View v = Main.ui.view;
+            view.setAttribute("camX", "" + v.camX);
+            view.setAttribute("camY", "" + v.camY);
+            view.setAttribute("zoom", "" + v.zoomI);
+        }
+        else {
+            view.setAttribute("camX", "0.0");
+            view.setAttribute("camY", "0.0");
+            view.setAttribute("zoom", "3");
+        }
         rootElem.appendChild(view);
 
-        synchronized (Main.sim) {
+        // Renumbering the entities is an edit, so this takes the write lock
+        sim.lock.writeLock().lock();
+        try {
             // Generate IDs for storage
-            genIDs();
+            genIDs(sim);
 
             // Store the modules
             Element mods = doc.createElement("ModuleSim");
@@ -179,7 +220,7 @@ public class XMLWriter {
 
                 // Data - stored only if the module's dataOut override indicates a modification has been made
                 Element data = doc.createElement("data");
-                HashMap<String, String> dataMap = m.dataOut();
+                HashMap<String, String> dataMap = memory || !(m instanceof NRAM) ? m.dataOut() : ((NRAM) m).dataOut(false);
                 if (dataMap != null) {
                     for (String key : dataMap.keySet()) {
                         data.setAttribute(key, dataMap.get(key));
@@ -211,6 +252,9 @@ public class XMLWriter {
                 linksElem.appendChild(lElem);
             }
         }
+        finally {
+            sim.lock.writeLock().unlock();
+        }
         return doc;
     }
 }